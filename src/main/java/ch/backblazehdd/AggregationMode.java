@@ -0,0 +1,43 @@
+package ch.backblazehdd;
+
+/**
+ * How the records of all files are reduced to one record per hard drive.
+ */
+public enum AggregationMode {
+
+    /**
+     * All workers merge immutable HardDrive records into one shared concurrent map.
+     */
+    SHARED_MAP,
+
+    /**
+     * Every worker folds the records in place into its own map of mutable accumulators, the maps of all workers are
+     * merged once at the end.
+     */
+    THREAD_LOCAL,
+
+    /**
+     * Like THREAD_LOCAL, but every worker folds the records into its own OffHeapDriveTable, keyed by the raw bytes of
+     * the serial number. Keeps the state of all drives outside of the java heap while folding, the merged table is
+     * copied into a sorted map at the end.
+     */
+    OFF_HEAP,
+
+    /**
+     * Reader, parser and aggregator threads connected by bounded queues, see StagedPipeline. Overlaps reading the
+     * files with parsing, for storage where reads block for a long time.
+     */
+    STAGED,
+
+    /**
+     * Like THREAD_LOCAL, but every worker writes its drives to run files, hash partitioned by serial number, whenever
+     * its map holds its share of the memory budget. The partitions are reduced one by one when the result is read,
+     * see SpillingAggregator. For more drives than fit in memory.
+     * <p>
+     * The budget only covers the drives. The side outputs are kept in memory as in the other modes: the SMART
+     * statistics, sketches and failure rates per model and period and the drive-days of the fleet series. Writing
+     * survival.csv groups all drives by model, so it holds all of them at once.
+     */
+    SPILL
+
+}
@@ -1,85 +1,360 @@
 package ch.backblazehdd;
 
 import java.io.*;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import static java.util.stream.Collectors.reducing;
 
 public class Application {
 
+    private static final int QUIET_PERIOD_SECONDS = 2;
+
+    private final Options options;
+
+    private final Instrumentation instrumentation;
+
+    private final Supplier<SideAggregates> sideAggregateFactory;
+
+    private SideAggregates sideAggregates;
+
+    private final ParseCache parseCache;
+
+    private final RecordFilter recordFilter;
+
+    public Application() {
+        this(new Options());
+    }
+
+    public Application(AggregationMode aggregationMode) {
+        this(new Options(aggregationMode));
+    }
+
+    public Application(Options options) {
+        this.options = options;
+        this.instrumentation = Instrumentation.create(options);
+        this.sideAggregateFactory = SideAggregates.factory(options);
+        this.sideAggregates = sideAggregateFactory.get();
 
+        if (options.getCacheDirectory() != null && options.isReadingSmartColumns()) {
+            System.err.println("The cache only keeps the date, serial number, model and failure, it is not used to collect SMART values");
+        }
+        this.parseCache = options.getCacheDirectory() != null && !options.isReadingSmartColumns()
+                ? new ParseCache(options.getCacheDirectory(), options.isCacheVerified())
+                : null;
+        this.recordFilter = RecordFilter.create(options);
+
+        if (options.getAggregationMode() == AggregationMode.SPILL
+                && (!sideAggregates.isEmpty() || options.isSurvival() || options.isFleet())) {
+            System.err.println("The memory budget of the spill mode only covers the drives, the side outputs (SMART statistics, failure rates, survival, fleet) are kept in memory");
+        }
+    }
+
+    /**
+     * Without arguments or with options only (--name=value), aggregates the files in data/ into data.csv.
+     * With "watch" followed by options, keeps running and updates data.csv whenever files are added to data/.
+     * With "generate", writes a synthetic data set, see SyntheticDataGenerator.
+     * With "merge" followed by options and partial aggregates (see --partial), merges them into data.csv, or into
+     * another partial aggregate if --partial is given.
+     * Any other argument updates the manufacturers in data.csv.
+     */
     public static void main(String[] args) throws Exception {
 
-        Application application = new Application();
-        if (args.length != 0) {
-            application.updateManufacturers();
+        if (args.length != 0 && args[0].equals("generate")) {
+            SyntheticDataGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length != 0 && args[0].equals("merge")) {
+            List<String> options = new ArrayList<>();
+            List<File> inputs = new ArrayList<>();
+            for (String arg : Arrays.copyOfRange(args, 1, args.length)) {
+                if (arg.startsWith("--")) {
+                    options.add(arg);
+                } else {
+                    inputs.add(new File(arg));
+                }
+            }
+            new Application(Options.parse(options.toArray(new String[0]))).merge(inputs);
+        } else if (args.length != 0 && args[0].equals("watch")) {
+            new Application(Options.parse(Arrays.copyOfRange(args, 1, args.length))).watch();
+        } else if (args.length != 0 && !args[0].startsWith("--")) {
+            new Application().updateManufacturers();
         } else {
-            application.run();
+            new Application(Options.parse(args)).run();
         }
 
 
     }
 
-    private ConcurrentMap<String, HardDrive> calculateFromFiles() {
-        final int parallelism = 8;
+    /**
+     * @return The cache of parsed files, null if none is used.
+     */
+    protected ParseCache getParseCache() {
+        return parseCache;
+    }
 
-        File folder = new File("data/");
-        File[] files = folder.listFiles();
+    protected Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
 
-        ForkJoinPool forkJoinPool = null;
+    /**
+     * @return The side aggregates of the files read by the last calculateFromFiles.
+     */
+    protected SideAggregates getSideAggregates() {
+        return sideAggregates;
+    }
+
+    protected Map<String, HardDrive> calculateFromFiles() {
+        return calculateFromFiles(listDataFiles());
+    }
+
+    /**
+     * @return All stats files and archives in the data directory, without the ones named after days outside of the
+     * date range.
+     */
+    protected File[] listDataFiles() {
+
+        File folder = options.getDataDirectory();
+        DateRange dateRange = options.getDateRange();
+
+        File[] files = folder.listFiles(file -> file.isFile()
+                && (file.getName().endsWith(".csv") || FileSplitter.isArchive(file))
+                && dateRange.overlaps(file));
+
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * With the parse cache, the ranges are not split from the manifest and don't record entries, so the files not
+     * scanned before are scanned here.
+     *
+     * @return The lines of all files from the manifest, -1 if unknown.
+     */
+    private long expectedLines(Manifest manifest, File[] files) {
+
+        if (manifest == null) {
+            return -1;
+        }
 
         try {
-            forkJoinPool = new ForkJoinPool(parallelism);
+            if (parseCache != null) {
+                manifest.update(files, options.getParallelism());
+            }
+            return manifest.getLines(files);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
 
-            return forkJoinPool.submit(() ->
+    protected Map<String, HardDrive> calculateFromFiles(File[] files) {
+        final int parallelism = options.getParallelism();
 
-                    //parallel stream invoked here
-                    Stream
-                            .of(files)
-                            .parallel()
-                            .flatMap(this::getStreamOfLines)
-                            .collect(
-                                    Collectors.groupingByConcurrent(
-                                            HardDrive::getID,
-                                            ConcurrentSkipListMap::new,
-                                            reducing(
-                                                    new HardDrive(), // Initial Element
-                                                    HardDrive::new,  // Mapping function
-                                                    HardDrive::new)  // "Merging" function
-                                    ))
+        long start = instrumentation.start();
 
+        long splitSize = FileSplitter.splitSize(files, parallelism);
+
+        if (options.getAggregationMode() == AggregationMode.STAGED) {
+            splitSize = Math.min(splitSize, StagedPipeline.MAX_RANGE_SIZE);
+        }
 
-            ).get();
+        Manifest manifest = options.getManifest() == null ? null : Manifest.load(options.getManifest());
 
-        } catch (InterruptedException | ExecutionException e) {
+        List<InputSplit> ranges;
+        if (parseCache != null) {
+            ranges = parseCache.split(files, splitSize, parallelism);
+        } else if (manifest != null) {
+            ranges = FileSplitter.split(files, splitSize, manifest);
+        } else {
+            ranges = FileSplitter.split(files, splitSize);
+        }
+
+        // The entries of archives are only known now
+        if (!options.getDateRange().isAll()) {
+            ranges.removeIf(range -> !options.getDateRange().contains(range.getName()));
+        }
+
+        instrumentation.begin(ranges.stream().mapToLong(InputSplit::getLength).sum());
+        instrumentation.setExpectedLines(expectedLines(manifest, files));
+        instrumentation.stage("split", start);
+
+        ForkJoinPool forkJoinPool = null;
+
+        try {
+            if (options.getAggregationMode() == AggregationMode.STAGED) {
+                StagedPipeline pipeline = new StagedPipeline(options, instrumentation);
+                ConcurrentMap<String, HardDrive> drives = pipeline.run(ranges);
+                sideAggregates = pipeline.getSideAggregates();
+                return drives;
+            }
+
+            // The staged pipeline has threads of its own, the other modes fork and join
+            forkJoinPool = new ForkJoinPool(parallelism);
+
+            switch (options.getAggregationMode()) {
+                case THREAD_LOCAL:
+                    return aggregateThreadLocal(forkJoinPool, parallelism, ranges);
+                case OFF_HEAP:
+                    return aggregateOffHeap(forkJoinPool, parallelism, ranges);
+                case SPILL:
+                    return aggregateSpilling(forkJoinPool, parallelism, ranges);
+                default:
+                    ConcurrentMap<String, HardDrive> map = new ConcurrentSkipListMap<>();
+                    foldPerWorker(forkJoinPool, parallelism, ranges, () -> map, this::aggregateRange);
+                    return map;
+            }
+
+        } catch (InterruptedException | ExecutionException | IOException e) {
             e.printStackTrace();
         } finally {
             if (forkJoinPool != null) {
                 forkJoinPool.shutdown(); //always remember to shutdown the pool
             }
+            if (manifest != null) {
+                addRecorded(manifest);
+            }
+            instrumentation.stage("aggregate", start);
+            instrumentation.end();
         }
 
         return null;
     }
 
-    private void outputResultCSV(Map<String, HardDrive> map) throws Exception {
+    private void addRecorded(Manifest manifest) {
+        try {
+            manifest.addRecorded();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    protected void outputResultCSV(Map<String, HardDrive> map) throws Exception {
+
+        long start = instrumentation.start();
+
+        // Also for the survival groups, which are by mapped model
         ModelMapper.initKnownModels(new File("mapping.csv"));
 
-        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter("data.csv")));
+        if (options.getPartial() != null) {
+            PartialAggregate.write(options.getPartial(), map);
+        } else {
+            writeResultCSV(map.values());
+        }
+        sideAggregates.write(options.getOutput().getAbsoluteFile().getParentFile());
+        writeSurvival(map);
+        writeFleet(map, sideAggregates);
 
-        out.println("life,death,model,manufacturer");
+        instrumentation.stage("output", start);
+    }
+
+    /**
+     * Writes data.csv or the output file given, through a temporary file moved in place, so readers never see a half written file.
+     *
+     * @param hardDrives All hard drives.
+     */
+    private void writeResultCSV(Iterable<HardDrive> hardDrives) throws IOException {
+
+        File temporary = new File(options.getOutput().getPath() + ".tmp");
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(temporary)))) {
 
-        for (HardDrive hardDrive : map.values()) {
-            out.println(hardDrive.getCSVLine());
+            out.println("life,death,model,manufacturer");
+
+            for (HardDrive hardDrive : hardDrives) {
+                out.println(hardDrive.getCSVLine());
+            }
         }
 
-        out.flush();
+        Files.move(temporary.toPath(), options.getOutput().toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Merges partial aggregates, written by runs with --partial, k-way by serial number. Writes the merged drives to
+     * the partial aggregate given by --partial, or else to data.csv. Only one drive per file is held at a time.
+     *
+     * @param inputs The partial aggregates.
+     * @throws IOException When a file is not readable or the result can not be written.
+     */
+    protected void merge(List<File> inputs) throws Exception {
+
+        if (options.getPartial() != null) {
+            int drives = PartialAggregate.merge(inputs, options.getPartial());
+            System.out.println("Merged " + inputs.size() + " file(s), " + drives + " drives");
+            return;
+        }
+
+        ModelMapper.initKnownModels(new File("mapping.csv"));
+
+        List<PartialAggregate.Reader> readers = PartialAggregate.open(inputs);
+
+        try {
+            Iterator<Map.Entry<String, HardDrive>> merged = PartialAggregate.merge(readers);
+
+            writeResultCSV(() -> new Iterator<>() {
+
+                @Override
+                public boolean hasNext() {
+                    return merged.hasNext();
+                }
+
+                @Override
+                public HardDrive next() {
+                    return merged.next().getValue();
+                }
+            });
+        } finally {
+            PartialAggregate.close(readers);
+        }
+    }
+
+    /**
+     * Writes survival.csv next to the output, if asked for.
+     *
+     * @param map The map of all hard drives.
+     */
+    private void writeSurvival(Map<String, HardDrive> map) throws IOException {
+
+        if (!options.isSurvival()) {
+            return;
+        }
+
+        long start = instrumentation.start();
+
+        SurvivalTable.compute(map, options.getParallelism(), SurvivalTable.MIN_DRIVES)
+                .write(options.getOutput().getAbsoluteFile().getParentFile());
+
+        instrumentation.stage("survival", start);
+    }
+
+    /**
+     * Writes fleet.csv next to the output, if asked for.
+     *
+     * @param map            The map of all hard drives.
+     * @param sideAggregates The side aggregates of the same files, with the drive-days.
+     */
+    private void writeFleet(Map<String, HardDrive> map, SideAggregates sideAggregates) throws IOException {
+
+        DriveDays driveDays = sideAggregates.get(DriveDays.class);
+
+        if (!options.isFleet() || driveDays == null) {
+            return;
+        }
+
+        FleetSeries.compute(map, driveDays).write(options.getOutput().getAbsoluteFile().getParentFile());
     }
 
     protected void updateManufacturers() throws Exception {
@@ -113,23 +388,500 @@ public class Application {
 
     protected void run() throws Exception {
 
-        outputResultCSV(calculateFromFiles());
+        warnIfSideAggregatesPartial();
+
+        Map<String, HardDrive> drives = options.getCheckpoint() != null
+                ? calculateIncrementally(listDataFiles(), options.getCheckpoint())
+                : calculateFromFiles();
+
+        try {
+            outputResultCSV(drives);
+        } finally {
+            deleteSpilled(drives);
+        }
+
+        if (instrumentation.isEnabled()) {
+            System.out.println(instrumentation.getSummary());
+        }
 
     }
 
+    private void warnIfSideAggregatesPartial() {
+        if (options.getCheckpoint() != null && !sideAggregates.isEmpty()) {
+            System.err.println("The side outputs (SMART statistics, failure rates) only cover the files read since the checkpoint");
+        }
+    }
+
     /**
-     * Returns a stream of lines, without the first line.
-     *
-     * @param file The file to read.
-     * @return A stream of strings, which are lines. When the file is not readable, returns an empty stream.
+     * Deletes the run files of the drives if they were spilled, see AggregationMode.SPILL.
+     */
+    private static void deleteSpilled(Map<String, HardDrive> drives) {
+        if (drives instanceof SpilledDrives) {
+            ((SpilledDrives) drives).delete();
+        }
+    }
+
+    /**
+     * Aggregates all files once, then keeps the drives in memory and watches data/. Whenever files are added or
+     * changed, only those files are read and merged in, and data.csv is written again. The checkpoint, if given,
+     * is saved after every update. Runs until interrupted.
+     * <p>
+     * The side aggregates are merged for files added only. When a file read before changes, all files are read
+     * again to build them anew, like the first time.
+     * <p>
+     * Spilled drives stay in their run files, deleted when the watch ends, only the drives updated since are held,
+     * see MergedDrives.
      */
-    private Stream<String> getStreamOfLines(File file) {
+    protected void watch() throws Exception {
+
+        ModelMapper.initKnownModels(new File("mapping.csv"));
+
+        warnIfSideAggregatesPartial();
+
+        File folder = options.getDataDirectory();
+
+        Map<String, Checkpoint.FileStamp> stamps = new HashMap<>();
+
+        File[] files = listDataFiles();
+        for (File file : files) {
+            stamps.put(file.getName(), new Checkpoint.FileStamp(file));
+        }
+
+        Map<String, HardDrive> initial = options.getCheckpoint() != null
+                ? calculateIncrementally(files, options.getCheckpoint())
+                : calculateFromFiles(files);
+
+        Map<String, HardDrive> drives = initial instanceof SpilledDrives
+                ? new MergedDrives(initial)
+                : new TreeMap<>(initial);
 
         try {
-            return Files.lines(Paths.get(file.toURI())).skip(1);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return Stream.ofNullable(null);
+            watch(folder, stamps, drives);
+        } finally {
+            deleteSpilled(initial);
+        }
+    }
+
+    private void watch(File folder, Map<String, Checkpoint.FileStamp> stamps, Map<String, HardDrive> drives)
+            throws Exception {
+
+        SideAggregates allSideAggregates = sideAggregates;
+        File outputDirectory = options.getOutput().getAbsoluteFile().getParentFile();
+
+        writeResultCSV(drives.values());
+        allSideAggregates.write(outputDirectory);
+        writeSurvival(drives);
+        writeFleet(drives, allSideAggregates);
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+
+            folder.toPath().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+            while (true) {
+
+                WatchKey key = watchService.take();
+
+                // Wait until the files are written completely, a file copied in sends several events
+                do {
+                    key.pollEvents();
+                    key.reset();
+                    key = watchService.poll(QUIET_PERIOD_SECONDS, TimeUnit.SECONDS);
+                } while (key != null);
+
+                File[] files = listDataFiles();
+                List<File> changed = new ArrayList<>();
+                boolean rewritten = false;
+
+                for (File file : files) {
+                    Checkpoint.FileStamp stamp = new Checkpoint.FileStamp(file);
+                    Checkpoint.FileStamp previous = stamps.put(file.getName(), stamp);
+                    if (!stamp.equals(previous)) {
+                        changed.add(file);
+                        rewritten |= previous != null;
+                    }
+                }
+
+                if (changed.isEmpty()) {
+                    continue;
+                }
+
+                // The records of a file read before can't be taken out of the side aggregates again, so they are
+                // built again from all files then. Merging the drives again is harmless.
+                boolean rebuild = rewritten && !allSideAggregates.isEmpty();
+
+                Map<String, HardDrive> newDrives = calculateFromFiles(rebuild ? files : changed.toArray(new File[0]));
+
+                if (newDrives == null) {
+                    continue;
+                }
+
+                try {
+                    if (drives instanceof MergedDrives) {
+                        ((MergedDrives) drives).merge(newDrives);
+                    } else {
+                        for (Map.Entry<String, HardDrive> entry : newDrives.entrySet()) {
+                            drives.merge(entry.getKey(), entry.getValue(), HardDrive::new);
+                        }
+                    }
+                } finally {
+                    deleteSpilled(newDrives);
+                }
+
+                if (rebuild) {
+                    allSideAggregates = sideAggregates;
+                } else {
+                    allSideAggregates.merge(sideAggregates);
+                }
+
+                writeResultCSV(drives.values());
+                allSideAggregates.write(outputDirectory);
+                writeSurvival(drives);
+                writeFleet(drives, allSideAggregates);
+
+                if (options.getCheckpoint() != null) {
+                    new Checkpoint(new TreeMap<>(stamps), Checkpoint.filterOf(options), drives).save(options.getCheckpoint());
+                }
+
+                System.out.println("Merged " + changed.size() + " file(s), " + drives.size() + " drives");
+
+                if (instrumentation.isEnabled()) {
+                    System.out.println(instrumentation.getSummary());
+                }
+            }
+        }
+    }
+
+    /**
+     * Continues from the checkpoint, only the files added since are read. Saves the checkpoint again, including the
+     * files just read. When a file of the checkpoint has changed or is gone, or the checkpoint was saved with other
+     * record filter options, all files are read again.
+     *
+     * @param files          All files to aggregate.
+     * @param checkpointFile The checkpoint to continue from, doesn't have to exist yet.
+     * @return The map of all hard drives, by their serial number.
+     * @throws IOException When the checkpoint can not be saved.
+     */
+    protected Map<String, HardDrive> calculateIncrementally(File[] files, File checkpointFile) throws IOException {
+
+        Map<String, Checkpoint.FileStamp> stamps = new TreeMap<>();
+        for (File file : files) {
+            stamps.put(file.getName(), new Checkpoint.FileStamp(file));
+        }
+
+        Checkpoint checkpoint = null;
+
+        if (checkpointFile.exists()) {
+            try {
+                checkpoint = Checkpoint.load(checkpointFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            if (checkpoint != null && !checkpoint.isValidFor(stamps)) {
+                System.err.println("Files changed since the checkpoint was saved, reading all files again");
+                checkpoint = null;
+            }
+
+            if (checkpoint != null && !checkpoint.getFilter().equals(Checkpoint.filterOf(options))) {
+                System.err.println("The checkpoint was saved with other filters, reading all files again");
+                checkpoint = null;
+            }
+        }
+
+        Map<String, HardDrive> drives = checkpoint == null ? new TreeMap<>() : checkpoint.getDrives();
+
+        List<File> newFiles = new ArrayList<>();
+        for (File file : files) {
+            if (checkpoint == null || !checkpoint.getFiles().containsKey(file.getName())) {
+                newFiles.add(file);
+            }
+        }
+
+        if (!newFiles.isEmpty()) {
+
+            Map<String, HardDrive> newDrives = calculateFromFiles(newFiles.toArray(new File[0]));
+
+            if (newDrives == null) {
+                return null;
+            }
+
+            if (checkpoint == null && newDrives instanceof SpilledDrives) {
+                // Nothing to merge into: saved and returned as they are, streamed, and deleted by the caller
+                drives = newDrives;
+            } else {
+                try {
+                    for (Map.Entry<String, HardDrive> entry : newDrives.entrySet()) {
+                        drives.merge(entry.getKey(), entry.getValue(), HardDrive::new);
+                    }
+                } finally {
+                    deleteSpilled(newDrives);
+                }
+            }
+        }
+
+        new Checkpoint(stamps, Checkpoint.filterOf(options), drives).save(checkpointFile);
+
+        return drives;
+    }
+
+    /**
+     * Merges all records of the range into the shared map.
+     *
+     * @param cursor The cursor over the records of the range.
+     * @param map    The map of all hard drives, by their serial number.
+     * @param side   The side aggregates of the worker.
+     */
+    private void aggregateRange(RecordCursor cursor, ConcurrentMap<String, HardDrive> map, SideAggregates side) {
+
+        boolean collectSide = !side.isEmpty();
+
+        while (cursor.next()) {
+            map.merge(cursor.getID(), cursor.toHardDrive(), HardDrive::new);
+            if (collectSide) {
+                side.add(cursor);
+            }
+        }
+
+    }
+
+    /**
+     * Lets every worker fold the ranges into its own map of accumulators, then merges the maps of all workers.
+     *
+     * @param forkJoinPool The pool to run the workers in.
+     * @param parallelism  The number of workers.
+     * @param ranges       The splits to read, largest first.
+     * @return The map of all hard drives, by their serial number.
+     */
+    private ConcurrentMap<String, HardDrive> aggregateThreadLocal(ForkJoinPool forkJoinPool, int parallelism,
+                                                                  List<InputSplit> ranges)
+            throws InterruptedException, ExecutionException {
+
+        List<Map<String, DriveAccumulator>> workerMaps =
+                foldPerWorker(forkJoinPool, parallelism, ranges, HashMap::new, this::accumulateRange);
+
+        long start = instrumentation.start();
+
+        Map<String, DriveAccumulator> merged = workerMaps.get(0);
+
+        for (Map<String, DriveAccumulator> workerMap : workerMaps.subList(1, workerMaps.size())) {
+            for (Map.Entry<String, DriveAccumulator> entry : workerMap.entrySet()) {
+                merged.merge(entry.getKey(), entry.getValue(), (acc1, acc2) -> {
+                    acc1.merge(acc2);
+                    return acc1;
+                });
+            }
+        }
+
+        ConcurrentMap<String, HardDrive> map = new ConcurrentSkipListMap<>();
+
+        for (Map.Entry<String, DriveAccumulator> entry : merged.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().toHardDrive());
+        }
+
+        instrumentation.stage("merge", start);
+
+        return map;
+    }
+
+    /**
+     * Lets every worker fold the ranges into its own off heap table, then merges the tables of all workers and copies
+     * the drives into a sorted map, like the other modes return.
+     *
+     * @param forkJoinPool The pool to run the workers in.
+     * @param parallelism  The number of workers.
+     * @param ranges       The splits to read, largest first.
+     * @return The map of all hard drives, by their serial number.
+     */
+    private ConcurrentMap<String, HardDrive> aggregateOffHeap(ForkJoinPool forkJoinPool, int parallelism,
+                                                              List<InputSplit> ranges)
+            throws InterruptedException, ExecutionException {
+
+        List<OffHeapDriveTable> workerTables =
+                foldPerWorker(forkJoinPool, parallelism, ranges, OffHeapDriveTable::new, this::addRangeToTable);
+
+        long start = instrumentation.start();
+
+        OffHeapDriveTable merged = workerTables.get(0);
+
+        for (OffHeapDriveTable workerTable : workerTables.subList(1, workerTables.size())) {
+            merged.merge(workerTable);
+        }
+
+        ConcurrentMap<String, HardDrive> map = new ConcurrentSkipListMap<>(merged);
+
+        instrumentation.stage("merge", start);
+
+        return map;
+    }
+
+    /**
+     * Lets every worker fold the ranges into its own map, which is spilled to partitioned run files whenever it is
+     * full. The partitions are only reduced when the drives returned are read.
+     *
+     * @param forkJoinPool The pool to run the workers in.
+     * @param parallelism  The number of workers.
+     * @param ranges       The splits to read, largest first.
+     * @return The drives of all run files, by their serial number.
+     */
+    private SpilledDrives aggregateSpilling(ForkJoinPool forkJoinPool, int parallelism, List<InputSplit> ranges)
+            throws InterruptedException, ExecutionException, IOException {
+
+        SpillingAggregator aggregator = new SpillingAggregator(options);
+
+        foldPerWorker(forkJoinPool, parallelism, ranges, aggregator::newWorker, this::spillRange);
+
+        long start = instrumentation.start();
+
+        SpilledDrives drives = aggregator.finish();
+
+        instrumentation.stage("merge", start);
+
+        return drives;
+    }
+
+    /**
+     * Starts the workers, which take the ranges off a shared queue until it is empty. As the ranges are sorted
+     * largest first, the small ones fill up the gaps at the end. Every worker folds into its own state and its own
+     * side aggregates, the side aggregates of all workers are merged into the ones of the application.
+     *
+     * @param forkJoinPool The pool to run the workers in.
+     * @param parallelism  The number of workers.
+     * @param ranges       The splits to read, largest first.
+     * @param supplier     Creates the state of a worker.
+     * @param folder       Folds the records of a cursor into the state of a worker.
+     * @return The states of all workers, at least one.
+     */
+    private <T> List<T> foldPerWorker(ForkJoinPool forkJoinPool, int parallelism, List<InputSplit> ranges,
+                                      Supplier<T> supplier, RangeFolder<T> folder)
+            throws InterruptedException, ExecutionException {
+
+        Queue<InputSplit> rangeQueue = new ConcurrentLinkedQueue<>(ranges);
+
+        List<SideAggregates> workerSideAggregates = Collections.synchronizedList(new ArrayList<>(parallelism));
+
+        List<Future<T>> workers = new ArrayList<>(parallelism);
+
+        for (int i = 0; i < parallelism; i++) {
+            workers.add(forkJoinPool.submit(() -> {
+
+                T state = supplier.get();
+                SideAggregates side = sideAggregateFactory.get();
+
+                InputSplit range = rangeQueue.poll();
+                while (range != null) {
+                    long start = instrumentation.start();
+                    long[] opened = {start};
+                    try {
+                        range.read(cursor -> {
+                            instrumentation.stage("open", opened[0]);
+                            if (instrumentation.isEnabled()) {
+                                // Paged in ahead only when timed, so the disk is not counted as parsing
+                                instrumentation.load(cursor);
+                            }
+                            long folding = instrumentation.start();
+                            cursor.setFilter(recordFilter);
+                            folder.fold(cursor, state, side);
+                            instrumentation.records(cursor);
+                            instrumentation.stage("parse-fold", folding);
+                            opened[0] = instrumentation.start();
+                        });
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    instrumentation.splitRead(range, start);
+                    range = rangeQueue.poll();
+                }
+
+                workerSideAggregates.add(side);
+
+                return state;
+            }));
+        }
+
+        List<T> workerStates = new ArrayList<>(parallelism);
+
+        for (Future<T> worker : workers) {
+            workerStates.add(worker.get());
+        }
+
+        sideAggregates = workerSideAggregates.get(0);
+        for (SideAggregates side : workerSideAggregates.subList(1, workerSideAggregates.size())) {
+            sideAggregates.merge(side);
+        }
+
+        return workerStates;
+    }
+
+    /**
+     * Folds the records of a cursor into the state of a worker.
+     */
+    @FunctionalInterface
+    private interface RangeFolder<T> {
+
+        void fold(RecordCursor cursor, T state, SideAggregates side);
+
+    }
+
+    /**
+     * Folds all records of the range into the accumulators of a single worker.
+     *
+     * @param cursor The cursor over the records of the range.
+     * @param map    The accumulators of the worker, by serial number.
+     * @param side   The side aggregates of the worker.
+     */
+    private void accumulateRange(RecordCursor cursor, Map<String, DriveAccumulator> map, SideAggregates side) {
+
+        boolean collectSide = !side.isEmpty();
+
+        while (cursor.next()) {
+            map.computeIfAbsent(cursor.getID(), id -> new DriveAccumulator())
+                    .add(cursor.getDay(), cursor.getModelId(), cursor.isDead());
+            if (collectSide) {
+                side.add(cursor);
+            }
+        }
+
+    }
+
+    /**
+     * Folds all records of the range into the map of a single worker, which spills when it is full.
+     *
+     * @param cursor The cursor over the records of the range.
+     * @param worker The worker of the spilling aggregator.
+     * @param side   The side aggregates of the worker.
+     */
+    private void spillRange(RecordCursor cursor, SpillingAggregator.Worker worker, SideAggregates side) {
+
+        boolean collectSide = !side.isEmpty();
+
+        while (cursor.next()) {
+            worker.add(cursor);
+            if (collectSide) {
+                side.add(cursor);
+            }
+        }
+
+    }
+
+    /**
+     * Folds all records of the range into the off heap table of a single worker.
+     *
+     * @param cursor The cursor over the records of the range.
+     * @param table  The table of the worker.
+     * @param side   The side aggregates of the worker.
+     */
+    private void addRangeToTable(RecordCursor cursor, OffHeapDriveTable table, SideAggregates side) {
+
+        boolean collectSide = !side.isEmpty();
+
+        while (cursor.next()) {
+            int day = cursor.getDay();
+            table.add(cursor.getBuffer(), cursor.getIDStart(), cursor.getIDEnd(),
+                    day, day, cursor.getModelId(), cursor.isDead());
+            if (collectSide) {
+                side.add(cursor);
+            }
         }
 
     }
@@ -0,0 +1,88 @@
+package ch.backblazehdd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Bloom filter of byte strings, looked up directly on the bytes of a buffer. Says for sure when a string was not
+ * added, and may be wrong when it says it was, at about the false positive rate it was sized for.
+ * <p>
+ * The k bit positions are derived from the two halves of a single 64 bit hash (Kirsch and Mitzenmacher). Not thread
+ * safe while adding, safe to look up from many threads once filled.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashes;
+
+    /**
+     * @param expectedInsertions The number of strings to be added.
+     * @param falsePositiveRate  The rate of false positives wanted with that many strings, like 0.01.
+     */
+    public BloomFilter(int expectedInsertions, double falsePositiveRate) {
+        int n = Math.max(1, expectedInsertions);
+        long m = Math.max(64, (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+        this.bits = new long[(int) ((m + 63) / 64)];
+        this.bitCount = bits.length * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    public void add(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        add(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Adds the bytes between start (inclusive) and end (exclusive).
+     */
+    public void add(ByteBuffer buffer, int start, int end) {
+        long hash = hash(buffer, start, end);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return False if the bytes between start (inclusive) and end (exclusive) were never added.
+     */
+    public boolean mightContain(ByteBuffer buffer, int start, int end) {
+        long hash = hash(buffer, start, end);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * FNV-1a over the bytes, with a final mix so both halves are usable.
+     */
+    private static long hash(ByteBuffer buffer, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= buffer.get(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
@@ -0,0 +1,155 @@
+package ch.backblazehdd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.ToIntFunction;
+
+/**
+ * Small open addressing cache that turns byte ranges into strings, creating every distinct string only once.
+ * <p>
+ * Daily stats files repeat the same handful of models and a single date on every line, so looking them up here
+ * avoids decoding the same bytes again and again. Next to the string an int id can be kept, computed once by the
+ * id function given. Not thread safe, every reader keeps its own cache.
+ */
+public class ByteStringCache {
+
+    private byte[][] keys = new byte[64][];
+    private String[] values = new String[64];
+    private int[] ids = new int[64];
+
+    private final ToIntFunction<String> idFunction;
+
+    private int size = 0;
+
+    public ByteStringCache() {
+        this(value -> 0);
+    }
+
+    /**
+     * @param idFunction Computes the id of a string, called once per distinct string.
+     */
+    public ByteStringCache(ToIntFunction<String> idFunction) {
+        this.idFunction = idFunction;
+    }
+
+    /**
+     * Returns the string for the bytes between start (inclusive) and end (exclusive).
+     *
+     * @param buffer The buffer to read from.
+     * @param start  The index of the first byte.
+     * @param end    The index after the last byte.
+     * @return The cached string, created when the bytes are seen for the first time.
+     */
+    public String get(ByteBuffer buffer, int start, int end) {
+        // Slot first, it may grow the table
+        int slot = slot(buffer, start, end);
+        return values[slot];
+    }
+
+    /**
+     * Returns the id of the string for the bytes between start (inclusive) and end (exclusive).
+     *
+     * @param buffer The buffer to read from.
+     * @param start  The index of the first byte.
+     * @param end    The index after the last byte.
+     * @return The cached id, computed when the bytes are seen for the first time.
+     */
+    public int getId(ByteBuffer buffer, int start, int end) {
+        int slot = slot(buffer, start, end);
+        return ids[slot];
+    }
+
+    private int slot(ByteBuffer buffer, int start, int end) {
+
+        int mask = keys.length - 1;
+        int slot = hash(buffer, start, end) & mask;
+
+        while (keys[slot] != null) {
+            if (equals(keys[slot], buffer, start, end)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        byte[] key = new byte[end - start];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = buffer.get(start + i);
+        }
+
+        String value = new String(key, StandardCharsets.ISO_8859_1);
+
+        keys[slot] = key;
+        values[slot] = value;
+        ids[slot] = idFunction.applyAsInt(value);
+
+        if (++size * 2 > keys.length) {
+            return grow(slot);
+        }
+
+        return slot;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    static int hash(ByteBuffer buffer, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] key, ByteBuffer buffer, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Doubles the table.
+     *
+     * @param oldSlot A slot of the old table.
+     * @return The slot of the same entry in the new table.
+     */
+    private int grow(int oldSlot) {
+        byte[][] oldKeys = keys;
+        String[] oldValues = values;
+        int[] oldIds = ids;
+
+        keys = new byte[oldKeys.length * 2][];
+        values = new String[oldValues.length * 2];
+        ids = new int[oldIds.length * 2];
+
+        int newSlot = -1;
+
+        int mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                ByteBuffer key = ByteBuffer.wrap(oldKeys[i]);
+                int slot = hash(key, 0, oldKeys[i].length) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                ids[slot] = oldIds[i];
+
+                if (i == oldSlot) {
+                    newSlot = slot;
+                }
+            }
+        }
+
+        return newSlot;
+    }
+
+}
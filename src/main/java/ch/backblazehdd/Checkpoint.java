@@ -0,0 +1,325 @@
+package ch.backblazehdd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * The aggregated state of all hard drives together with the files it was aggregated from, saved in a compact
+ * binary file. A later run only has to read the files added since.
+ * <p>
+ * The record filter options the drives were aggregated with are saved too, as the files are absorbed with only the
+ * records passing them. A run with other filters has to read all files again, see filterOf.
+ * <p>
+ * Format, all numbers big endian:
+ * <pre>
+ * int magic, int version
+ * int file count, per file: UTF name, long size, long last modified
+ * int filter count, per filter: UTF filter
+ * int model count, per model: UTF model
+ * int drive count, per drive: byte serial length, serial bytes, int min, int max, int model index and dead flag
+ * </pre>
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x42424350; // BBCP
+    private static final int VERSION = 2;
+
+    private final Map<String, FileStamp> files;
+    private final List<String> filter;
+    private final Map<String, HardDrive> drives;
+
+    public Checkpoint(Map<String, FileStamp> files, Map<String, HardDrive> drives) {
+        this(files, Collections.emptyList(), drives);
+    }
+
+    /**
+     * @param files  The files absorbed, by file name.
+     * @param filter The record filter the files were read with, see filterOf.
+     * @param drives The hard drives, by serial number.
+     */
+    public Checkpoint(Map<String, FileStamp> files, List<String> filter, Map<String, HardDrive> drives) {
+        this.files = files;
+        this.filter = filter;
+        this.drives = drives;
+    }
+
+    /**
+     * @return The record filter options in a canonical form, sorted, empty when records are not filtered.
+     */
+    public static List<String> filterOf(Options options) {
+        List<String> filter = new ArrayList<>();
+        options.getModelPrefixes().forEach(prefix -> filter.add("model-prefix=" + prefix));
+        options.getModels().forEach(model -> filter.add("models=" + model));
+        options.getSerials().forEach(serial -> filter.add("serials=" + serial));
+        Collections.sort(filter);
+        return filter;
+    }
+
+    /**
+     * @return The files absorbed, by file name.
+     */
+    public Map<String, FileStamp> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return The record filter the files were read with, see filterOf.
+     */
+    public List<String> getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return The hard drives, by serial number.
+     */
+    public Map<String, HardDrive> getDrives() {
+        return drives;
+    }
+
+    /**
+     * Checks whether the files absorbed are still there as they were. Adding files keeps a checkpoint valid,
+     * changing or removing a file does not, as its records can not be taken out of the aggregate again.
+     *
+     * @param current The files now, by file name.
+     * @return True if every file absorbed is still present, with the same size and last modification time.
+     */
+    public boolean isValidFor(Map<String, FileStamp> current) {
+        for (Map.Entry<String, FileStamp> entry : files.entrySet()) {
+            if (!entry.getValue().equals(current.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file first and moves it in place, a crash never leaves a broken file.
+     *
+     * @param file The file to write.
+     * @throws IOException When the file can not be written.
+     */
+    public void save(File file) throws IOException {
+
+        File temporary = new File(file.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(files.size());
+            for (Map.Entry<String, FileStamp> entry : files.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().getSize());
+                out.writeLong(entry.getValue().getLastModified());
+            }
+
+            out.writeInt(filter.size());
+            for (String value : filter) {
+                out.writeUTF(value);
+            }
+
+            writeDrives(out, drives);
+        }
+
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file The file to read.
+     * @return The checkpoint saved in the file.
+     * @throws IOException When the file is not readable or not a checkpoint.
+     */
+    public static Checkpoint load(File file) throws IOException {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint: " + file);
+            }
+
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+            }
+
+            int fileCount = in.readInt();
+            Map<String, FileStamp> files = new TreeMap<>();
+            for (int i = 0; i < fileCount; i++) {
+                files.put(in.readUTF(), new FileStamp(in.readLong(), in.readLong()));
+            }
+
+            int filterCount = in.readInt();
+            List<String> filter = new ArrayList<>();
+            for (int i = 0; i < filterCount; i++) {
+                filter.add(in.readUTF());
+            }
+
+            return new Checkpoint(files, filter, readDrives(in));
+        }
+    }
+
+    /**
+     * Writes the models used and all drives, in the order of the map. Model ids are written as indexes into the
+     * models written, they are only valid within a run. The map is iterated twice, once for the models and the
+     * count and once for the drives, and never copied, so a SpilledDrives is written partition by partition.
+     */
+    static void writeDrives(DataOutputStream out, Map<String, HardDrive> drives) throws IOException {
+
+        Map<Integer, Integer> modelIndexes = new HashMap<>();
+        List<String> models = new ArrayList<>();
+        int count = 0;
+
+        for (HardDrive hardDrive : drives.values()) {
+            addModel(hardDrive, modelIndexes, models);
+            count++;
+        }
+
+        writeModels(out, models, count);
+
+        for (Map.Entry<String, HardDrive> entry : drives.entrySet()) {
+            writeDrive(out, entry.getKey(), entry.getValue(), modelIndexes);
+        }
+    }
+
+    /**
+     * Writes the drives like writeDrives, converting the values one at a time.
+     *
+     * @param entries The drives, by serial number, in the order to write them.
+     * @param toHardDrive Converts a value, called twice per drive.
+     */
+    static <T> void writeDrives(DataOutputStream out, List<Map.Entry<String, T>> entries,
+                                Function<T, HardDrive> toHardDrive) throws IOException {
+
+        Map<Integer, Integer> modelIndexes = new HashMap<>();
+        List<String> models = new ArrayList<>();
+
+        for (Map.Entry<String, T> entry : entries) {
+            addModel(toHardDrive.apply(entry.getValue()), modelIndexes, models);
+        }
+
+        writeModels(out, models, entries.size());
+
+        for (Map.Entry<String, T> entry : entries) {
+            writeDrive(out, entry.getKey(), toHardDrive.apply(entry.getValue()), modelIndexes);
+        }
+    }
+
+    private static void addModel(HardDrive hardDrive, Map<Integer, Integer> modelIndexes, List<String> models) {
+        if (!modelIndexes.containsKey(hardDrive.getModelId())) {
+            modelIndexes.put(hardDrive.getModelId(), models.size());
+            models.add(hardDrive.getModel());
+        }
+    }
+
+    private static void writeModels(DataOutputStream out, List<String> models, int driveCount) throws IOException {
+        out.writeInt(models.size());
+        for (String model : models) {
+            out.writeUTF(model);
+        }
+        out.writeInt(driveCount);
+    }
+
+    private static void writeDrive(DataOutputStream out, String serialNumber, HardDrive hardDrive,
+                                   Map<Integer, Integer> modelIndexes) throws IOException {
+
+        byte[] serial = serialNumber.getBytes(StandardCharsets.ISO_8859_1);
+
+        if (serial.length > 255) {
+            throw new IOException("Serial number too long: " + serialNumber);
+        }
+
+        out.writeByte(serial.length);
+        out.write(serial);
+        out.writeInt(hardDrive.getMinDay());
+        out.writeInt(hardDrive.getMaxDay());
+        out.writeInt(modelIndexes.get(hardDrive.getModelId()) << 1 | (hardDrive.isDead() ? 1 : 0));
+    }
+
+    /**
+     * Reads the drives written by writeDrives, resolving the models in the ModelDictionary.
+     */
+    static Map<String, HardDrive> readDrives(DataInputStream in) throws IOException {
+
+        int modelCount = in.readInt();
+        int[] modelIds = new int[modelCount];
+        for (int i = 0; i < modelCount; i++) {
+            modelIds[i] = ModelDictionary.getId(in.readUTF());
+        }
+
+        int driveCount = in.readInt();
+        Map<String, HardDrive> drives = new TreeMap<>();
+
+        byte[] serial = new byte[255];
+
+        for (int i = 0; i < driveCount; i++) {
+            int length = in.readUnsignedByte();
+            in.readFully(serial, 0, length);
+
+            int min = in.readInt();
+            int max = in.readInt();
+            int modelAndDead = in.readInt();
+
+            drives.put(new String(serial, 0, length, StandardCharsets.ISO_8859_1),
+                    new HardDrive(min, max, modelIds[modelAndDead >>> 1], (modelAndDead & 1) != 0));
+        }
+
+        return drives;
+    }
+
+    /**
+     * Size and last modification time of a file, to notice when it changed.
+     */
+    public static class FileStamp {
+
+        private final long size;
+        private final long lastModified;
+
+        public FileStamp(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public FileStamp(File file) {
+            this(file.length(), file.lastModified());
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FileStamp)) return false;
+            FileStamp fileStamp = (FileStamp) o;
+            return size == fileStamp.size && lastModified == fileStamp.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+        }
+    }
+
+}
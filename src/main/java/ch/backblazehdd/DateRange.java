@@ -0,0 +1,94 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The days to read, by the names of the files: daily files are named like 2013-04-10.csv and the quarterly archives
+ * of Backblaze like data_Q1_2016.zip. Files named otherwise are always read.
+ */
+public class DateRange {
+
+    public static final DateRange ALL = new DateRange(null, null);
+
+    private static final Pattern QUARTER = Pattern.compile("data_Q([1-4])_(\\d{4})\\.zip", Pattern.CASE_INSENSITIVE);
+
+    private final LocalDate from;
+    private final LocalDate to;
+
+    /**
+     * @param from The first day, null for no limit.
+     * @param to   The last day, null for no limit.
+     */
+    public DateRange(LocalDate from, LocalDate to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public boolean isAll() {
+        return from == null && to == null;
+    }
+
+    /**
+     * @return False if the file only holds days outside of the range, judged by its name.
+     */
+    public boolean overlaps(File file) {
+
+        if (isAll()) {
+            return true;
+        }
+
+        Matcher quarter = QUARTER.matcher(file.getName());
+
+        if (quarter.matches()) {
+            LocalDate start = LocalDate.of(Integer.parseInt(quarter.group(2)), Integer.parseInt(quarter.group(1)) * 3 - 2, 1);
+            return overlaps(start, start.plusMonths(3).minusDays(1));
+        }
+
+        return contains(file.getName());
+    }
+
+    /**
+     * @param name The name of a file or split, like 2013-04-10.csv or data_Q2_2013.zip!2013-04-10.csv.
+     * @return False if the name starts with a day outside of the range.
+     */
+    public boolean contains(String name) {
+        LocalDate date = dateOf(name);
+        return date == null || overlaps(date, date);
+    }
+
+    private boolean overlaps(LocalDate start, LocalDate end) {
+        return (from == null || !end.isBefore(from)) && (to == null || !start.isAfter(to));
+    }
+
+    /**
+     * @param name The name of a file or split, the part after the last / or ! is looked at.
+     * @return The day the name starts with, null if it doesn't start with one.
+     */
+    public static LocalDate dateOf(String name) {
+
+        String fileName = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('!')) + 1);
+
+        if (fileName.length() < 10) {
+            return null;
+        }
+
+        try {
+            return LocalDate.parse(fileName.substring(0, 10));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+
+}
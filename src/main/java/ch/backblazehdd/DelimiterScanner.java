@@ -0,0 +1,128 @@
+package ch.backblazehdd;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds delimiters in a buffer eight bytes at a time, SIMD within a register: a long is read, every byte equal to
+ * the delimiter is turned into a set high bit, and the first set bit is the position. Lines of the stats files are
+ * mostly commas of empty SMART columns, so skipping to the line break is where the time of the parser goes.
+ * <p>
+ * The exact form of the zero byte test is used, which can't report a byte behind the real match, so the first bit
+ * found is always the first delimiter in memory.
+ */
+public class DelimiterScanner {
+
+    public static final long COMMAS = broadcast((byte) ',');
+    public static final long NEWLINES = broadcast((byte) '\n');
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private DelimiterScanner() {
+    }
+
+    /**
+     * @param value The delimiter.
+     * @return The pattern to search for, the delimiter in every byte of a long.
+     */
+    public static long broadcast(byte value) {
+        return (value & 0xFFL) * ONES;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the delimiter between from (inclusive) and to (exclusive).
+     *
+     * @param buffer  The buffer to search.
+     * @param pattern The delimiter in every byte, from broadcast.
+     * @param from    The index to start at.
+     * @param to      The index to stop before.
+     * @return The index of the delimiter, -1 if there is none.
+     */
+    public static int indexOf(ByteBuffer buffer, long pattern, int from, int to) {
+
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+
+        int i = from;
+
+        for (; i <= to - Long.BYTES; i += Long.BYTES) {
+            long matches = matches(buffer.getLong(i), pattern);
+            if (matches != 0) {
+                // The first byte in memory is the most significant one of a big endian long
+                return i + (bigEndian ? Long.numberOfLeadingZeros(matches) : Long.numberOfTrailingZeros(matches)) / 8;
+            }
+        }
+
+        byte value = (byte) pattern;
+
+        for (; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Writes the indexes of all occurrences of the delimiter between from (inclusive) and to (exclusive) into the
+     * positions, in order, until the array is full. Every word read yields all its matches, so a stretch of empty
+     * fields costs a word per eight bytes instead of a search per field.
+     *
+     * @param buffer    The buffer to search.
+     * @param pattern   The delimiter in every byte, from broadcast.
+     * @param from      The index to start at.
+     * @param to        The index to stop before.
+     * @param positions The array to write the indexes into.
+     * @param offset    The index in the array to write the first index to.
+     * @return The index in the array after the last index written, positions.length if it is full, in which case
+     * the search may continue after the last index.
+     */
+    public static int indexAll(ByteBuffer buffer, long pattern, int from, int to, int[] positions, int offset) {
+
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+
+        int count = offset;
+        int i = from;
+
+        for (; i <= to - Long.BYTES; i += Long.BYTES) {
+
+            long matches = matches(buffer.getLong(i), pattern);
+
+            while (matches != 0) {
+
+                if (count == positions.length) {
+                    return count;
+                }
+
+                if (bigEndian) {
+                    int bit = Long.numberOfLeadingZeros(matches);
+                    positions[count++] = i + bit / 8;
+                    matches &= ~(Long.MIN_VALUE >>> bit);
+                } else {
+                    positions[count++] = i + Long.numberOfTrailingZeros(matches) / 8;
+                    matches &= matches - 1;
+                }
+            }
+        }
+
+        byte value = (byte) pattern;
+
+        for (; i < to && count < positions.length; i++) {
+            if (buffer.get(i) == value) {
+                positions[count++] = i;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return The high bit set in every byte of the word equal to the pattern, all other bits clear.
+     */
+    static long matches(long word, long pattern) {
+        long zeros = word ^ pattern;
+        return ~(((zeros & LOW_BITS) + LOW_BITS) | zeros | LOW_BITS);
+    }
+
+}
@@ -0,0 +1,58 @@
+package ch.backblazehdd;
+
+/**
+ * Mutable counterpart of a HardDrive, records of the same hard drive are folded into it in place.
+ * <p>
+ * Follows the same rules as the merging constructor of HardDrive. Not thread safe, owned by a single worker.
+ */
+public class DriveAccumulator {
+
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    private int modelId = ModelDictionary.EMPTY;
+
+    private boolean dead = false;
+
+    /**
+     * Folds a single record into this accumulator.
+     *
+     * @param day     The day of the record, in epoch days.
+     * @param modelId The model id of the record.
+     * @param dead    True if the record reports a failure.
+     */
+    public void add(int day, int modelId, boolean dead) {
+        if (day < this.min) {
+            this.min = day;
+        }
+        if (day > this.max) {
+            this.max = day;
+        }
+        if (this.modelId == ModelDictionary.EMPTY) {
+            this.modelId = modelId;
+        }
+        this.dead |= dead;
+    }
+
+    /**
+     * Folds another accumulator of the same hard drive into this one.
+     *
+     * @param other The other accumulator, stays unchanged.
+     */
+    public void merge(DriveAccumulator other) {
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+        if (this.modelId == ModelDictionary.EMPTY) {
+            this.modelId = other.modelId;
+        }
+        this.dead |= other.dead;
+    }
+
+    /**
+     * @return An immutable record of the current state.
+     */
+    public HardDrive toHardDrive() {
+        return new HardDrive(min, max, modelId, dead);
+    }
+
+}
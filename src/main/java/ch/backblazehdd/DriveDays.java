@@ -0,0 +1,223 @@
+package ch.backblazehdd;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Drive-days and failures per model and day, for annualized failure rates: failures / drive-days * 365.
+ * <p>
+ * Every record is one drive-day. The counts of a model are an int array by day, starting at a base day, so a record
+ * costs two array increments. The arrays double when a day falls outside of them, with the room on the side the day
+ * is on: splits are read largest first, often newest first, so the days arrive in either order. Every worker counts
+ * into its own instance, which are added up at the end.
+ */
+public class DriveDays implements SideAggregate<DriveDays> {
+
+    private static final int DAYS_CHUNK = 128;
+
+    private final ReportPeriod period;
+
+    // By model id, then by day - baseDay
+    private int[][] driveDays = new int[0][];
+    private int[][] failures = new int[0][];
+
+    private int baseDay = 0;
+    private int capacity = 0;
+
+    private int firstDay = Integer.MAX_VALUE;
+    private int endDay = Integer.MIN_VALUE;
+
+    /**
+     * @param period The period the failure rates are written by, null to count only.
+     */
+    public DriveDays(ReportPeriod period) {
+        this.period = period;
+    }
+
+    @Override
+    public void add(RecordCursor cursor) {
+        add(cursor.getModelId(), cursor.getDay(), 1, cursor.isDead() ? 1 : 0);
+    }
+
+    private void add(int modelId, int day, int count, int failed) {
+
+        if (day < baseDay || day >= baseDay + capacity) {
+            growDays(day);
+        }
+        if (modelId >= driveDays.length || driveDays[modelId] == null) {
+            growModels(modelId);
+        }
+
+        if (day < firstDay) {
+            firstDay = day;
+        }
+        if (day >= endDay) {
+            endDay = day + 1;
+        }
+
+        int index = day - baseDay;
+        driveDays[modelId][index] += count;
+        failures[modelId][index] += failed;
+    }
+
+    @Override
+    public void merge(DriveDays other) {
+        for (int model = 0; model < other.driveDays.length; model++) {
+            if (other.driveDays[model] == null) {
+                continue;
+            }
+            for (int day = other.firstDay; day < other.endDay; day++) {
+                int index = day - other.baseDay;
+                if (other.driveDays[model][index] > 0) {
+                    add(model, day, other.driveDays[model][index], other.failures[model][index]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes afr.csv, the drive-days, failures and annualized failure rate in percent per model and period, and of
+     * all models together. Nothing without a period.
+     */
+    @Override
+    public void write(File directory) throws IOException {
+
+        if (period == null) {
+            return;
+        }
+
+        // By model, then by period
+        Map<String, Map<String, long[]>> totals = new TreeMap<>();
+
+        for (int model = 0; model < driveDays.length; model++) {
+            if (driveDays[model] == null) {
+                continue;
+            }
+            for (int day = firstDay; day < endDay; day++) {
+                int index = day - baseDay;
+                if (driveDays[model][index] > 0) {
+                    String label = period.getLabel(day);
+                    add(totals, ModelDictionary.getModel(model), label, index, model);
+                    add(totals, "All Drives", label, index, model);
+                }
+            }
+        }
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, "afr.csv"))))) {
+
+            out.println("model,period,drive_days,failures,afr");
+
+            for (Map.Entry<String, Map<String, long[]>> model : totals.entrySet()) {
+                for (Map.Entry<String, long[]> total : model.getValue().entrySet()) {
+                    long[] counts = total.getValue();
+                    out.println(model.getKey() + "," + total.getKey() + "," + counts[0] + "," + counts[1] + ","
+                            + getAnnualizedFailureRate(counts[0], counts[1]));
+                }
+            }
+        }
+    }
+
+    private void add(Map<String, Map<String, long[]>> totals, String group, String label, int index, int model) {
+        long[] counts = totals.computeIfAbsent(group, key -> new TreeMap<>()).computeIfAbsent(label, key -> new long[2]);
+        counts[0] += driveDays[model][index];
+        counts[1] += failures[model][index];
+    }
+
+    /**
+     * @return The failures per drive-year, in percent.
+     */
+    public static double getAnnualizedFailureRate(long driveDays, long failures) {
+        return driveDays == 0 ? 0 : failures * 365.0 * 100 / driveDays;
+    }
+
+    /**
+     * @return The number of records of the model on the day, the drives which reported.
+     */
+    public int getDriveDays(int modelId, int day) {
+        int index = day - baseDay;
+        return modelId < driveDays.length && driveDays[modelId] != null && index >= 0 && index < capacity
+                ? driveDays[modelId][index] : 0;
+    }
+
+    public int getFailures(int modelId, int day) {
+        int index = day - baseDay;
+        return modelId < failures.length && failures[modelId] != null && index >= 0 && index < capacity
+                ? failures[modelId][index] : 0;
+    }
+
+    /**
+     * @return The first day counted, Integer.MAX_VALUE if none.
+     */
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * @return The day after the last one counted.
+     */
+    public int getEndDay() {
+        return endDay;
+    }
+
+    /**
+     * @return The number of model ids counted so far, some of them may have no records.
+     */
+    public int getModels() {
+        return driveDays.length;
+    }
+
+    private void growDays(int day) {
+
+        if (capacity == 0) {
+            baseDay = day;
+            capacity = DAYS_CHUNK;
+            for (int model = 0; model < driveDays.length; model++) {
+                driveDays[model] = shift(driveDays[model], 0, capacity);
+                failures[model] = shift(failures[model], 0, capacity);
+            }
+            return;
+        }
+
+        int first = Math.min(baseDay, day);
+        int end = Math.max(baseDay + capacity, day + 1);
+
+        // At least double, so a run of earlier or later days moves the arrays a logarithmic number of times
+        int newCapacity = Math.max(capacity * 2, (end - first + DAYS_CHUNK - 1) / DAYS_CHUNK * DAYS_CHUNK);
+        int newBaseDay = day < baseDay ? end - newCapacity : first;
+        int shift = baseDay - newBaseDay;
+
+        for (int model = 0; model < driveDays.length; model++) {
+            driveDays[model] = shift(driveDays[model], shift, newCapacity);
+            failures[model] = shift(failures[model], shift, newCapacity);
+        }
+
+        baseDay = newBaseDay;
+        capacity = newCapacity;
+    }
+
+    private static int[] shift(int[] counts, int shift, int length) {
+        if (counts == null) {
+            return null;
+        }
+        int[] shifted = new int[length];
+        System.arraycopy(counts, 0, shifted, shift, Math.min(counts.length, length - shift));
+        return shifted;
+    }
+
+    private void growModels(int modelId) {
+        if (modelId >= driveDays.length) {
+            int models = Math.max(modelId + 1, ModelDictionary.size());
+            driveDays = Arrays.copyOf(driveDays, models);
+            failures = Arrays.copyOf(failures, models);
+        }
+        driveDays[modelId] = new int[capacity];
+        failures[modelId] = new int[capacity];
+    }
+
+}
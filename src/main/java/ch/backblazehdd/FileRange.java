@@ -0,0 +1,68 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A range of bytes of a stats file, starting at the beginning of a line and ending after a line break (or at the
+ * end of the file). The unit of work when reading the files in parallel.
+ */
+public class FileRange implements InputSplit {
+
+    private final File file;
+    private final long start;
+    private final long end;
+
+    public FileRange(File file, long start, long end) {
+        this.file = file;
+        this.start = start;
+        this.end = end;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public long getLength() {
+        return end - start;
+    }
+
+    /**
+     * @return A cursor over the records of this range, with the schema from the header of the file.
+     * @throws IOException When the file can not be mapped.
+     */
+    public RecordCursor open() throws IOException {
+        return RecordCursor.map(file, start, end);
+    }
+
+    /**
+     * Hands a single cursor over the memory mapped range to the consumer.
+     */
+    @Override
+    public void read(CursorConsumer consumer) throws IOException, InterruptedException {
+        consumer.accept(open());
+    }
+
+    @Override
+    public String toString() {
+        return "FileRange{" +
+                "file=" + file +
+                ", start=" + start +
+                ", end=" + end +
+                '}';
+    }
+}
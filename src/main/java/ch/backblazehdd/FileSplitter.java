@@ -0,0 +1,198 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Cuts the stats files into ranges of about the same size, aligned to line breaks.
+ * <p>
+ * The daily files of recent years are a lot larger than the ones of 2013, with one unit of work per file a few
+ * large files keep a single worker busy while the others are idle. ZIP archives are not cut, every file within an
+ * archive becomes a split on its own.
+ */
+public class FileSplitter {
+
+    public static final long MIN_SPLIT_SIZE = 1 << 20;
+    public static final long MAX_SPLIT_SIZE = 64 << 20;
+
+    private static final int SCAN_BUFFER_SIZE = 64 << 10;
+
+    public FileSplitter() {
+    }
+
+    /**
+     * Chooses a split size giving every worker several ranges, so the last ranges are small and finish together.
+     *
+     * @param files       The files to split.
+     * @param parallelism The number of workers.
+     * @return The size of a range in bytes.
+     */
+    public static long splitSize(File[] files, int parallelism) {
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+
+        long size = total / (parallelism * 8L);
+
+        return Math.max(MIN_SPLIT_SIZE, Math.min(MAX_SPLIT_SIZE, size));
+    }
+
+    /**
+     * Splits all files into ranges of at most about splitSize bytes, a range always ends after a line break, so it
+     * might be a line longer. Files ending in .zip are split into their entries.
+     *
+     * @param files     The files to split.
+     * @param splitSize The size of a range in bytes.
+     * @return The splits of all files, largest first.
+     */
+    public static List<InputSplit> split(File[] files, long splitSize) {
+
+        List<InputSplit> ranges = new ArrayList<>();
+
+        for (File file : files) {
+            try {
+                if (isArchive(file)) {
+                    ranges.addAll(ZipEntrySplit.list(file));
+                } else {
+                    ranges.addAll(split(file, splitSize));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        ranges.sort(Comparator.comparingLong(InputSplit::getLength).reversed());
+
+        return ranges;
+    }
+
+    /**
+     * Splits like split(files, splitSize), but cuts the files listed in the manifest at their line starts without
+     * reading them. The ranges of the other files record their entries while they are read.
+     *
+     * @param files     The files to split.
+     * @param splitSize The size of a range in bytes.
+     * @param manifest  The manifest of the data directory.
+     * @return The splits of all files, largest first.
+     */
+    public static List<InputSplit> split(File[] files, long splitSize, Manifest manifest) {
+
+        List<InputSplit> ranges = new ArrayList<>();
+
+        for (File file : files) {
+            try {
+                Manifest.Entry entry = manifest.get(file);
+                if (isArchive(file)) {
+                    ranges.addAll(ZipEntrySplit.list(file));
+                } else if (entry != null) {
+                    ranges.addAll(split(file, splitSize, entry));
+                } else {
+                    ranges.addAll(manifest.recording(file, split(file, splitSize)));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        ranges.sort(Comparator.comparingLong(InputSplit::getLength).reversed());
+
+        return ranges;
+    }
+
+    /**
+     * @param file      The file to split.
+     * @param splitSize The size of a range in bytes.
+     * @param entry     The entry of the file in the manifest, with its size and line starts.
+     * @return The ranges of the file, in order, a range ends at the first line start at or after splitSize bytes.
+     */
+    public static List<FileRange> split(File file, long splitSize, Manifest.Entry entry) {
+
+        List<FileRange> ranges = new ArrayList<>();
+
+        long size = entry.getSize();
+        long start = 0;
+        int next = 0;
+
+        long[] lineStarts = entry.getLineStarts();
+
+        while (start < size) {
+
+            while (next < lineStarts.length && lineStarts[next] < start + splitSize) {
+                next++;
+            }
+
+            long end = size - start <= splitSize || next == lineStarts.length ? size : lineStarts[next];
+            ranges.add(new FileRange(file, start, end));
+            start = end;
+        }
+
+        return ranges;
+    }
+
+    public static boolean isArchive(File file) {
+        return file.getName().toLowerCase().endsWith(".zip");
+    }
+
+    /**
+     * @param file      The file to split.
+     * @param splitSize The size of a range in bytes.
+     * @return The ranges of the file, in order.
+     * @throws IOException When the file is not readable.
+     */
+    public static List<FileRange> split(File file, long splitSize) throws IOException {
+
+        List<FileRange> ranges = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            long size = channel.size();
+            long start = 0;
+
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+
+            while (start < size) {
+                long end = size - start <= splitSize ? size : nextLineStart(channel, buffer, start + splitSize, size);
+                ranges.add(new FileRange(file, start, end));
+                start = end;
+            }
+        }
+
+        return ranges;
+    }
+
+    /**
+     * @return The position after the first line break at or after position, or the size if there is none.
+     */
+    private static long nextLineStart(FileChannel channel, ByteBuffer buffer, long position, long size)
+            throws IOException {
+
+        while (position < size) {
+
+            buffer.clear();
+            int read = channel.read(buffer, position);
+
+            if (read <= 0) {
+                break;
+            }
+
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+
+            position += read;
+        }
+
+        return size;
+    }
+
+}
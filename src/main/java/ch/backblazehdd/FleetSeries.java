@@ -0,0 +1,124 @@
+package ch.backblazehdd;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * The drives active, added and retired per model and day.
+ * <p>
+ * The active drives are the records of the day, counted by DriveDays while the files are read. Added and retired
+ * drives are counted once all drives are aggregated, at the first and the last day every drive was seen. Drives
+ * still reporting on the last day of the data are not retired, the ones of the first day are all added on it.
+ */
+public class FleetSeries {
+
+    private final DriveDays driveDays;
+
+    private final int firstDay;
+    private final int days;
+
+    // By model id, then by day - firstDay
+    private final int[][] added;
+    private final int[][] retired;
+
+    private FleetSeries(DriveDays driveDays, int firstDay, int days, int models) {
+        this.driveDays = driveDays;
+        this.firstDay = firstDay;
+        this.days = days;
+        this.added = new int[models][];
+        this.retired = new int[models][];
+    }
+
+    /**
+     * @param drives    The aggregated drives.
+     * @param driveDays The drive-days counted while reading the same files.
+     * @return The series of all models.
+     */
+    public static FleetSeries compute(Map<String, HardDrive> drives, DriveDays driveDays) {
+
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        int models = driveDays.getModels();
+
+        for (HardDrive drive : drives.values()) {
+            first = Math.min(first, drive.getMinDay());
+            last = Math.max(last, drive.getMaxDay());
+            models = Math.max(models, drive.getModelId() + 1);
+        }
+
+        FleetSeries series = new FleetSeries(driveDays, first, drives.isEmpty() ? 0 : last - first + 1, models);
+
+        for (HardDrive drive : drives.values()) {
+            series.increment(series.added, drive.getModelId(), drive.getMinDay());
+            if (drive.getMaxDay() < last) {
+                series.increment(series.retired, drive.getModelId(), drive.getMaxDay());
+            }
+        }
+
+        return series;
+    }
+
+    private void increment(int[][] counts, int modelId, int day) {
+        if (counts[modelId] == null) {
+            counts[modelId] = new int[days];
+        }
+        counts[modelId][day - firstDay]++;
+    }
+
+    public int getActive(int modelId, int day) {
+        return driveDays.getDriveDays(modelId, day);
+    }
+
+    public int getAdded(int modelId, int day) {
+        return get(added, modelId, day);
+    }
+
+    public int getRetired(int modelId, int day) {
+        return get(retired, modelId, day);
+    }
+
+    private int get(int[][] counts, int modelId, int day) {
+        int index = day - firstDay;
+        return modelId < counts.length && counts[modelId] != null && index >= 0 && index < days
+                ? counts[modelId][index] : 0;
+    }
+
+    /**
+     * Writes fleet.csv, one line per model and day with active, added or retired drives.
+     */
+    public void write(File directory) throws IOException {
+
+        int[] models = IntStream.range(1, added.length)
+                .boxed()
+                .sorted(Comparator.comparing(ModelDictionary::getModel))
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, "fleet.csv"))))) {
+
+            out.println("model,date,active,added,retired");
+
+            for (int model : models) {
+                for (int day = firstDay; day < firstDay + days; day++) {
+
+                    int active = getActive(model, day);
+                    int addedDrives = getAdded(model, day);
+                    int retiredDrives = getRetired(model, day);
+
+                    if (active > 0 || addedDrives > 0 || retiredDrives > 0) {
+                        out.println(ModelDictionary.getModel(model) + "," + LocalDate.ofEpochDay(day) + ","
+                                + active + "," + addedDrives + "," + retiredDrives);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -1,35 +1,46 @@
 package ch.backblazehdd;
 
-import java.time.Duration;
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
-import java.time.temporal.TemporalUnit;
 
 /**
  * Implementation for a Hard Drive record, immutable.
+ * <p>
+ * Dates are kept as epoch days and the model as id of the ModelDictionary, the dead flag is packed into the
+ * lowest bit of the model field. An empty record has no dates and the empty model.
  */
 public class HardDrive {
 
-    private String min = "";
-    private String max = "";
+    private static final int NO_MIN = Integer.MAX_VALUE;
+    private static final int NO_MAX = Integer.MIN_VALUE;
 
-    private String model = "";
+    private final int min;
+    private final int max;
 
-    private boolean dead = false;
+    private final int modelAndDead;
 
     public HardDrive() {
+        this(NO_MIN, NO_MAX, ModelDictionary.EMPTY, false);
     }
 
     public HardDrive(String min, String max) {
-        this.min = min;
-        this.max = max;
+        this(min, max, "", false);
     }
 
     public HardDrive(String min, String max, String model, boolean dead) {
+        this(min.isEmpty() ? NO_MIN : parseEpochDay(min, 0), max.isEmpty() ? NO_MAX : parseEpochDay(max, 0),
+                ModelDictionary.getId(model), dead);
+    }
+
+    /**
+     * @param min     The first day the drive was seen, in epoch days.
+     * @param max     The last day the drive was seen, in epoch days.
+     * @param modelId The id of the model in the ModelDictionary.
+     * @param dead    True if the drive failed.
+     */
+    public HardDrive(int min, int max, int modelId, boolean dead) {
         this.min = min;
         this.max = max;
-        this.model = model;
-        this.dead = dead;
+        this.modelAndDead = modelId << 1 | (dead ? 1 : 0);
     }
 
 
@@ -40,17 +51,17 @@ public class HardDrive {
      * @param line The line from a hdd stats file.
      */
     public HardDrive(String line) {
-        this.min = line.substring(0, 10);
+        this.min = parseEpochDay(line, 0);
         this.max = this.min;
 
         int modelStartIndex = line.indexOf(44, 12) + 1;
         int modelEndIndex = line.indexOf(44, modelStartIndex + 1);
 
-        this.model = line.substring(modelStartIndex, modelEndIndex);
+        int modelId = ModelDictionary.getId(line.substring(modelStartIndex, modelEndIndex));
 
         int deadIndex = line.indexOf(44, modelEndIndex + 1) + 1;
 
-        this.dead = line.charAt(deadIndex) == '1';
+        this.modelAndDead = modelId << 1 | (line.charAt(deadIndex) == '1' ? 1 : 0);
 
     }
 
@@ -67,39 +78,41 @@ public class HardDrive {
      * @return The merged hard drive record. It's always a new object.
      */
     public HardDrive(HardDrive hd1, HardDrive hd2) {
-        if (hd1.min.compareTo(hd2.min) > 0 || hd1.min.equals("")) {
-            this.min = hd2.min;
-        } else {
-            this.min = hd1.min;
-        }
+        this.min = Math.min(hd1.min, hd2.min);
+        this.max = Math.max(hd1.max, hd2.max);
 
-        //Compare Max
+        int modelId = hd1.getModelId() == ModelDictionary.EMPTY ? hd2.getModelId() : hd1.getModelId();
 
-        if (hd1.max.compareTo(hd2.max) < 0) {
-            this.max = hd2.max;
-        } else {
-            this.max = hd1.max;
-        }
-
-        this.model = hd1.model.equals("") ? hd2.model : hd1.model;
-        this.dead = hd1.dead || hd2.dead;
+        this.modelAndDead = modelId << 1 | ((hd1.modelAndDead | hd2.modelAndDead) & 1);
     }
 
 
     public String getMin() {
-        return min;
+        return min == NO_MIN ? "" : LocalDate.ofEpochDay(min).toString();
     }
 
     public String getMax() {
+        return max == NO_MAX ? "" : LocalDate.ofEpochDay(max).toString();
+    }
+
+    public int getMinDay() {
+        return min;
+    }
+
+    public int getMaxDay() {
         return max;
     }
 
     public String getModel() {
-        return model;
+        return ModelDictionary.getModel(getModelId());
+    }
+
+    public int getModelId() {
+        return modelAndDead >>> 1;
     }
 
     public boolean isDead() {
-        return dead;
+        return (modelAndDead & 1) != 0;
     }
 
     public static String getID(String line) {
@@ -108,11 +121,45 @@ public class HardDrive {
 
     public long calculateLife() {
 
-        LocalDate dateMin = LocalDate.parse(this.min);
-        LocalDate dateMax = LocalDate.parse(this.max);
+        return (long) max - min;
+
+    }
 
-        return Duration.between(dateMin.atStartOfDay(), dateMax.atStartOfDay()).toDays();
+    /**
+     * Parses an ISO date (2013-04-11) to epoch days, without creating a LocalDate.
+     *
+     * @param date   The characters holding the date.
+     * @param offset The index of the first digit of the year.
+     * @return The days since 1970-01-01.
+     */
+    public static int parseEpochDay(CharSequence date, int offset) {
+        int year = digit(date, offset) * 1000 + digit(date, offset + 1) * 100
+                + digit(date, offset + 2) * 10 + digit(date, offset + 3);
+        int month = digit(date, offset + 5) * 10 + digit(date, offset + 6);
+        int day = digit(date, offset + 8) * 10 + digit(date, offset + 9);
 
+        return toEpochDay(year, month, day);
+    }
+
+    /**
+     * Converts a date of the proleptic gregorian calendar to epoch days, like LocalDate.toEpochDay.
+     */
+    public static int toEpochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int digit(CharSequence date, int index) {
+        char c = date.charAt(index);
+        if (c < '0' || c > '9') {
+            throw new IllegalArgumentException("Not an ISO date: " + date);
+        }
+        return c - '0';
     }
 
     public String getCSVLine() {
@@ -121,13 +168,13 @@ public class HardDrive {
 
         csvLine.append(calculateLife()).append(",");
 
-        if (dead) {
+        if (isDead()) {
             csvLine.append(1);
         } else {
             csvLine.append(0);
         }
 
-        Model model = ModelMapper.getModelAndManufacturerFromModel(this.model);
+        Model model = ModelMapper.getModelAndManufacturerFromModel(getModel());
         csvLine.append(",").append(model.model).append(",").append(model.manufacturer);
 
         return csvLine.toString();
@@ -137,10 +184,10 @@ public class HardDrive {
     @Override
     public String toString() {
         return "HardDrive{" +
-                "min='" + min + '\'' +
-                ", max='" + max + '\'' +
-                ", model='" + model + '\'' +
-                ", dead=" + dead +
+                "min='" + getMin() + '\'' +
+                ", max='" + getMax() + '\'' +
+                ", model='" + getModel() + '\'' +
+                ", dead=" + isDead() +
                 '}';
     }
 }
@@ -0,0 +1,37 @@
+package ch.backblazehdd;
+
+import java.io.IOException;
+
+/**
+ * A unit of work when reading the stats in parallel, either a range of a file or a file within an archive.
+ */
+public interface InputSplit {
+
+    /**
+     * @return A name for messages, like the file name.
+     */
+    String getName();
+
+    /**
+     * @return The number of bytes of the uncompressed records, used to schedule the largest splits first.
+     */
+    long getLength();
+
+    /**
+     * Reads all records of this split, in one or more pieces. The consumer gets a cursor per piece, with the schema
+     * taken from the header of the file.
+     *
+     * @param consumer Consumes the cursors, one after the other.
+     * @throws IOException          When the split is not readable.
+     * @throws InterruptedException When the consumer is interrupted.
+     */
+    void read(CursorConsumer consumer) throws IOException, InterruptedException;
+
+    @FunctionalInterface
+    interface CursorConsumer {
+
+        void accept(RecordCursor cursor) throws InterruptedException;
+
+    }
+
+}
@@ -0,0 +1,258 @@
+package ch.backblazehdd;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers of a run: lines, bytes and splits read, a latency histogram per stage, the time spent per
+ * file, flight recorder events and a periodic progress log.
+ * <p>
+ * Reading a split is recorded as a whole ("read") and per cursor in the stages it is made of, in every mode: "open"
+ * maps a range or inflates a piece of an archive, "load" pages the mapped bytes in from disk, and the records are
+ * then parsed and folded into the map ("parse-fold", which includes waiting for the map in SHARED_MAP mode). The
+ * STAGED pipeline queues the cursors instead ("queue") and parses ("parse") and folds ("fold") in stages of their own.
+ * <p>
+ * Everything is recorded per split, cursor or batch, never per line, and the counters are striped, so the workers
+ * don't contend. When turned off, every method returns right away and no clock is read.
+ */
+public class Instrumentation {
+
+    public static final Instrumentation OFF = new Instrumentation(false, 0);
+
+    private static final int SLOWEST_FILES = 5;
+
+    private final boolean enabled;
+    private final int progressSeconds;
+
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+
+    private final Map<String, LatencyHistogram> stages = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> fileNanos = new ConcurrentHashMap<>();
+
+    private volatile long totalBytes;
+    private volatile long expectedLines = -1;
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    private ScheduledExecutorService progress;
+
+    /**
+     * @param enabled         False to record nothing.
+     * @param progressSeconds The interval of the progress log, 0 for none.
+     */
+    public Instrumentation(boolean enabled, int progressSeconds) {
+        this.enabled = enabled;
+        this.progressSeconds = progressSeconds;
+    }
+
+    /**
+     * @return The instrumentation asked for by the options, OFF if none.
+     */
+    public static Instrumentation create(Options options) {
+        return options.isInstrumented() ? new Instrumentation(true, options.getProgressSeconds()) : OFF;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Resets all counters and starts the progress log.
+     *
+     * @param totalBytes The bytes of all splits to read, for the progress in percent.
+     */
+    public synchronized void begin(long totalBytes) {
+
+        if (!enabled) {
+            return;
+        }
+
+        lines.reset();
+        bytes.reset();
+        splits.reset();
+        stages.values().forEach(LatencyHistogram::reset);
+        fileNanos.clear();
+
+        this.totalBytes = totalBytes;
+        this.expectedLines = -1;
+        this.startNanos = System.nanoTime();
+        this.endNanos = 0;
+
+        if (progressSeconds > 0 && progress == null) {
+            progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progress.scheduleAtFixedRate(() -> System.out.println(getProgress()),
+                    progressSeconds, progressSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @param expectedLines The lines of all splits to read, from the manifest, -1 if unknown. The progress is then
+     *                      given in lines instead of bytes.
+     */
+    public void setExpectedLines(long expectedLines) {
+        this.expectedLines = expectedLines;
+    }
+
+    /**
+     * Stops the clock and the progress log.
+     */
+    public synchronized void end() {
+        endNanos = System.nanoTime();
+        if (progress != null) {
+            progress.shutdownNow();
+            progress = null;
+        }
+    }
+
+    /**
+     * @return The current time to pass to the other methods, 0 when turned off.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a split which was read since the start given.
+     */
+    public void splitRead(InputSplit split, long start) {
+
+        if (!enabled) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - start;
+
+        bytes.add(split.getLength());
+        splits.increment();
+        fileNanos.computeIfAbsent(split.getName(), name -> new LongAdder()).add(nanos);
+        histogram("read").record(nanos);
+
+        SplitReadEvent event = new SplitReadEvent();
+        if (event.shouldCommit()) {
+            event.split = split.getName();
+            event.bytes = split.getLength();
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Loads the bytes of the cursor from disk, recorded as the stage "load".
+     */
+    public void load(RecordCursor cursor) {
+        long start = start();
+        cursor.load();
+        stage("load", start);
+    }
+
+    /**
+     * Counts the records the cursor has moved over.
+     */
+    public void records(RecordCursor cursor) {
+        if (enabled) {
+            lines.add(cursor.getRecords() + cursor.getRejected());
+        }
+    }
+
+    /**
+     * Records a stage which ran since the start given.
+     */
+    public void stage(String name, long start) {
+
+        if (!enabled) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - start;
+
+        histogram(name).record(nanos);
+
+        StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.stage = name;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    private LatencyHistogram histogram(String stage) {
+        return stages.computeIfAbsent(stage, name -> new LatencyHistogram());
+    }
+
+    public long getLines() {
+        return lines.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getSplits() {
+        return splits.sum();
+    }
+
+    public LatencyHistogram getStage(String stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * @return A line with the lines and bytes read so far and the throughput.
+     */
+    public String getProgress() {
+
+        double seconds = ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1e9;
+        long bytesRead = getBytes();
+
+        if (expectedLines > 0) {
+            return String.format("Progress: %.0f%% of %d lines, %.1f MB, %d splits, %.0f lines/s, %.1f MB/s",
+                    getLines() * 100.0 / expectedLines, expectedLines, bytesRead / 1e6, getSplits(),
+                    getLines() / seconds, bytesRead / 1e6 / seconds);
+        }
+
+        return String.format("Progress: %.0f%% of %.1f MB, %d lines, %d splits, %.0f lines/s, %.1f MB/s",
+                totalBytes == 0 ? 100.0 : bytesRead * 100.0 / totalBytes, totalBytes / 1e6, getLines(), getSplits(),
+                getLines() / seconds, bytesRead / 1e6 / seconds);
+    }
+
+    /**
+     * @return The summary of the run: throughput, the latencies of every stage and the slowest files.
+     */
+    public String getSummary() {
+
+        if (!enabled) {
+            return "";
+        }
+
+        StringBuilder summary = new StringBuilder(getProgress().replace("Progress: ", "Read: "));
+
+        stages.entrySet().stream()
+                .filter(stage -> stage.getValue().getCount() > 0)
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(stage -> {
+                    LatencyHistogram histogram = stage.getValue();
+                    summary.append(String.format("%nStage %s: %d x, total %.3f s, p50 < %.3f ms, p99 < %.3f ms",
+                            stage.getKey(), histogram.getCount(), histogram.getTotalNanos() / 1e9,
+                            histogram.getQuantile(0.5) / 1e6, histogram.getQuantile(0.99) / 1e6));
+                });
+
+        fileNanos.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> file) -> file.getValue().sum()).reversed())
+                .limit(SLOWEST_FILES)
+                .forEach(file -> summary.append(String.format("%nFile %s: %.3f s",
+                        file.getKey(), file.getValue().sum() / 1e9)));
+
+        return summary.toString();
+    }
+
+}
@@ -0,0 +1,222 @@
+package ch.backblazehdd;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch after Karnin, Lang and Liberty (KLL), holding a bounded number of values however many
+ * are added.
+ * <p>
+ * Values are kept in levels, a value in level h stands for 2^h values added. When a level is full it is sorted and
+ * every other value, starting at a random first or second, moves up one level. The capacity of a level shrinks by
+ * two thirds per level below the top, so about 3 * k values are kept. The rank error is around 1.7 / k.
+ * Not thread safe, every worker fills its own sketches, which are merged at the end.
+ */
+public class KllSketch {
+
+    public static final int DEFAULT_K = 200;
+
+    private static final double SHRINK = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 2;
+
+    private final int k;
+
+    private long[][] levels = {new long[MIN_CAPACITY * 4]};
+    private int[] sizes = {0};
+
+    private long count = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    private long random = 0x9E3779B97F4A7C15L;
+
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k The capacity of the top level, larger is more accurate.
+     */
+    public KllSketch(int k) {
+        this.k = k;
+    }
+
+    public void add(long value) {
+
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+
+        append(0, value);
+
+        if (sizes[0] >= capacity(0)) {
+            compress();
+        }
+    }
+
+    /**
+     * Adds all values of the other sketch to this one.
+     *
+     * @param other A sketch with the same k, stays unchanged.
+     */
+    public void merge(KllSketch other) {
+
+        if (other.count == 0) {
+            return;
+        }
+
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+
+        compress();
+    }
+
+    /**
+     * @param quantile The quantile, between 0 and 1.
+     * @return An estimate of the value at the quantile, 0 if the sketch is empty.
+     */
+    public long getQuantile(double quantile) {
+
+        if (count == 0) {
+            return 0;
+        }
+        if (quantile <= 0) {
+            return min;
+        }
+        if (quantile >= 1) {
+            return max;
+        }
+
+        int retained = getRetained();
+        long[] values = new long[retained];
+        long[] weights = new long[retained];
+
+        // Every level is sorted after a compaction, but level 0 and merged levels aren't, so sort them all together
+        Integer[] order = new Integer[retained];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[n] = levels[h][i];
+                weights[n] = 1L << h;
+                order[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(values[a], values[b]));
+
+        long totalWeight = 0;
+        for (long weight : weights) {
+            totalWeight += weight;
+        }
+
+        double target = quantile * totalWeight;
+        long cumulative = 0;
+
+        for (int i : order) {
+            cumulative += weights[i];
+            if (cumulative >= target) {
+                return values[i];
+            }
+        }
+
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return The number of values kept.
+     */
+    public int getRetained() {
+        int retained = 0;
+        for (int size : sizes) {
+            retained += size;
+        }
+        return retained;
+    }
+
+    private int capacity(int level) {
+        int depth = levels.length - 1 - level;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(SHRINK, depth)));
+    }
+
+    private void append(int level, long value) {
+
+        if (level >= levels.length) {
+            int height = levels.length;
+            levels = Arrays.copyOf(levels, level + 1);
+            sizes = Arrays.copyOf(sizes, level + 1);
+            for (int h = height; h <= level; h++) {
+                levels[h] = new long[MIN_CAPACITY * 4];
+            }
+        }
+
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+
+        levels[level][sizes[level]++] = value;
+    }
+
+    /**
+     * Compacts the lowest full level until all levels are within their capacity.
+     */
+    private void compress() {
+        boolean compacted = true;
+        while (compacted) {
+            compacted = false;
+            for (int h = 0; h < levels.length && !compacted; h++) {
+                if (sizes[h] >= capacity(h)) {
+                    compact(h);
+                    compacted = true;
+                }
+            }
+        }
+    }
+
+    private void compact(int level) {
+
+        long[] items = levels[level];
+        int size = sizes[level];
+
+        Arrays.sort(items, 0, size);
+
+        // With an odd number of values, the largest stays behind
+        int pairs = size / 2 * 2;
+        int offset = nextBit();
+
+        for (int i = offset; i < pairs; i += 2) {
+            append(level + 1, items[i]);
+        }
+
+        // append may have replaced the array of the next level only, items is still the one of this level
+        if (size > pairs) {
+            levels[level][0] = items[size - 1];
+        }
+        sizes[level] = size - pairs;
+    }
+
+    private int nextBit() {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        return (int) (random & 1);
+    }
+
+}
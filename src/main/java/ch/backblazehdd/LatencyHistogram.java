@@ -0,0 +1,61 @@
+package ch.backblazehdd;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations with power of two buckets: bucket n counts the durations from 2^(n-1) up to
+ * 2^n - 1 nanoseconds. Coarse, but recording is a single atomic increment.
+ */
+public class LatencyHistogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * @param nanos The duration to record.
+     */
+    public void record(long nanos) {
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @param quantile The quantile, between 0 and 1.
+     * @return The upper bound of the bucket holding the quantile, in nanoseconds, 0 when nothing was recorded.
+     */
+    public long getQuantile(double quantile) {
+
+        long rank = (long) Math.ceil(quantile * getCount());
+        long seen = 0;
+
+        for (int i = 0; i < 64; i++) {
+            seen += buckets.get(i);
+            if (seen >= Math.max(1, rank)) {
+                return i == 0 ? 0 : (1L << i) - 1;
+            }
+        }
+
+        return 0;
+    }
+
+    public void reset() {
+        for (int i = 0; i < 64; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+    }
+
+}
@@ -0,0 +1,581 @@
+package ch.backblazehdd;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+/**
+ * What is known about every stats file, kept in a small CSV file next to the data: its day, size, number of lines,
+ * the id of its header, its checksum and where lines start about every megabyte. A file is scanned once, when it is
+ * new or its size or modification time changed; after that, planning a run, cutting the files into ranges at the
+ * line starts and estimating its progress don't read the files.
+ * <p>
+ * New files don't need a pass of their own: their ranges are wrapped by recording, which scans the bytes each range
+ * maps for the aggregation anyway, and addRecorded puts the entries together once all ranges of a file were read.
+ * The checksums of the ranges are combined into the one of the file. update scans files on their own instead.
+ * <p>
+ * The schema id is the CRC32C of the header line, files with the same id have the same columns. Archives are not
+ * listed, only plain stats files.
+ */
+public class Manifest {
+
+    private static final String HEADER = "name,date,size,last_modified,lines,schema,checksum,line_starts";
+
+    /**
+     * The distance of the line starts kept, the smallest range a file is cut into.
+     */
+    private static final long LINE_START_INTERVAL = FileSplitter.MIN_SPLIT_SIZE;
+
+    /**
+     * The polynomial of CRC32C, reflected.
+     */
+    private static final long CASTAGNOLI = 0x82F63B78L;
+
+    private final File file;
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private final Map<String, Recording> recordings = new ConcurrentHashMap<>();
+
+    /**
+     * The metadata of a stats file.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final LocalDate date;
+        private final long size;
+        private final long lastModified;
+        private final long lines;
+        private final String schema;
+        private final long checksum;
+        private final long[] lineStarts;
+
+        Entry(String name, LocalDate date, long size, long lastModified, long lines, String schema, long checksum,
+              long[] lineStarts) {
+            this.name = name;
+            this.date = date;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.lines = lines;
+            this.schema = schema;
+            this.checksum = checksum;
+            this.lineStarts = lineStarts;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The day in the name of the file, null if there is none.
+         */
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return The number of lines, without the header.
+         */
+        public long getLines() {
+            return lines;
+        }
+
+        public String getSchema() {
+            return schema;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * @return The positions where a line starts, the first at or after every megabyte, ascending.
+         */
+        public long[] getLineStarts() {
+            return lineStarts;
+        }
+
+        /**
+         * @return True if the file still has the size and modification time it was scanned with.
+         */
+        public boolean isValidFor(File file) {
+            return size == file.length() && lastModified == file.lastModified();
+        }
+
+        private String getCSVLine() {
+            StringBuilder line = new StringBuilder(name + "," + (date == null ? "" : date.toString()) + "," + size
+                    + "," + lastModified + "," + lines + "," + schema + "," + Long.toHexString(checksum) + ",");
+            for (int i = 0; i < lineStarts.length; i++) {
+                line.append(i == 0 ? "" : " ").append(lineStarts[i]);
+            }
+            return line.toString();
+        }
+
+        private static Entry parse(String line) {
+            String[] fields = line.split(",", -1);
+            long[] lineStarts = fields[7].isEmpty() ? new long[0]
+                    : Arrays.stream(fields[7].split(" ")).mapToLong(Long::parseLong).toArray();
+            return new Entry(fields[0], fields[1].isEmpty() ? null : LocalDate.parse(fields[1]),
+                    Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]), fields[5],
+                    Long.parseUnsignedLong(fields[6], 16), lineStarts);
+        }
+    }
+
+    private Manifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param file The manifest file, doesn't have to exist yet.
+     * @return The manifest, empty if the file doesn't exist or is not readable.
+     */
+    public static Manifest load(File file) {
+
+        Manifest manifest = new Manifest(file);
+
+        if (!file.exists()) {
+            return manifest;
+        }
+
+        try {
+            List<String> lines = Files.readAllLines(file.toPath());
+            if (!lines.isEmpty() && lines.get(0).equals(HEADER)) {
+                for (String line : lines.subList(1, lines.size())) {
+                    Entry entry = Entry.parse(line);
+                    manifest.entries.put(entry.getName(), entry);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // A broken manifest is scanned again
+            e.printStackTrace();
+            manifest.entries.clear();
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Scans the files which are new or changed, in parallel, and saves the manifest if any were.
+     *
+     * @param files       The files of the data directory, archives are skipped.
+     * @param parallelism The number of files scanned at once.
+     * @return The number of files scanned.
+     * @throws IOException When the manifest can not be saved.
+     */
+    public int update(File[] files, int parallelism) throws IOException {
+
+        List<File> stale = new ArrayList<>();
+        for (File dataFile : files) {
+            if (!FileSplitter.isArchive(dataFile) && get(dataFile) == null) {
+                stale.add(dataFile);
+            }
+        }
+
+        if (stale.isEmpty()) {
+            return 0;
+        }
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+
+        try {
+            List<Entry> scanned = forkJoinPool.submit(() -> stale.parallelStream()
+                    .map(dataFile -> {
+                        try {
+                            return scan(dataFile);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            return null;
+                        }
+                    })
+                    .collect(Collectors.toList())).get();
+
+            for (Entry entry : scanned) {
+                if (entry != null) {
+                    entries.put(entry.getName(), entry);
+                }
+            }
+
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            forkJoinPool.shutdown();
+        }
+
+        save();
+
+        return stale.size();
+    }
+
+    /**
+     * Reads the file once: counts its lines, hashes its header, computes its checksum and notes the line starts.
+     */
+    static Entry scan(File dataFile) throws IOException {
+
+        long size = dataFile.length();
+        long lastModified = dataFile.lastModified();
+
+        try (FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ)) {
+
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to be scanned: " + dataFile);
+            }
+
+            int length = (int) channel.size();
+            RangeScan scan = RangeScan.of(channel.map(FileChannel.MapMode.READ_ONLY, 0, length), 0, length, length);
+
+            return new Entry(dataFile.getName(), DateRange.dateOf(dataFile.getName()), size, lastModified,
+                    scan.lines, scan.schema, scan.checksum, scan.lineStarts);
+        }
+    }
+
+    /**
+     * Wraps the ranges of a file, which cover it all, so its entry is built while they are read for the aggregation.
+     *
+     * @param file   The file, not listed yet.
+     * @param ranges All ranges of the file.
+     * @return The ranges, recording what they read.
+     */
+    public List<InputSplit> recording(File file, List<FileRange> ranges) {
+
+        List<InputSplit> splits = new ArrayList<>(ranges.size());
+
+        if (ranges.isEmpty()) {
+            return splits;
+        }
+
+        Recording recording = new Recording(file, ranges.size());
+        recordings.put(file.getName(), recording);
+
+        for (FileRange range : ranges) {
+            splits.add(new RecordingRange(range, recording));
+        }
+        return splits;
+    }
+
+    /**
+     * Adds the entries of the files whose ranges were all read since recording, and saves the manifest if any were.
+     *
+     * @return The number of entries added.
+     * @throws IOException When the manifest can not be saved.
+     */
+    public int addRecorded() throws IOException {
+
+        int added = 0;
+
+        for (Recording recording : recordings.values()) {
+            Entry entry = recording.toEntry();
+            if (entry != null) {
+                entries.put(entry.getName(), entry);
+                added++;
+            }
+        }
+
+        recordings.clear();
+
+        if (added > 0) {
+            save();
+        }
+
+        return added;
+    }
+
+    /**
+     * @return The CRC32C of two pieces one after the other, from the ones of both and the length of the second, as
+     * zlib's crc32_combine does it.
+     */
+    static long combine(long first, long second, long secondLength) {
+
+        if (secondLength <= 0) {
+            return first;
+        }
+
+        // The operator of one zero bit, then of two and four zero bits
+        long[] odd = new long[32];
+        long[] even = new long[32];
+
+        odd[0] = CASTAGNOLI;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = 1L << (n - 1);
+        }
+        square(even, odd);
+        square(odd, even);
+
+        // Applies the operator of the length in zero bytes, squaring it from one byte upwards
+        long crc = first;
+        do {
+            square(even, odd);
+            if ((secondLength & 1) != 0) {
+                crc = times(even, crc);
+            }
+            secondLength >>= 1;
+
+            if (secondLength == 0) {
+                break;
+            }
+
+            square(odd, even);
+            if ((secondLength & 1) != 0) {
+                crc = times(odd, crc);
+            }
+            secondLength >>= 1;
+        } while (secondLength != 0);
+
+        return crc ^ second;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * What a range of a file tells about it, the parts of an entry.
+     */
+    private static class RangeScan {
+
+        private final long start;
+        private final long length;
+        private final long checksum;
+        private final long lines;
+        private final String schema;
+        private final long[] lineStarts;
+
+        private RangeScan(long start, long length, long checksum, long lines, String schema, long[] lineStarts) {
+            this.start = start;
+            this.length = length;
+            this.checksum = checksum;
+            this.lines = lines;
+            this.schema = schema;
+            this.lineStarts = lineStarts;
+        }
+
+        /**
+         * @param buffer   The bytes of the range from index 0, starting at the beginning of a line.
+         * @param start    The position of the range in the file.
+         * @param length   The length of the range.
+         * @param fileSize The size of the file.
+         */
+        static RangeScan of(ByteBuffer buffer, long start, int length, long fileSize) {
+
+            ByteBuffer range = buffer.duplicate();
+            range.position(0).limit(length);
+            CRC32C checksum = new CRC32C();
+            checksum.update(range);
+
+            int position = 0;
+            String schema = null;
+
+            if (start == 0) {
+                int headerEnd = DelimiterScanner.indexOf(buffer, DelimiterScanner.NEWLINES, 0, length);
+                if (headerEnd < 0) {
+                    headerEnd = length;
+                }
+
+                ByteBuffer header = buffer.duplicate();
+                header.position(0).limit(headerEnd);
+                CRC32C schemaChecksum = new CRC32C();
+                schemaChecksum.update(header);
+
+                schema = Long.toHexString(schemaChecksum.getValue());
+                position = headerEnd + 1;
+            }
+
+            long lines = 0;
+            while (position < length) {
+                int lineEnd = DelimiterScanner.indexOf(buffer, DelimiterScanner.NEWLINES, position, length);
+                lines++;
+                position = lineEnd < 0 ? length : lineEnd + 1;
+            }
+
+            // The first line start at or after every interval boundary within the range
+            List<Long> lineStarts = new ArrayList<>();
+            long boundary = Math.max(1, (start + LINE_START_INTERVAL - 1) / LINE_START_INTERVAL) * LINE_START_INTERVAL;
+
+            for (; boundary < start + length; boundary += LINE_START_INTERVAL) {
+
+                long lineStart;
+                if (boundary == start) {
+                    lineStart = start;
+                } else {
+                    int lineEnd = DelimiterScanner.indexOf(buffer, DelimiterScanner.NEWLINES,
+                            (int) (boundary - start - 1), length);
+                    lineStart = lineEnd < 0 ? start + length : start + lineEnd + 1;
+                }
+
+                if (lineStart < fileSize && (lineStarts.isEmpty() || lineStart > lineStarts.get(lineStarts.size() - 1))) {
+                    lineStarts.add(lineStart);
+                }
+            }
+
+            return new RangeScan(start, length, checksum.getValue(), lines, schema,
+                    lineStarts.stream().mapToLong(Long::longValue).toArray());
+        }
+    }
+
+    /**
+     * The scans of the ranges of a file read so far.
+     */
+    private static class Recording {
+
+        private final File file;
+        private final long size;
+        private final long lastModified;
+        private final int ranges;
+
+        private final List<RangeScan> scans = Collections.synchronizedList(new ArrayList<>());
+
+        Recording(File file, int ranges) {
+            this.file = file;
+            this.size = file.length();
+            this.lastModified = file.lastModified();
+            this.ranges = ranges;
+        }
+
+        /**
+         * @return The entry of the file, null if not all ranges were read or the file changed meanwhile.
+         */
+        Entry toEntry() {
+
+            if (scans.size() != ranges || size != file.length() || lastModified != file.lastModified()) {
+                return null;
+            }
+
+            List<RangeScan> ordered = new ArrayList<>(scans);
+            ordered.sort(Comparator.comparingLong(scan -> scan.start));
+
+            long checksum = 0;
+            long lines = 0;
+            List<Long> lineStarts = new ArrayList<>();
+
+            for (RangeScan scan : ordered) {
+                checksum = scan.start == 0 ? scan.checksum : combine(checksum, scan.checksum, scan.length);
+                lines += scan.lines;
+                for (long lineStart : scan.lineStarts) {
+                    if (lineStarts.isEmpty() || lineStart > lineStarts.get(lineStarts.size() - 1)) {
+                        lineStarts.add(lineStart);
+                    }
+                }
+            }
+
+            return new Entry(file.getName(), DateRange.dateOf(file.getName()), size, lastModified, lines,
+                    ordered.get(0).schema, checksum, lineStarts.stream().mapToLong(Long::longValue).toArray());
+        }
+    }
+
+    /**
+     * A range read as usual, scanned on the way for the entry of its file.
+     */
+    private static class RecordingRange implements InputSplit {
+
+        private final FileRange range;
+        private final Recording recording;
+
+        RecordingRange(FileRange range, Recording recording) {
+            this.range = range;
+            this.recording = recording;
+        }
+
+        @Override
+        public String getName() {
+            return range.getName();
+        }
+
+        @Override
+        public long getLength() {
+            return range.getLength();
+        }
+
+        @Override
+        public void read(CursorConsumer consumer) throws IOException, InterruptedException {
+            RecordCursor cursor = range.open();
+            recording.scans.add(RangeScan.of(cursor.getBuffer(), range.getStart(), (int) range.getLength(),
+                    recording.size));
+            consumer.accept(cursor);
+        }
+    }
+
+    /**
+     * Writes the manifest to a temporary file and moves it in place.
+     */
+    public void save() throws IOException {
+
+        File temporary = new File(file.getPath() + ".tmp");
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(temporary)))) {
+            out.println(HEADER);
+            for (Entry entry : entries.values()) {
+                out.println(entry.getCSVLine());
+            }
+        }
+
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The entry of the file, null if it isn't listed or changed since.
+     */
+    public Entry get(File dataFile) {
+        Entry entry = entries.get(dataFile.getName());
+        return entry != null && entry.isValidFor(dataFile) ? entry : null;
+    }
+
+    /**
+     * @return The lines of all files, without headers, -1 if a file isn't listed.
+     */
+    public long getLines(File[] files) {
+        long lines = 0;
+        for (File dataFile : files) {
+            Entry entry = get(dataFile);
+            if (entry == null) {
+                return -1;
+            }
+            lines += entry.getLines();
+        }
+        return lines;
+    }
+
+    public Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+}
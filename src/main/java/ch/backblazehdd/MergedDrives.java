@@ -0,0 +1,143 @@
+package ch.backblazehdd;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A map of drives too large to copy, like SpilledDrives, with the drives of later updates merged in. Only the
+ * updates are held in memory, the base map is iterated and merged with them on the fly.
+ */
+public class MergedDrives extends AbstractMap<String, HardDrive> {
+
+    private final Map<String, HardDrive> base;
+    private final Map<String, HardDrive> updates = new TreeMap<>();
+
+    private int size = -1;
+
+    /**
+     * @param base The drives to start from, read only.
+     */
+    public MergedDrives(Map<String, HardDrive> base) {
+        this.base = base;
+    }
+
+    /**
+     * Merges the drives in, like the merging constructor of HardDrive.
+     */
+    public void merge(Map<String, HardDrive> drives) {
+        for (Map.Entry<String, HardDrive> entry : drives.entrySet()) {
+            updates.merge(entry.getKey(), entry.getValue(), HardDrive::new);
+        }
+        size = -1;
+    }
+
+    @Override
+    public HardDrive get(Object key) {
+        HardDrive hardDrive = base.get(key);
+        HardDrive update = updates.get(key);
+        if (hardDrive == null || update == null) {
+            return hardDrive == null ? update : hardDrive;
+        }
+        return new HardDrive(hardDrive, update);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return updates.containsKey(key) || base.containsKey(key);
+    }
+
+    /**
+     * @return The number of drives, counted by one pass the first time after an update.
+     */
+    @Override
+    public int size() {
+        if (size < 0) {
+            int drives = 0;
+            for (Iterator<Entry<String, HardDrive>> iterator = entrySet().iterator(); iterator.hasNext(); iterator.next()) {
+                drives++;
+            }
+            size = drives;
+        }
+        return size;
+    }
+
+    /**
+     * @return The drives of the base map in its order, merged with their updates, then the drives only updated.
+     */
+    @Override
+    public Set<Entry<String, HardDrive>> entrySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<Entry<String, HardDrive>> iterator() {
+                return new MergingIterator();
+            }
+
+            @Override
+            public int size() {
+                return MergedDrives.this.size();
+            }
+        };
+    }
+
+    private class MergingIterator implements Iterator<Entry<String, HardDrive>> {
+
+        private final Iterator<Entry<String, HardDrive>> baseIterator = base.entrySet().iterator();
+        private Iterator<Entry<String, HardDrive>> updateIterator;
+
+        private final Set<String> merged = new HashSet<>();
+
+        private Entry<String, HardDrive> next;
+
+        @Override
+        public boolean hasNext() {
+
+            if (next != null) {
+                return true;
+            }
+
+            if (baseIterator.hasNext()) {
+                Entry<String, HardDrive> entry = baseIterator.next();
+                HardDrive update = updates.get(entry.getKey());
+                if (update == null) {
+                    next = entry;
+                } else {
+                    merged.add(entry.getKey());
+                    next = new SimpleImmutableEntry<>(entry.getKey(), new HardDrive(entry.getValue(), update));
+                }
+                return true;
+            }
+
+            if (updateIterator == null) {
+                updateIterator = updates.entrySet().iterator();
+            }
+
+            while (updateIterator.hasNext()) {
+                Entry<String, HardDrive> entry = updateIterator.next();
+                if (!merged.contains(entry.getKey())) {
+                    next = entry;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public Entry<String, HardDrive> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<String, HardDrive> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+
+}
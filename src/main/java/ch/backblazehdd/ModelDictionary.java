@@ -0,0 +1,77 @@
+package ch.backblazehdd;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared dictionary of all model descriptions seen, hands out a small int id per model.
+ * <p>
+ * The id 0 is reserved for the empty model. Lookups are lock free, only new models are registered under a lock.
+ */
+public class ModelDictionary {
+
+    public static final int EMPTY = 0;
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private static volatile String[] models = {""};
+
+    static {
+        ids.put("", EMPTY);
+    }
+
+    public ModelDictionary() {
+    }
+
+    /**
+     * @param model The model description, as found in the stats files.
+     * @return The id of the model, registering it when it is new.
+     */
+    public static int getId(String model) {
+
+        Integer id = ids.get(model);
+
+        if (id != null) {
+            return id;
+        }
+
+        return register(model);
+    }
+
+    /**
+     * @param id An id handed out by getId.
+     * @return The model description of the id.
+     */
+    public static String getModel(int id) {
+        return models[id];
+    }
+
+    /**
+     * @return The number of ids handed out, including the empty model.
+     */
+    public static int size() {
+        return models.length;
+    }
+
+    private static synchronized int register(String model) {
+
+        Integer id = ids.get(model);
+
+        if (id != null) {
+            return id;
+        }
+
+        int newId = models.length;
+
+        String[] grown = Arrays.copyOf(models, newId + 1);
+        grown[newId] = model;
+
+        // Publish the array before the id, so whoever sees the id can resolve it.
+        models = grown;
+        ids.put(model, newId);
+
+        return newId;
+    }
+
+}
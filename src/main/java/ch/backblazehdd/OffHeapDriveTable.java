@@ -0,0 +1,308 @@
+package ch.backblazehdd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Open addressing hash table of all hard drives, kept outside of the java heap.
+ * <p>
+ * Keyed by the raw bytes of the serial number, which are copied once into a key arena. Every slot has a fixed width
+ * and holds the hash, the position of the key in the arena and the aggregate of the drive: first day, last day and
+ * the model id with the dead flag, like HardDrive. A lookup touches the slot and the key bytes, nothing else.
+ * <p>
+ * Read only as a Map, the entries are created when iterating. Not thread safe, every worker fills its own table and
+ * the tables are merged at the end.
+ */
+public class OffHeapDriveTable extends AbstractMap<String, HardDrive> {
+
+    private static final int SLOT_SIZE = 24;
+
+    private static final int HASH = 0;
+    private static final int KEY_OFFSET = 4;
+    private static final int KEY_LENGTH = 8; // Length + 1, so 0 marks an empty slot
+    private static final int MIN = 12;
+    private static final int MAX = 16;
+    private static final int MODEL_AND_DEAD = 20;
+
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / SLOT_SIZE;
+
+    private ByteBuffer slots;
+    private ByteBuffer keys;
+
+    private int capacity;
+    private int size = 0;
+
+    public OffHeapDriveTable() {
+        this(1 << 16);
+    }
+
+    /**
+     * @param expectedSize The number of drives expected, the table grows when there are more.
+     */
+    public OffHeapDriveTable(int expectedSize) {
+        this.capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        this.slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        this.keys = ByteBuffer.allocateDirect(capacity * 8);
+    }
+
+    /**
+     * Folds a single record into the drive with the serial number between start and end, following the rules of
+     * the merging constructor of HardDrive.
+     *
+     * @param buffer  The buffer holding the serial number.
+     * @param start   The index of the first byte of the serial number.
+     * @param end     The index after the last byte of the serial number.
+     * @param min     The first day of the record, in epoch days.
+     * @param max     The last day of the record, in epoch days.
+     * @param modelId The model id of the record.
+     * @param dead    True if the record reports a failure.
+     */
+    public void add(ByteBuffer buffer, int start, int end, int min, int max, int modelId, boolean dead) {
+
+        int slot = findOrInsert(buffer, start, end);
+
+        if (min < slots.getInt(slot + MIN)) {
+            slots.putInt(slot + MIN, min);
+        }
+        if (max > slots.getInt(slot + MAX)) {
+            slots.putInt(slot + MAX, max);
+        }
+
+        int modelAndDead = slots.getInt(slot + MODEL_AND_DEAD);
+        if (modelAndDead >>> 1 == ModelDictionary.EMPTY) {
+            modelAndDead = modelId << 1 | (modelAndDead & 1);
+        }
+        if (dead) {
+            modelAndDead |= 1;
+        }
+        slots.putInt(slot + MODEL_AND_DEAD, modelAndDead);
+    }
+
+    /**
+     * Folds all drives of the other table into this table.
+     *
+     * @param other The other table, stays unchanged.
+     */
+    public void merge(OffHeapDriveTable other) {
+        for (int slot = 0; slot < other.capacity * SLOT_SIZE; slot += SLOT_SIZE) {
+            int keyLength = other.slots.getInt(slot + KEY_LENGTH) - 1;
+            if (keyLength >= 0) {
+                int keyOffset = other.slots.getInt(slot + KEY_OFFSET);
+                int modelAndDead = other.slots.getInt(slot + MODEL_AND_DEAD);
+                add(other.keys, keyOffset, keyOffset + keyLength,
+                        other.slots.getInt(slot + MIN), other.slots.getInt(slot + MAX),
+                        modelAndDead >>> 1, (modelAndDead & 1) != 0);
+            }
+        }
+    }
+
+    @Override
+    public HardDrive get(Object key) {
+
+        if (!(key instanceof String)) {
+            return null;
+        }
+
+        ByteBuffer bytes = ByteBuffer.wrap(((String) key).getBytes(StandardCharsets.ISO_8859_1));
+
+        int slot = find(bytes, 0, bytes.limit(), hash(bytes, 0, bytes.limit()));
+
+        return slots.getInt(slot + KEY_LENGTH) == 0 ? null : hardDriveAt(slot);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, HardDrive>> entrySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<Entry<String, HardDrive>> iterator() {
+                return new Iterator<>() {
+
+                    private int slot = nextSlot(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < capacity * SLOT_SIZE;
+                    }
+
+                    @Override
+                    public Entry<String, HardDrive> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, HardDrive> entry = new SimpleImmutableEntry<>(keyAt(slot), hardDriveAt(slot));
+                        slot = nextSlot(slot + SLOT_SIZE);
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int nextSlot(int slot) {
+        while (slot < capacity * SLOT_SIZE && slots.getInt(slot + KEY_LENGTH) == 0) {
+            slot += SLOT_SIZE;
+        }
+        return slot;
+    }
+
+    private String keyAt(int slot) {
+        int keyOffset = slots.getInt(slot + KEY_OFFSET);
+        byte[] key = new byte[slots.getInt(slot + KEY_LENGTH) - 1];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = keys.get(keyOffset + i);
+        }
+        return new String(key, StandardCharsets.ISO_8859_1);
+    }
+
+    private HardDrive hardDriveAt(int slot) {
+        int modelAndDead = slots.getInt(slot + MODEL_AND_DEAD);
+        return new HardDrive(slots.getInt(slot + MIN), slots.getInt(slot + MAX),
+                modelAndDead >>> 1, (modelAndDead & 1) != 0);
+    }
+
+    /**
+     * @return The byte offset of the slot holding the key, a new slot is created if the key is missing.
+     */
+    private int findOrInsert(ByteBuffer buffer, int start, int end) {
+
+        int hash = hash(buffer, start, end);
+        int slot = find(buffer, start, end, hash);
+
+        if (slots.getInt(slot + KEY_LENGTH) != 0) {
+            return slot;
+        }
+
+        if ((size + 1) * 2 > capacity) {
+            grow();
+            slot = find(buffer, start, end, hash);
+        }
+
+        int keyLength = end - start;
+        int keyOffset = appendKey(buffer, start, keyLength);
+
+        slots.putInt(slot + HASH, hash);
+        slots.putInt(slot + KEY_OFFSET, keyOffset);
+        slots.putInt(slot + KEY_LENGTH, keyLength + 1);
+        slots.putInt(slot + MIN, Integer.MAX_VALUE);
+        slots.putInt(slot + MAX, Integer.MIN_VALUE);
+        slots.putInt(slot + MODEL_AND_DEAD, ModelDictionary.EMPTY);
+
+        size++;
+
+        return slot;
+    }
+
+    /**
+     * @return The byte offset of the slot holding the key, or of the empty slot where it belongs.
+     */
+    private int find(ByteBuffer buffer, int start, int end, int hash) {
+
+        int mask = capacity - 1;
+        int index = hash & mask;
+
+        while (true) {
+            int slot = index * SLOT_SIZE;
+            int keyLength = slots.getInt(slot + KEY_LENGTH) - 1;
+
+            if (keyLength < 0) {
+                return slot;
+            }
+
+            if (slots.getInt(slot + HASH) == hash && keyLength == end - start
+                    && keyEquals(slots.getInt(slot + KEY_OFFSET), buffer, start, keyLength)) {
+                return slot;
+            }
+
+            index = (index + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int keyOffset, ByteBuffer buffer, int start, int length) {
+        for (int i = 0; i < length; i++) {
+            if (keys.get(keyOffset + i) != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int appendKey(ByteBuffer buffer, int start, int length) {
+
+        int keyOffset = keys.position();
+
+        if (keys.remaining() < length) {
+            long grown = Math.max((long) keys.capacity() * 2, (long) keyOffset + length);
+            if (grown > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many serial numbers for an off heap table");
+            }
+            ByteBuffer newKeys = ByteBuffer.allocateDirect((int) grown);
+            keys.flip();
+            newKeys.put(keys);
+            keys = newKeys;
+        }
+
+        for (int i = 0; i < length; i++) {
+            keys.put(buffer.get(start + i));
+        }
+
+        return keyOffset;
+    }
+
+    private void grow() {
+
+        if (capacity * 2 > MAX_CAPACITY) {
+            throw new IllegalStateException("Too many serial numbers for an off heap table");
+        }
+
+        ByteBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+
+        capacity *= 2;
+        slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+
+        int mask = capacity - 1;
+
+        for (int oldSlot = 0; oldSlot < oldCapacity * SLOT_SIZE; oldSlot += SLOT_SIZE) {
+            if (oldSlots.getInt(oldSlot + KEY_LENGTH) != 0) {
+                int index = oldSlots.getInt(oldSlot + HASH) & mask;
+                while (slots.getInt(index * SLOT_SIZE + KEY_LENGTH) != 0) {
+                    index = (index + 1) & mask;
+                }
+                for (int i = 0; i < SLOT_SIZE; i += 4) {
+                    slots.putInt(index * SLOT_SIZE + i, oldSlots.getInt(oldSlot + i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Hashes the bytes and spreads the bits, so linear probing on the lowest bits stays short.
+     */
+    private static int hash(ByteBuffer buffer, int start, int end) {
+        int hash = ByteStringCache.hash(buffer, start, end) * 0x9E3779B9;
+        return hash ^ (hash >>> 15);
+    }
+
+}
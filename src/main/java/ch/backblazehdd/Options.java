@@ -0,0 +1,568 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Options of a run, parsed from command line arguments like --parallelism=8.
+ */
+public class Options {
+
+    private AggregationMode aggregationMode = AggregationMode.THREAD_LOCAL;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private int readers = 2;
+    private int parsers = 0;
+    private int shards = 0;
+    private int queueCapacity = 4;
+
+    private File checkpoint = null;
+
+    private long memoryBudget = 256L << 20;
+    private int partitions = 64;
+    private File spillDirectory = null;
+
+    private File dataDirectory = new File("data/");
+
+    private File output = new File("data.csv");
+
+    private File partial = null;
+
+    private DateRange dateRange = DateRange.ALL;
+
+    private File manifest = null;
+
+    private List<String> modelPrefixes = Collections.emptyList();
+    private Set<String> models = Collections.emptySet();
+    private Set<String> serials = Collections.emptySet();
+
+    private File cacheDirectory = null;
+    private boolean cacheVerified = false;
+
+    private List<String> smartAttributes = Collections.emptyList();
+
+    private List<String> quantileAttributes = Collections.emptyList();
+
+    private boolean survival = false;
+
+    private ReportPeriod afrPeriod = null;
+
+    private boolean fleet = false;
+
+    private boolean instrumented = false;
+    private int progressSeconds = 0;
+
+    public Options() {
+    }
+
+    public Options(AggregationMode aggregationMode) {
+        this.aggregationMode = aggregationMode;
+    }
+
+    /**
+     * Parses the options, every argument has the form --name=value.
+     *
+     * @param args The command line arguments.
+     * @return The options, defaults for all options not given.
+     * @throws IllegalArgumentException When an argument is unknown or its value is invalid.
+     */
+    public static Options parse(String[] args) {
+
+        Options options = new Options();
+
+        for (String arg : args) {
+
+            int separator = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+
+            switch (name) {
+                case "mode":
+                    options.aggregationMode = AggregationMode.valueOf(value.toUpperCase());
+                    break;
+                case "parallelism":
+                    options.parallelism = positive(name, value);
+                    break;
+                case "readers":
+                    options.readers = positive(name, value);
+                    break;
+                case "parsers":
+                    options.parsers = positive(name, value);
+                    break;
+                case "shards":
+                    options.shards = positive(name, value);
+                    break;
+                case "queue-capacity":
+                    options.queueCapacity = positive(name, value);
+                    break;
+                case "data":
+                    options.dataDirectory = new File(value);
+                    break;
+                case "output":
+                    options.output = new File(value);
+                    break;
+                case "from":
+                    options.dateRange = new DateRange(LocalDate.parse(value), options.dateRange.getTo());
+                    break;
+                case "to":
+                    options.dateRange = new DateRange(options.dateRange.getFrom(), LocalDate.parse(value));
+                    break;
+                case "manifest":
+                    options.manifest = new File(value);
+                    break;
+                case "model-prefix":
+                    options.modelPrefixes = new ArrayList<>(list(value));
+                    break;
+                case "models":
+                    options.models = list(value);
+                    break;
+                case "serials":
+                    options.serials = serials(value);
+                    break;
+                case "cache":
+                    options.cacheDirectory = new File(value);
+                    break;
+                case "cache-verify":
+                    options.cacheVerified = Boolean.parseBoolean(value);
+                    break;
+                case "partial":
+                    options.partial = new File(value);
+                    break;
+                case "smart":
+                    options.smartAttributes = smartColumns(value);
+                    break;
+                case "quantiles":
+                    options.quantileAttributes = smartColumns(value);
+                    break;
+                case "afr":
+                    options.afrPeriod = ReportPeriod.valueOf(value.toUpperCase());
+                    break;
+                case "fleet":
+                    options.fleet = Boolean.parseBoolean(value);
+                    break;
+                case "survival":
+                    options.survival = Boolean.parseBoolean(value);
+                    break;
+                case "instrument":
+                    options.instrumented = Boolean.parseBoolean(value);
+                    break;
+                case "progress":
+                    options.progressSeconds = positive(name, value);
+                    break;
+                case "memory":
+                    options.memoryBudget = (long) positive(name, value) << 20;
+                    break;
+                case "partitions":
+                    options.partitions = positive(name, value);
+                    break;
+                case "spill-dir":
+                    options.spillDirectory = new File(value);
+                    break;
+                case "checkpoint":
+                    options.checkpoint = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        return options;
+    }
+
+    /**
+     * @param value Comma separated attributes: 9 or smart_9 for smart_9_raw, or full column names.
+     * @return The names of the columns.
+     */
+    private static List<String> smartColumns(String value) {
+        List<String> columns = new ArrayList<>();
+        for (String attribute : value.split(",")) {
+            attribute = attribute.strip();
+            if (attribute.matches("\\d+")) {
+                attribute = "smart_" + attribute;
+            }
+            if (!attribute.endsWith("_raw") && !attribute.endsWith("_normalized")) {
+                attribute += "_raw";
+            }
+            columns.add(attribute);
+        }
+        return columns;
+    }
+
+    private static Set<String> list(String value) {
+        Set<String> values = new LinkedHashSet<>();
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) {
+                values.add(item.strip());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param value A file with a serial number per line.
+     */
+    private static Set<String> serials(String value) {
+        Set<String> serials = new LinkedHashSet<>();
+        try {
+            for (String line : Files.readAllLines(new File(value).toPath())) {
+                if (!line.isBlank()) {
+                    serials.add(line.strip());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("--serials must be a readable file, got: " + value, e);
+        }
+        return serials;
+    }
+
+    private static int positive(String name, String value) {
+        int number = Integer.parseInt(value);
+        if (number < 1) {
+            throw new IllegalArgumentException("--" + name + " must be at least 1, got: " + value);
+        }
+        return number;
+    }
+
+    public AggregationMode getAggregationMode() {
+        return aggregationMode;
+    }
+
+    public Options setAggregationMode(AggregationMode aggregationMode) {
+        this.aggregationMode = aggregationMode;
+        return this;
+    }
+
+    /**
+     * @return The number of workers reading and aggregating the files.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public Options setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @return The number of threads reading files in the staged pipeline.
+     */
+    public int getReaders() {
+        return readers;
+    }
+
+    public Options setReaders(int readers) {
+        this.readers = readers;
+        return this;
+    }
+
+    /**
+     * @return The number of threads parsing in the staged pipeline, the parallelism if not set.
+     */
+    public int getParsers() {
+        return parsers > 0 ? parsers : parallelism;
+    }
+
+    public Options setParsers(int parsers) {
+        this.parsers = parsers;
+        return this;
+    }
+
+    /**
+     * @return The number of aggregator shards in the staged pipeline, a quarter of the parallelism if not set.
+     */
+    public int getShards() {
+        return shards > 0 ? shards : Math.max(1, parallelism / 4);
+    }
+
+    public Options setShards(int shards) {
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * @return The capacity of every queue between the stages of the staged pipeline.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public Options setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * @return The checkpoint file to continue from and to update, null to aggregate all files every time.
+     */
+    public File getCheckpoint() {
+        return checkpoint;
+    }
+
+    public Options setCheckpoint(File checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * @return The directory holding the stats files and archives, data/ if not set.
+     */
+    public File getDataDirectory() {
+        return dataDirectory;
+    }
+
+    public Options setDataDirectory(File dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        return this;
+    }
+
+    /**
+     * @return The file the summary of all drives is written to, data.csv if not set.
+     */
+    public File getOutput() {
+        return output;
+    }
+
+    public Options setOutput(File output) {
+        this.output = output;
+        return this;
+    }
+
+    /**
+     * @return True to count and time the stages and print a summary, also true when a progress log is asked for.
+     */
+    public boolean isInstrumented() {
+        return instrumented || progressSeconds > 0;
+    }
+
+    public Options setInstrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+        return this;
+    }
+
+    /**
+     * @return The interval of the progress log in seconds, 0 for none.
+     */
+    public int getProgressSeconds() {
+        return progressSeconds;
+    }
+
+    public Options setProgressSeconds(int progressSeconds) {
+        this.progressSeconds = progressSeconds;
+        return this;
+    }
+
+    /**
+     * @return The SMART columns to collect statistics of, like smart_9_raw, empty for none.
+     */
+    public List<String> getSmartAttributes() {
+        return smartAttributes;
+    }
+
+    public Options setSmartAttributes(List<String> smartAttributes) {
+        this.smartAttributes = smartAttributes;
+        return this;
+    }
+
+    /**
+     * @return The SMART columns to sketch the quantiles of per model and quarter, empty for none.
+     */
+    public List<String> getQuantileAttributes() {
+        return quantileAttributes;
+    }
+
+    public Options setQuantileAttributes(List<String> quantileAttributes) {
+        this.quantileAttributes = quantileAttributes;
+        return this;
+    }
+
+    /**
+     * @return True to write the Kaplan-Meier estimates into survival.csv, next to the output.
+     */
+    public boolean isSurvival() {
+        return survival;
+    }
+
+    public Options setSurvival(boolean survival) {
+        this.survival = survival;
+        return this;
+    }
+
+    /**
+     * @return The period to write the annualized failure rates by, null for none.
+     */
+    public ReportPeriod getAfrPeriod() {
+        return afrPeriod;
+    }
+
+    public Options setAfrPeriod(ReportPeriod afrPeriod) {
+        this.afrPeriod = afrPeriod;
+        return this;
+    }
+
+    /**
+     * @return True to write the drives active, added and retired per model and day into fleet.csv.
+     */
+    public boolean isFleet() {
+        return fleet;
+    }
+
+    public Options setFleet(boolean fleet) {
+        this.fleet = fleet;
+        return this;
+    }
+
+    /**
+     * @return The bytes the drives of the SPILL mode may take on the heap, --memory is given in MB. The side outputs
+     * are not part of it.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public Options setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * @return The number of partitions the SPILL mode hashes the drives into.
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public Options setPartitions(int partitions) {
+        this.partitions = partitions;
+        return this;
+    }
+
+    /**
+     * @return The directory for the run files of the SPILL mode, null for the temporary directory.
+     */
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public Options setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    /**
+     * @return The file to write the partial aggregate to instead of the output, null to write the output.
+     */
+    public File getPartial() {
+        return partial;
+    }
+
+    public Options setPartial(File partial) {
+        this.partial = partial;
+        return this;
+    }
+
+    /**
+     * @return The directory to keep the digests of the stats files in, see ParseCache, null for none.
+     */
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public Options setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+        return this;
+    }
+
+    /**
+     * @return True to compare the checksums of the files with the ones of their digests.
+     */
+    public boolean isCacheVerified() {
+        return cacheVerified;
+    }
+
+    public Options setCacheVerified(boolean cacheVerified) {
+        this.cacheVerified = cacheVerified;
+        return this;
+    }
+
+    /**
+     * @return True if columns besides the date, serial number, model and failure are read.
+     */
+    public boolean isReadingSmartColumns() {
+        return !smartAttributes.isEmpty() || !quantileAttributes.isEmpty();
+    }
+
+    /**
+     * @return The days to read, by the names of the files, see --from and --to.
+     */
+    public DateRange getDateRange() {
+        return dateRange;
+    }
+
+    public Options setDateRange(DateRange dateRange) {
+        this.dateRange = dateRange;
+        return this;
+    }
+
+    /**
+     * @return The file to keep the metadata of the stats files in, see Manifest, null for none.
+     */
+    public File getManifest() {
+        return manifest;
+    }
+
+    public Options setManifest(File manifest) {
+        this.manifest = manifest;
+        return this;
+    }
+
+    /**
+     * @return The prefixes of the models to read, like ST for Seagate, empty to read all models.
+     */
+    public List<String> getModelPrefixes() {
+        return modelPrefixes;
+    }
+
+    public Options setModelPrefixes(List<String> modelPrefixes) {
+        this.modelPrefixes = modelPrefixes;
+        return this;
+    }
+
+    /**
+     * @return The models to read, as found in the files, empty to read all models. Read along with the prefixes.
+     */
+    public Set<String> getModels() {
+        return models;
+    }
+
+    public Options setModels(Set<String> models) {
+        this.models = models;
+        return this;
+    }
+
+    /**
+     * @return The serial numbers of the drives to read, empty to read all drives.
+     */
+    public Set<String> getSerials() {
+        return serials;
+    }
+
+    public Options setSerials(Set<String> serials) {
+        this.serials = serials;
+        return this;
+    }
+
+}
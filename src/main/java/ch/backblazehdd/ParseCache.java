@@ -0,0 +1,556 @@
+package ch.backblazehdd;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps a digest of every stats file in a cache directory: its records reduced to the serial number, model and
+ * failure, sorted by serial number. The daily files never change once published, so later runs read the digests,
+ * a few percent of the size of the files, instead of the files.
+ * <p>
+ * A digest holds the size, last modification time and CRC32C of its file and is built again when the size or time
+ * differ, or the checksum when asked to verify it. The checksum is taken from the file mapped to build the digest,
+ * so building reads the file once. The day is kept once in the header, files with records of several days are not
+ * digested but read as usual. The records are fixed width and read by a DigestCursor, which hands them to the
+ * aggregation like a RecordCursor without parsing any text. The SMART columns are not kept, runs collecting SMART
+ * values can't use the cache.
+ * <p>
+ * Format, all numbers big endian:
+ * <pre>
+ * int magic, int version, long size, long last modified, long CRC32C of the file
+ * int day, int record count, int model count
+ * per model: short length, the bytes of the model
+ * per record: int end of its serial number in the serial numbers, int model index &lt;&lt; 1 | failure
+ * the serial numbers, one after the other
+ * </pre>
+ */
+public class ParseCache {
+
+    private static final int MAGIC = 0x42424443; // BBDC
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 44;
+    private static final int RECORD_SIZE = 8;
+
+    private final File directory;
+    private final boolean verify;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger built = new AtomicInteger();
+
+    /**
+     * @param directory The cache directory, created if missing.
+     * @param verify    True to compare the checksum of every file with the one of its digest, which reads the files.
+     */
+    public ParseCache(File directory, boolean verify) {
+        this.directory = directory;
+        this.verify = verify;
+    }
+
+    /**
+     * Returns a split per digest for the stats files, building the digests missing or stale in parallel. Archives,
+     * and files whose digest can not be built, are split as usual.
+     *
+     * @param files       The files to read.
+     * @param splitSize   The size of a range of the files split as usual.
+     * @param parallelism The number of digests built at once.
+     * @return The splits, largest first.
+     */
+    public List<InputSplit> split(File[] files, long splitSize, int parallelism) {
+
+        directory.mkdirs();
+
+        List<File> cacheable = new ArrayList<>();
+        List<File> others = new ArrayList<>();
+
+        for (File file : files) {
+            (FileSplitter.isArchive(file) ? others : cacheable).add(file);
+        }
+
+        List<InputSplit> splits = new ArrayList<>();
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+
+        try {
+            List<Object> digests = forkJoinPool.submit(() -> cacheable.parallelStream()
+                    .map(file -> {
+                        try {
+                            Digest digest = digest(file);
+                            return digest != null ? (Object) digest : file;
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            return file;
+                        }
+                    })
+                    .collect(Collectors.toList())).get();
+
+            for (Object digest : digests) {
+                if (digest instanceof Digest) {
+                    splits.add((Digest) digest);
+                } else {
+                    others.add((File) digest);
+                }
+            }
+
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return FileSplitter.split(files, splitSize);
+        } finally {
+            forkJoinPool.shutdown();
+        }
+
+        splits.addAll(FileSplitter.split(others.toArray(new File[0]), splitSize));
+
+        splits.sort(Comparator.comparingLong(InputSplit::getLength).reversed());
+
+        return splits;
+    }
+
+    /**
+     * @param file A stats file.
+     * @return The digest of the file, built if missing or stale, null if the file has records of several days.
+     * @throws IOException When the file is not readable or the digest can not be written.
+     */
+    public Digest digest(File file) throws IOException {
+
+        File digestFile = new File(directory, file.getName() + ".digest");
+
+        Digest digest = digestFile.exists() ? Digest.read(digestFile, file.getName()) : null;
+
+        if (digest != null && digest.size == file.length() && digest.lastModified == file.lastModified()
+                && (!verify || digest.checksum == checksum(file))) {
+            hits.incrementAndGet();
+            return digest;
+        }
+
+        digest = build(file, digestFile);
+        if (digest != null) {
+            built.incrementAndGet();
+        }
+
+        return digest;
+    }
+
+    /**
+     * @return The number of digests found valid so far.
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of digests built so far.
+     */
+    public int getBuilt() {
+        return built.get();
+    }
+
+    private Digest build(File file, File digestFile) throws IOException {
+
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        RecordCursor cursor = RecordCursor.map(file);
+        long checksum = checksum(cursor.getBuffer());
+
+        // Per record its serial number, created once as the key to sort by, and its model and failure
+        String[] ids = new String[1 << 12];
+        int[] values = new int[ids.length];
+        int records = 0;
+        int serialBytes = 0;
+
+        Map<Integer, Integer> modelIndexes = new HashMap<>();
+        List<String> models = new ArrayList<>();
+
+        int day = 0;
+
+        while (cursor.next()) {
+
+            if (records == 0) {
+                day = cursor.getDay();
+            } else if (cursor.getDay() != day) {
+                return null;
+            }
+
+            if (records == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+                values = Arrays.copyOf(values, ids.length);
+            }
+
+            int modelIndex = modelIndexes.computeIfAbsent(cursor.getModelId(), id -> {
+                models.add(cursor.getModel());
+                return models.size() - 1;
+            });
+
+            ids[records] = cursor.getID();
+            serialBytes += ids[records].length();
+            values[records] = modelIndex << 1 | (cursor.isDead() ? 1 : 0);
+            records++;
+        }
+
+        // Sorts the indexes of the records by their keys, in less than half the time of comparing the bytes in place
+        String[] keys = ids;
+        Integer[] order = new Integer[records];
+        for (int i = 0; i < records; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+
+        List<byte[]> modelBytes = new ArrayList<>();
+        int length = HEADER_SIZE + records * RECORD_SIZE + serialBytes;
+        for (String model : models) {
+            modelBytes.add(model.getBytes(StandardCharsets.ISO_8859_1));
+            length += 2 + modelBytes.get(modelBytes.size() - 1).length;
+        }
+
+        // Put together in memory and written at once, a stream would take a call per byte
+        ByteBuffer digest = ByteBuffer.allocate(length);
+
+        digest.putInt(MAGIC);
+        digest.putInt(VERSION);
+        digest.putLong(size);
+        digest.putLong(lastModified);
+        digest.putLong(checksum);
+        digest.putInt(day);
+        digest.putInt(records);
+        digest.putInt(models.size());
+
+        for (byte[] bytes : modelBytes) {
+            digest.putShort((short) bytes.length);
+            digest.put(bytes);
+        }
+
+        int end = 0;
+        for (int record : order) {
+            end += ids[record].length();
+            digest.putInt(end);
+            digest.putInt(values[record]);
+        }
+
+        for (int record : order) {
+            digest.put(ids[record].getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        File temporary = new File(digestFile.getPath() + ".tmp");
+        Files.write(temporary.toPath(), digest.array());
+
+        Files.move(temporary.toPath(), digestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return Digest.read(digestFile, file.getName());
+    }
+
+    /**
+     * @return The CRC32C of the file.
+     */
+    static long checksum(File file) throws IOException {
+
+        CRC32C crc = new CRC32C();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * @return The CRC32C of the bytes of the buffer, from its position to its limit, equal to the one of the file
+     * when the buffer maps all of it.
+     */
+    static long checksum(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        return crc.getValue();
+    }
+
+    /**
+     * The digest of a file, read as a split of its own.
+     */
+    public static class Digest implements InputSplit {
+
+        private final File file;
+        private final String name;
+
+        private final long size;
+        private final long lastModified;
+        private final long checksum;
+        private final int day;
+        private final int records;
+
+        private Digest(File file, String name, long size, long lastModified, long checksum, int day, int records) {
+            this.file = file;
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+            this.day = day;
+            this.records = records;
+        }
+
+        /**
+         * @return The digest in the file, null if it isn't one of this version.
+         */
+        static Digest read(File file, String name) throws IOException {
+
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+
+                if (file.length() < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+
+                return new Digest(file, name, in.readLong(), in.readLong(), in.readLong(), in.readInt(), in.readInt());
+            }
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getLength() {
+            return file.length() - HEADER_SIZE;
+        }
+
+        /**
+         * Hands a single DigestCursor over the records of the digest to the consumer.
+         */
+        @Override
+        public void read(CursorConsumer consumer) throws IOException, InterruptedException {
+
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Digest is too large to be mapped: " + file);
+                }
+
+                consumer.accept(new DigestCursor(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), day, records));
+            }
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * @return The day of the records, in epoch days.
+         */
+        public int getDay() {
+            return day;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        @Override
+        public String toString() {
+            return "Digest{" +
+                    "file=" + file +
+                    ", records=" + records +
+                    '}';
+        }
+    }
+
+    /**
+     * A cursor over the fixed width records of a digest. The serial numbers are handed out as ranges of the mapped
+     * digest like the RecordCursor does with the lines, the models are resolved to their ModelDictionary ids once.
+     * There are no other columns.
+     */
+    public static class DigestCursor extends RecordCursor {
+
+        private final ByteBuffer buffer;
+        private final int day;
+        private final int count;
+
+        private final String[] models;
+        private final int[] modelIds;
+
+        private final int recordsStart;
+        private final int serialsStart;
+
+        private int index = -1;
+        private int idStart;
+        private int idEnd;
+        private int model;
+        private boolean dead;
+
+        private long records = 0;
+        private long rejected = 0;
+
+        private RecordFilter filter;
+        private boolean[] acceptedModels;
+
+        /**
+         * @param buffer The whole digest.
+         * @param day    The day of the records, from the header.
+         * @param count  The number of records, from the header.
+         */
+        DigestCursor(ByteBuffer buffer, int day, int count) {
+
+            super(buffer, 0, 0);
+
+            this.buffer = buffer;
+            this.day = day;
+            this.count = count;
+
+            int position = HEADER_SIZE;
+
+            models = new String[buffer.getInt(HEADER_SIZE - 4)];
+            modelIds = new int[models.length];
+
+            for (int i = 0; i < models.length; i++) {
+                byte[] bytes = new byte[buffer.getShort(position)];
+                position += 2;
+                for (int j = 0; j < bytes.length; j++) {
+                    bytes[j] = buffer.get(position++);
+                }
+                models[i] = new String(bytes, StandardCharsets.ISO_8859_1);
+                modelIds[i] = ModelDictionary.getId(models[i]);
+            }
+
+            recordsStart = position;
+            serialsStart = position + count * RECORD_SIZE;
+            idEnd = serialsStart;
+        }
+
+        @Override
+        public boolean next() {
+
+            while (index + 1 < count) {
+
+                int record = recordsStart + ++index * RECORD_SIZE;
+                int value = buffer.getInt(record + 4);
+
+                idStart = idEnd;
+                idEnd = serialsStart + buffer.getInt(record);
+                model = value >>> 1;
+                dead = (value & 1) != 0;
+
+                if (filter != null && (!acceptedModels[model] || !filter.acceptsSerial(buffer, idStart, idEnd))) {
+                    rejected++;
+                    continue;
+                }
+
+                records++;
+
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Skips the records the filter rejects from the next record on, the models are decided once per digest.
+         */
+        @Override
+        public void setFilter(RecordFilter filter) {
+            this.filter = filter;
+            this.acceptedModels = new boolean[models.length];
+            for (int i = 0; filter != null && i < models.length; i++) {
+                acceptedModels[i] = filter.acceptsModel(models[i]);
+            }
+        }
+
+        @Override
+        public long getRecords() {
+            return records;
+        }
+
+        @Override
+        public long getRejected() {
+            return rejected;
+        }
+
+        @Override
+        public String getID() {
+            byte[] id = new byte[idEnd - idStart];
+            for (int i = 0; i < id.length; i++) {
+                id[i] = buffer.get(idStart + i);
+            }
+            return new String(id, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public int getIDStart() {
+            return idStart;
+        }
+
+        @Override
+        public int getIDEnd() {
+            return idEnd;
+        }
+
+        @Override
+        public String getDate() {
+            return LocalDate.ofEpochDay(day).toString();
+        }
+
+        @Override
+        public int getDay() {
+            return day;
+        }
+
+        @Override
+        public String getModel() {
+            return models[model];
+        }
+
+        @Override
+        public int getModelId() {
+            return modelIds[model];
+        }
+
+        @Override
+        public boolean isDead() {
+            return dead;
+        }
+
+        @Override
+        public boolean hasValue(int column) {
+            return false;
+        }
+
+        @Override
+        public HardDrive toHardDrive() {
+            return new HardDrive(day, day, modelIds[model], dead);
+        }
+
+        @Override
+        public void readHeader(String source) {
+        }
+
+        @Override
+        public void skipLine() {
+            if (index + 1 < count) {
+                idStart = idEnd;
+                idEnd = serialsStart + buffer.getInt(recordsStart + ++index * RECORD_SIZE);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,407 @@
+package ch.backblazehdd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The drives of a part of the data, aggregated on one machine and merged with the parts of others later. Unlike
+ * data.csv, it keeps the raw first and last day, the model as found in the files and the dead flag, so merging parts
+ * gives the same drives as aggregating all files at once.
+ * <p>
+ * Format, all numbers big endian:
+ * <pre>
+ * int magic, int version
+ * int model count, per model: UTF model
+ * per drive sorted by serial: byte serial length, serial bytes, int min, int max, int model index and dead flag
+ * byte 0, the end
+ * </pre>
+ * The drives are written one by one, so parts are merged by streaming all of them at once, without holding them.
+ */
+public class PartialAggregate {
+
+    private static final int MAGIC = 0x42425041; // BBPA
+    private static final int VERSION = 1;
+
+    private PartialAggregate() {
+    }
+
+    /**
+     * Writes the drives into the file. Spilled drives are written partition by partition and merged, see
+     * SpilledDrives.writePartial, other maps are sorted in memory unless they are already.
+     *
+     * @param file   The file to write.
+     * @param drives The drives, by serial number.
+     * @throws IOException When the file can not be written.
+     */
+    public static void write(File file, Map<String, HardDrive> drives) throws IOException {
+
+        if (drives instanceof SpilledDrives) {
+            ((SpilledDrives) drives).writePartial(file);
+            return;
+        }
+
+        Set<String> models = new LinkedHashSet<>();
+        for (HardDrive hardDrive : drives.values()) {
+            models.add(hardDrive.getModel());
+        }
+
+        Map<String, HardDrive> sorted = drives instanceof SortedMap ? drives : new TreeMap<>(drives);
+
+        try (Writer writer = new Writer(file, models)) {
+            for (Map.Entry<String, HardDrive> entry : sorted.entrySet()) {
+                writer.add(entry.getKey(), entry.getValue());
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * @param file A file written by write or a Writer.
+     * @return The drives of the file, by serial number.
+     * @throws IOException When the file is not readable or not a partial aggregate.
+     */
+    public static Map<String, HardDrive> read(File file) throws IOException {
+
+        Map<String, HardDrive> drives = new TreeMap<>();
+
+        try (Reader reader = new Reader(file)) {
+            while (reader.next()) {
+                drives.put(reader.getSerial(), reader.getHardDrive());
+            }
+        }
+
+        return drives;
+    }
+
+    /**
+     * Merges the files k-way, by serial number. The drives found in several files are merged like the merging
+     * constructor of HardDrive does.
+     *
+     * @param inputs The files to merge, written by write or a Writer.
+     * @param output The file to write the merged drives to.
+     * @return The number of drives written.
+     * @throws IOException When a file is not readable or the output can not be written.
+     */
+    public static int merge(List<File> inputs, File output) throws IOException {
+
+        List<Reader> readers = open(inputs);
+
+        try {
+            Set<String> models = new LinkedHashSet<>();
+            for (Reader reader : readers) {
+                models.addAll(reader.getModels());
+            }
+
+            int drives = 0;
+
+            try (Writer writer = new Writer(output, models)) {
+                Iterator<Map.Entry<String, HardDrive>> merged = merge(readers);
+                while (merged.hasNext()) {
+                    Map.Entry<String, HardDrive> entry = merged.next();
+                    writer.add(entry.getKey(), entry.getValue());
+                    drives++;
+                }
+                writer.commit();
+            }
+
+            return drives;
+
+        } finally {
+            close(readers);
+        }
+    }
+
+    /**
+     * Opens the readers of all files, closing the ones opened if one fails.
+     */
+    public static List<Reader> open(List<File> inputs) throws IOException {
+
+        List<Reader> readers = new ArrayList<>(inputs.size());
+
+        try {
+            for (File input : inputs) {
+                readers.add(new Reader(input));
+            }
+        } catch (IOException e) {
+            close(readers);
+            throw e;
+        }
+
+        return readers;
+    }
+
+    public static void close(List<Reader> readers) throws IOException {
+        IOException first = null;
+        for (Reader reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                first = first == null ? e : first;
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    /**
+     * Merges the drives of the readers, which have to be positioned before their first drive.
+     *
+     * @param readers The readers of the parts, closed by the caller.
+     * @return The merged drives, sorted by serial number.
+     * @throws UncheckedIOException From the iterator, when a file can't be read.
+     */
+    public static Iterator<Map.Entry<String, HardDrive>> merge(List<Reader> readers) throws IOException {
+
+        PriorityQueue<Reader> queue = new PriorityQueue<>(Math.max(1, readers.size()),
+                (reader1, reader2) -> reader1.getSerial().compareTo(reader2.getSerial()));
+
+        for (Reader reader : readers) {
+            if (reader.next()) {
+                queue.add(reader);
+            }
+        }
+
+        return new Iterator<>() {
+
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<String, HardDrive> next() {
+
+                if (queue.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+
+                Reader reader = queue.poll();
+                String serial = reader.getSerial();
+                HardDrive hardDrive = reader.getHardDrive();
+
+                try {
+                    advance(reader);
+
+                    while (!queue.isEmpty() && queue.peek().getSerial().equals(serial)) {
+                        Reader same = queue.poll();
+                        hardDrive = new HardDrive(hardDrive, same.getHardDrive());
+                        advance(same);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                return new AbstractMap.SimpleImmutableEntry<>(serial, hardDrive);
+            }
+
+            private void advance(Reader reader) throws IOException {
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes a partial aggregate drive by drive, the drives have to be added in the order of their serial numbers.
+     * Writes to a temporary file which commit moves in place. Closing a writer not committed, like when adding
+     * the drives failed, deletes the temporary file and leaves a previous file untouched.
+     */
+    public static class Writer implements Closeable {
+
+        private final File file;
+        private final File temporary;
+        private final DataOutputStream out;
+
+        private final Map<Integer, Integer> modelIndexes = new HashMap<>();
+
+        private String lastSerial = null;
+        private boolean committed = false;
+
+        /**
+         * @param file   The file to write.
+         * @param models All models of the drives to come.
+         */
+        public Writer(File file, Collection<String> models) throws IOException {
+
+            this.file = file;
+            this.temporary = new File(file.getPath() + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(models.size());
+            for (String model : models) {
+                modelIndexes.put(ModelDictionary.getId(model), modelIndexes.size());
+                out.writeUTF(model);
+            }
+        }
+
+        public void add(String serial, HardDrive hardDrive) throws IOException {
+
+            byte[] bytes = serial.getBytes(StandardCharsets.ISO_8859_1);
+
+            if (bytes.length == 0 || bytes.length > 255) {
+                throw new IOException("Invalid serial number: '" + serial + "'");
+            }
+            if (lastSerial != null && serial.compareTo(lastSerial) <= 0) {
+                throw new IOException("Serial numbers out of order: " + lastSerial + ", " + serial);
+            }
+
+            Integer modelIndex = modelIndexes.get(hardDrive.getModelId());
+            if (modelIndex == null) {
+                throw new IOException("Model not declared: " + hardDrive.getModel());
+            }
+
+            out.writeByte(bytes.length);
+            out.write(bytes);
+            out.writeInt(hardDrive.getMinDay());
+            out.writeInt(hardDrive.getMaxDay());
+            out.writeInt(modelIndex << 1 | (hardDrive.isDead() ? 1 : 0));
+
+            lastSerial = serial;
+        }
+
+        /**
+         * Ends the file after the last drive and moves it in place.
+         */
+        public void commit() throws IOException {
+            out.writeByte(0);
+            out.close();
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                try {
+                    out.close();
+                } finally {
+                    Files.deleteIfExists(temporary.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a partial aggregate drive by drive.
+     */
+    public static class Reader implements Closeable {
+
+        private final File file;
+        private final DataInputStream in;
+
+        private final List<String> models = new ArrayList<>();
+        private final int[] modelIds;
+
+        private final byte[] serialBytes = new byte[255];
+
+        private String serial;
+        private HardDrive hardDrive;
+
+        public Reader(File file) throws IOException {
+
+            this.file = file;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a partial aggregate: " + file);
+                }
+
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported partial aggregate version " + version + ": " + file);
+                }
+
+                int modelCount = in.readInt();
+                modelIds = new int[modelCount];
+                for (int i = 0; i < modelCount; i++) {
+                    String model = in.readUTF();
+                    models.add(model);
+                    modelIds[i] = ModelDictionary.getId(model);
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        public List<String> getModels() {
+            return models;
+        }
+
+        /**
+         * Moves to the next drive.
+         *
+         * @return False at the end of the file.
+         * @throws IOException When the file is broken.
+         */
+        public boolean next() throws IOException {
+
+            int length = in.readUnsignedByte();
+
+            if (length == 0) {
+                serial = null;
+                hardDrive = null;
+                return false;
+            }
+
+            in.readFully(serialBytes, 0, length);
+
+            int min = in.readInt();
+            int max = in.readInt();
+            int modelAndDead = in.readInt();
+
+            if ((modelAndDead >>> 1) >= modelIds.length) {
+                throw new IOException("Unknown model index " + (modelAndDead >>> 1) + ": " + file);
+            }
+
+            serial = new String(serialBytes, 0, length, StandardCharsets.ISO_8859_1);
+            hardDrive = new HardDrive(min, max, modelIds[modelAndDead >>> 1], (modelAndDead & 1) != 0);
+
+            return true;
+        }
+
+        public String getSerial() {
+            return serial;
+        }
+
+        public HardDrive getHardDrive() {
+            return hardDrive;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
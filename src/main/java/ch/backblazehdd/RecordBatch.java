@@ -0,0 +1,87 @@
+package ch.backblazehdd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A batch of parsed records, handed from a parser to an aggregator. Kept in columns of primitives, the serial
+ * numbers are copied back to back into a single byte array.
+ */
+public class RecordBatch {
+
+    private byte[] ids;
+    private final int[] idEnds;
+    private final int[] days;
+    private final int[] modelAndDead;
+
+    private int size = 0;
+
+    /**
+     * @param capacity The number of records the batch holds.
+     */
+    public RecordBatch(int capacity) {
+        this.ids = new byte[capacity * 16];
+        this.idEnds = new int[capacity];
+        this.days = new int[capacity];
+        this.modelAndDead = new int[capacity];
+    }
+
+    /**
+     * Appends a record, the batch must not be full.
+     *
+     * @param buffer  The buffer holding the serial number.
+     * @param idStart The index of the first byte of the serial number.
+     * @param idEnd   The index after the last byte of the serial number.
+     * @param day     The day of the record, in epoch days.
+     * @param modelId The model id of the record.
+     * @param dead    True if the record reports a failure.
+     */
+    public void add(ByteBuffer buffer, int idStart, int idEnd, int day, int modelId, boolean dead) {
+
+        int offset = size == 0 ? 0 : idEnds[size - 1];
+        int length = idEnd - idStart;
+
+        if (offset + length > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(ids.length * 2, offset + length));
+        }
+
+        for (int i = 0; i < length; i++) {
+            ids[offset + i] = buffer.get(idStart + i);
+        }
+
+        idEnds[size] = offset + length;
+        days[size] = day;
+        modelAndDead[size] = modelId << 1 | (dead ? 1 : 0);
+
+        size++;
+    }
+
+    public boolean isFull() {
+        return size == idEnds.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Folds all records of the batch into the accumulators.
+     *
+     * @param map The accumulators, by serial number.
+     */
+    public void foldInto(Map<String, DriveAccumulator> map) {
+
+        int offset = 0;
+
+        for (int i = 0; i < size; i++) {
+            String id = new String(ids, offset, idEnds[i] - offset, StandardCharsets.ISO_8859_1);
+            map.computeIfAbsent(id, key -> new DriveAccumulator())
+                    .add(days[i], modelAndDead[i] >>> 1, (modelAndDead[i] & 1) != 0);
+            offset = idEnds[i];
+        }
+
+    }
+
+}
@@ -0,0 +1,108 @@
+package ch.backblazehdd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects the records to aggregate by model and serial number, checked by the RecordCursor on the raw bytes of a
+ * line before anything else of it is parsed. Rejected lines cost a scan for the serial and model fields only.
+ * <p>
+ * A record is accepted when its model starts with one of the prefixes or is one of the models, if any are given, and
+ * when its serial number is one of the serial numbers, if any are given. The serial numbers are looked up in a Bloom
+ * filter first, so only the few lines passing it create a string to be checked exactly. The decision for a model is
+ * cached per cursor, see RecordCursor.setFilter.
+ */
+public class RecordFilter {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final List<String> modelPrefixes;
+    private final Set<String> models;
+    private final Set<String> serials;
+    private final BloomFilter serialFilter;
+
+    /**
+     * @param modelPrefixes The prefixes of the models to accept, empty to not filter by prefix.
+     * @param models        The models to accept, empty to not filter by model.
+     * @param serials       The serial numbers to accept, empty to not filter by serial number.
+     */
+    public RecordFilter(List<String> modelPrefixes, Collection<String> models, Collection<String> serials) {
+        this.modelPrefixes = List.copyOf(modelPrefixes);
+        this.models = new HashSet<>(models);
+        this.serials = new HashSet<>(serials);
+
+        if (serials.isEmpty()) {
+            this.serialFilter = null;
+        } else {
+            this.serialFilter = new BloomFilter(this.serials.size(), FALSE_POSITIVE_RATE);
+            for (String serial : this.serials) {
+                serialFilter.add(serial);
+            }
+        }
+    }
+
+    /**
+     * @return The filter of the options, null if they don't filter records.
+     */
+    public static RecordFilter create(Options options) {
+        if (options.getModelPrefixes().isEmpty() && options.getModels().isEmpty() && options.getSerials().isEmpty()) {
+            return null;
+        }
+        return new RecordFilter(options.getModelPrefixes(), options.getModels(), options.getSerials());
+    }
+
+    /**
+     * @return True if records of the model are accepted, as far as the model is concerned.
+     */
+    public boolean acceptsModel(String model) {
+
+        if (modelPrefixes.isEmpty() && models.isEmpty()) {
+            return true;
+        }
+
+        if (models.contains(model)) {
+            return true;
+        }
+
+        for (String prefix : modelPrefixes) {
+            if (model.startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return True if records with the serial number between start (inclusive) and end (exclusive) are accepted.
+     */
+    public boolean acceptsSerial(ByteBuffer buffer, int start, int end) {
+
+        if (serialFilter == null) {
+            return true;
+        }
+
+        if (!serialFilter.mightContain(buffer, start, end)) {
+            return false;
+        }
+
+        byte[] serial = new byte[end - start];
+        for (int i = 0; i < serial.length; i++) {
+            serial[i] = buffer.get(start + i);
+        }
+
+        return serials.contains(new String(serial, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @return True if serial numbers are checked at all.
+     */
+    public boolean isFilteringSerials() {
+        return serialFilter != null;
+    }
+
+}
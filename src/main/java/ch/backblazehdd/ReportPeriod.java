@@ -0,0 +1,43 @@
+package ch.backblazehdd;
+
+import java.time.LocalDate;
+
+/**
+ * The periods time series are reported by.
+ */
+public enum ReportPeriod {
+
+    /**
+     * One line per day, like 2013-04-11.
+     */
+    DAY,
+
+    /**
+     * One line per month, like 2013-04.
+     */
+    MONTH,
+
+    /**
+     * One line per quarter, like 2013-Q2.
+     */
+    QUARTER;
+
+    /**
+     * @param epochDay The days since 1970-01-01.
+     * @return The name of the period the day is in, which sorts like the periods.
+     */
+    public String getLabel(int epochDay) {
+
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+
+        switch (this) {
+            case MONTH:
+                return String.format("%04d-%02d", date.getYear(), date.getMonthValue());
+            case QUARTER:
+                return date.getYear() + "-Q" + ((date.getMonthValue() - 1) / 3 + 1);
+            default:
+                return date.toString();
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The columns of a stats file, compiled from its header: where the date, serial number, model and failure fields
+ * are, and the index of every other column by name, like smart_9_raw.
+ * <p>
+ * Backblaze added and moved SMART columns over the years, so the header is read once per file and the plan is
+ * looked up by the header text. All files with the same header share one instance. The usual layout, starting
+ * with date,serial_number,model,capacity_bytes,failure, is flagged as standard so the cursor can take its fast path.
+ */
+public class Schema {
+
+    public static final String DATE = "date";
+    public static final String SERIAL_NUMBER = "serial_number";
+    public static final String MODEL = "model";
+    public static final String FAILURE = "failure";
+
+    private static final String[] STANDARD_COLUMNS = {DATE, SERIAL_NUMBER, MODEL, "capacity_bytes", FAILURE};
+
+    /**
+     * The layout assumed for lines without a header.
+     */
+    public static final Schema STANDARD = new Schema(STANDARD_COLUMNS);
+
+    private static final Map<String, Schema> schemas = new ConcurrentHashMap<>();
+
+    private final String[] columns;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    private final int date;
+    private final int serialNumber;
+    private final int model;
+    private final int failure;
+
+    private final boolean standard;
+
+    private Schema(String[] columns) {
+
+        this.columns = columns;
+
+        for (int i = 0; i < columns.length; i++) {
+            indexes.putIfAbsent(columns[i], i);
+        }
+
+        date = indexOf(DATE);
+        serialNumber = indexOf(SERIAL_NUMBER);
+        model = indexOf(MODEL);
+        failure = indexOf(FAILURE);
+
+        standard = columns.length >= STANDARD_COLUMNS.length
+                && Arrays.equals(columns, 0, STANDARD_COLUMNS.length, STANDARD_COLUMNS, 0, STANDARD_COLUMNS.length);
+    }
+
+    /**
+     * Returns the schema of a header line, compiled once per distinct header.
+     *
+     * @param buffer The buffer holding the header.
+     * @param start  The index of the first byte of the header.
+     * @param end    The index of the line break, or after the last byte.
+     * @return The shared schema.
+     * @throws IllegalArgumentException When the date, serial number, model or failure column is missing.
+     */
+    public static Schema of(ByteBuffer buffer, int start, int end) {
+
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+
+        return of(new String(bytes, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @param header The header line, without the line break.
+     * @return The shared schema of the header.
+     * @throws IllegalArgumentException When the date, serial number, model or failure column is missing.
+     */
+    public static Schema of(String header) {
+
+        Schema schema = schemas.get(header);
+
+        if (schema != null) {
+            return schema;
+        }
+
+        String[] columns = header.strip().split(",", -1);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columns[i].strip();
+        }
+
+        schema = new Schema(columns);
+
+        for (String required : STANDARD_COLUMNS) {
+            if (!required.equals("capacity_bytes") && schema.indexOf(required) < 0) {
+                throw new IllegalArgumentException("Missing column " + required + " in header: " + header);
+            }
+        }
+
+        Schema existing = schemas.putIfAbsent(header, schema);
+
+        return existing != null ? existing : schema;
+    }
+
+    /**
+     * Reads the header of the file, for ranges which don't start at the beginning of it.
+     *
+     * @param file The stats file.
+     * @return The shared schema of its header.
+     * @throws IOException When the file is not readable or the header is invalid.
+     */
+    public static Schema read(File file) throws IOException {
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+
+            StringBuilder header = new StringBuilder(4096);
+            byte[] chunk = new byte[4096];
+
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (chunk[i] == '\n') {
+                        return of(file, header.toString());
+                    }
+                    header.append((char) (chunk[i] & 0xFF));
+                }
+            }
+
+            return of(file, header.toString());
+        }
+    }
+
+    private static Schema of(File file, String header) throws IOException {
+        try {
+            return of(header);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param column The name of the column, like smart_9_raw.
+     * @return The index of the column, -1 if the files of this schema don't have it.
+     */
+    public int indexOf(String column) {
+        return indexes.getOrDefault(column, -1);
+    }
+
+    public String getColumn(int index) {
+        return columns[index];
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    public int getDate() {
+        return date;
+    }
+
+    public int getSerialNumber() {
+        return serialNumber;
+    }
+
+    public int getModel() {
+        return model;
+    }
+
+    public int getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return The highest index of the date, serial number, model and failure columns.
+     */
+    public int getLastRequired() {
+        return Math.max(Math.max(date, serialNumber), Math.max(model, failure));
+    }
+
+    /**
+     * @return True if the file starts with date,serial_number,model,capacity_bytes,failure.
+     */
+    public boolean isStandard() {
+        return standard;
+    }
+
+}
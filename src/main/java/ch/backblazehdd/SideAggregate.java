@@ -0,0 +1,39 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Statistics collected next to the lifetimes of the drives, in the same pass over the files.
+ * <p>
+ * Every worker fills its own instance, record by record, and the instances of all workers are merged at the end.
+ * Not thread safe.
+ *
+ * @param <T> The type of the implementation, for merging.
+ */
+public interface SideAggregate<T extends SideAggregate<T>> {
+
+    /**
+     * Folds the current record of the cursor into this aggregate. Columns are resolved from the schema of the
+     * cursor, which only changes between pieces, so implementations should cache them per schema.
+     *
+     * @param cursor The cursor, positioned on a record.
+     */
+    void add(RecordCursor cursor);
+
+    /**
+     * Folds the aggregate of another worker into this one.
+     *
+     * @param other The other aggregate, of the same configuration, may be changed.
+     */
+    void merge(T other);
+
+    /**
+     * Writes the results next to data.csv.
+     *
+     * @param directory The directory to write to.
+     * @throws IOException When the files can not be written.
+     */
+    void write(File directory) throws IOException;
+
+}
@@ -0,0 +1,86 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The side aggregates asked for by the options, one set per worker.
+ */
+public class SideAggregates {
+
+    private final SideAggregate<?>[] aggregates;
+
+    public SideAggregates(List<SideAggregate<?>> aggregates) {
+        this.aggregates = aggregates.toArray(new SideAggregate<?>[0]);
+    }
+
+    /**
+     * @param options The options of the run.
+     * @return Creates the side aggregates of a worker, an empty set when none are asked for.
+     */
+    public static Supplier<SideAggregates> factory(Options options) {
+        return () -> {
+            List<SideAggregate<?>> aggregates = new ArrayList<>();
+            if (!options.getSmartAttributes().isEmpty()) {
+                aggregates.add(new SmartStatistics(options.getSmartAttributes()));
+            }
+            if (!options.getQuantileAttributes().isEmpty()) {
+                aggregates.add(new SmartQuantiles(options.getQuantileAttributes()));
+            }
+            if (options.getAfrPeriod() != null || options.isFleet()) {
+                aggregates.add(new DriveDays(options.getAfrPeriod()));
+            }
+            return new SideAggregates(aggregates);
+        };
+    }
+
+    public boolean isEmpty() {
+        return aggregates.length == 0;
+    }
+
+    /**
+     * Folds the current record of the cursor into all side aggregates.
+     */
+    public void add(RecordCursor cursor) {
+        for (SideAggregate<?> aggregate : aggregates) {
+            aggregate.add(cursor);
+        }
+    }
+
+    /**
+     * Folds the side aggregates of another worker into these.
+     *
+     * @param other Created by the same factory.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void merge(SideAggregates other) {
+        for (int i = 0; i < aggregates.length; i++) {
+            ((SideAggregate) aggregates[i]).merge(other.aggregates[i]);
+        }
+    }
+
+    /**
+     * @return The first side aggregate of the type, null if none.
+     */
+    public <T extends SideAggregate<T>> T get(Class<T> type) {
+        for (SideAggregate<?> aggregate : aggregates) {
+            if (type.isInstance(aggregate)) {
+                return type.cast(aggregate);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the results of all side aggregates.
+     */
+    public void write(File directory) throws IOException {
+        for (SideAggregate<?> aggregate : aggregates) {
+            aggregate.write(directory);
+        }
+    }
+
+}
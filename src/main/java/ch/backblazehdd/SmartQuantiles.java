@@ -0,0 +1,176 @@
+package ch.backblazehdd;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Approximate p50, p90 and p99 of a few SMART attributes per model and quarter, with a KllSketch for every model,
+ * quarter and attribute. The memory is bounded by the number of sketches, not by the number of records.
+ */
+public class SmartQuantiles implements SideAggregate<SmartQuantiles> {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final List<String> attributes;
+    private final int width;
+
+    private Schema schema;
+    private int[] columns;
+
+    // The sketches of a quarter, by model id * attributes + attribute
+    private final Map<Integer, KllSketch[]> quarters = new HashMap<>();
+
+    private int lastDay = Integer.MIN_VALUE;
+    private KllSketch[] current;
+    private int currentQuarter;
+
+    /**
+     * @param attributes The names of the columns, like smart_194_raw.
+     */
+    public SmartQuantiles(List<String> attributes) {
+        this.attributes = attributes;
+        this.width = attributes.size();
+    }
+
+    @Override
+    public void add(RecordCursor cursor) {
+
+        if (cursor.getSchema() != schema) {
+            schema = cursor.getSchema();
+            columns = attributes.stream().mapToInt(schema::indexOf).toArray();
+        }
+
+        int day = cursor.getDay();
+        if (day != lastDay) {
+            lastDay = day;
+            currentQuarter = quarterOf(day);
+            current = quarters.get(currentQuarter);
+        }
+
+        int modelId = cursor.getModelId();
+
+        for (int a = 0; a < width; a++) {
+            if (cursor.hasValue(columns[a])) {
+                sketch(modelId * width + a).add(cursor.getLong(columns[a], 0));
+            }
+        }
+    }
+
+    private KllSketch sketch(int slot) {
+
+        if (current == null || slot >= current.length) {
+            current = Arrays.copyOf(current == null ? new KllSketch[0] : current,
+                    Math.max(slot + 1, ModelDictionary.size() * width));
+            quarters.put(currentQuarter, current);
+        }
+
+        KllSketch sketch = current[slot];
+        if (sketch == null) {
+            sketch = new KllSketch();
+            current[slot] = sketch;
+        }
+
+        return sketch;
+    }
+
+    @Override
+    public void merge(SmartQuantiles other) {
+
+        for (Map.Entry<Integer, KllSketch[]> quarter : other.quarters.entrySet()) {
+
+            KllSketch[] sketches = quarters.get(quarter.getKey());
+            KllSketch[] otherSketches = quarter.getValue();
+
+            if (sketches == null || sketches.length < otherSketches.length) {
+                sketches = Arrays.copyOf(sketches == null ? new KllSketch[0] : sketches, otherSketches.length);
+                quarters.put(quarter.getKey(), sketches);
+            }
+
+            for (int slot = 0; slot < otherSketches.length; slot++) {
+                if (otherSketches[slot] == null) {
+                    continue;
+                }
+                if (sketches[slot] == null) {
+                    sketches[slot] = new KllSketch();
+                }
+                sketches[slot].merge(otherSketches[slot]);
+            }
+        }
+
+        // The cached array of the current quarter may have been replaced
+        lastDay = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Writes smart_quantiles.csv, one line per model, quarter and attribute reported.
+     */
+    @Override
+    public void write(File directory) throws IOException {
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, "smart_quantiles.csv"))))) {
+
+            out.println("model,quarter,attribute,count,min,p50,p90,p99,max");
+
+            Map<String, String> lines = new TreeMap<>();
+
+            for (Map.Entry<Integer, KllSketch[]> quarter : new TreeMap<>(quarters).entrySet()) {
+
+                String quarterName = quarter.getKey() / 4 + "-Q" + (quarter.getKey() % 4 + 1);
+                KllSketch[] sketches = quarter.getValue();
+
+                for (int slot = 0; slot < sketches.length; slot++) {
+
+                    KllSketch sketch = sketches[slot];
+                    if (sketch == null || sketch.getCount() == 0) {
+                        continue;
+                    }
+
+                    String key = ModelDictionary.getModel(slot / width) + "," + quarterName + ","
+                            + attributes.get(slot % width);
+
+                    StringBuilder line = new StringBuilder(key).append(',').append(sketch.getCount())
+                            .append(',').append(sketch.getMin());
+                    for (double quantile : QUANTILES) {
+                        line.append(',').append(sketch.getQuantile(quantile));
+                    }
+                    line.append(',').append(sketch.getMax());
+
+                    lines.put(key, line.toString());
+                }
+            }
+
+            for (String line : lines.values()) {
+                out.println(line);
+            }
+        }
+    }
+
+    /**
+     * @return The sketch of the model, quarter (like 2013-Q2) and attribute index, null if nothing was reported.
+     */
+    public KllSketch getSketch(String model, String quarter, int attribute) {
+
+        int year = Integer.parseInt(quarter.substring(0, 4));
+        int q = Integer.parseInt(quarter.substring(quarter.length() - 1));
+
+        KllSketch[] sketches = quarters.get(year * 4 + q - 1);
+        int slot = ModelDictionary.getId(model) * width + attribute;
+
+        return sketches == null || slot >= sketches.length ? null : sketches[slot];
+    }
+
+    private static int quarterOf(int epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        return date.getYear() * 4 + (date.getMonthValue() - 1) / 3;
+    }
+
+}
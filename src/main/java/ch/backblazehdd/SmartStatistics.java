@@ -0,0 +1,356 @@
+package ch.backblazehdd;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Count, min, max, mean and last value of a few SMART attributes, per model and per drive.
+ * <p>
+ * Kept in columns of primitives: the statistics of a model are at modelId * attributes + attribute, the ones of a
+ * drive at driveIndex * attributes + attribute. Drives get their index when first seen, by the bytes of their serial
+ * number: an open addressing table of indexes over the serial bytes, the only copy of a serial number a worker keeps.
+ * Strings are created when writing. Empty values are skipped, so the count tells how many records reported the
+ * attribute. The model of a drive is the first one seen, like in HardDrive.
+ */
+public class SmartStatistics implements SideAggregate<SmartStatistics> {
+
+    private final List<String> attributes;
+    private final int width;
+
+    private Schema schema;
+    private int[] columns;
+
+    // Per model
+    private long[] modelCounts = new long[0];
+    private long[] modelMins = new long[0];
+    private long[] modelMaxs = new long[0];
+    private double[] modelSums = new double[0];
+
+    // Per drive
+    // Drive index + 1 by hash of the serial number, 0 for a free slot
+    private int[] driveTable = new int[1024];
+    private byte[][] serials = new byte[0][];
+    private int[] serialHashes = new int[0];
+    private int[] driveModels = new int[0];
+    private int drives = 0;
+
+    private int[] counts = new int[0];
+    private long[] mins = new long[0];
+    private long[] maxs = new long[0];
+    private double[] sums = new double[0];
+    private long[] lasts = new long[0];
+    private int[] lastDays = new int[0];
+
+    /**
+     * @param attributes The names of the columns, like smart_9_raw.
+     */
+    public SmartStatistics(List<String> attributes) {
+        this.attributes = attributes;
+        this.width = attributes.size();
+    }
+
+    @Override
+    public void add(RecordCursor cursor) {
+
+        if (cursor.getSchema() != schema) {
+            schema = cursor.getSchema();
+            columns = attributes.stream().mapToInt(schema::indexOf).toArray();
+        }
+
+        int modelId = cursor.getModelId();
+        if (modelId * width >= modelCounts.length) {
+            growModels(modelId + 1);
+        }
+
+        int drive = driveIndex(cursor.getBuffer(), cursor.getIDStart(), cursor.getIDEnd());
+        int day = cursor.getDay();
+
+        if (driveModels[drive] == ModelDictionary.EMPTY) {
+            driveModels[drive] = modelId;
+        }
+
+        for (int a = 0; a < width; a++) {
+
+            if (!cursor.hasValue(columns[a])) {
+                continue;
+            }
+
+            long value = cursor.getLong(columns[a], 0);
+
+            addToModel(modelId * width + a, 1, value, value, value);
+            addToDrive(drive * width + a, 1, value, value, value, value, day);
+        }
+    }
+
+    private void addToModel(int slot, long count, long min, long max, double sum) {
+        if (modelCounts[slot] == 0 || min < modelMins[slot]) {
+            modelMins[slot] = min;
+        }
+        if (modelCounts[slot] == 0 || max > modelMaxs[slot]) {
+            modelMaxs[slot] = max;
+        }
+        modelCounts[slot] += count;
+        modelSums[slot] += sum;
+    }
+
+    private void addToDrive(int slot, int count, long min, long max, double sum, long last, int lastDay) {
+        if (counts[slot] == 0 || min < mins[slot]) {
+            mins[slot] = min;
+        }
+        if (counts[slot] == 0 || max > maxs[slot]) {
+            maxs[slot] = max;
+        }
+        if (counts[slot] == 0 || lastDay >= lastDays[slot]) {
+            lasts[slot] = last;
+            lastDays[slot] = lastDay;
+        }
+        counts[slot] += count;
+        sums[slot] += sum;
+    }
+
+    @Override
+    public void merge(SmartStatistics other) {
+
+        if (other.modelCounts.length > modelCounts.length) {
+            growModels(other.modelCounts.length / width);
+        }
+
+        for (int slot = 0; slot < other.modelCounts.length; slot++) {
+            if (other.modelCounts[slot] > 0) {
+                addToModel(slot, other.modelCounts[slot], other.modelMins[slot], other.modelMaxs[slot],
+                        other.modelSums[slot]);
+            }
+        }
+
+        for (int otherDrive = 0; otherDrive < other.drives; otherDrive++) {
+
+            byte[] serial = other.serials[otherDrive];
+            int drive = driveIndex(ByteBuffer.wrap(serial), 0, serial.length);
+
+            if (driveModels[drive] == ModelDictionary.EMPTY) {
+                driveModels[drive] = other.driveModels[otherDrive];
+            }
+
+            for (int a = 0; a < width; a++) {
+                int otherSlot = otherDrive * width + a;
+                if (other.counts[otherSlot] > 0) {
+                    addToDrive(drive * width + a, other.counts[otherSlot], other.mins[otherSlot],
+                            other.maxs[otherSlot], other.sums[otherSlot], other.lasts[otherSlot],
+                            other.lastDays[otherSlot]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes smart_models.csv and smart_drives.csv, one line per model or drive and attribute reported.
+     */
+    @Override
+    public void write(File directory) throws IOException {
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, "smart_models.csv"))))) {
+
+            out.println("model,attribute,count,min,max,mean");
+
+            int[] models = IntStream.range(1, modelCounts.length / Math.max(1, width))
+                    .boxed()
+                    .sorted(Comparator.comparing(ModelDictionary::getModel))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+
+            for (int model : models) {
+                for (int a = 0; a < width; a++) {
+                    int slot = model * width + a;
+                    if (modelCounts[slot] > 0) {
+                        out.println(ModelDictionary.getModel(model) + "," + attributes.get(a) + ","
+                                + modelCounts[slot] + "," + modelMins[slot] + "," + modelMaxs[slot] + ","
+                                + modelSums[slot] / modelCounts[slot]);
+                    }
+                }
+            }
+        }
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, "smart_drives.csv"))))) {
+
+            out.println("serial_number,model,attribute,count,min,max,mean,last");
+
+            String[] serialStrings = new String[drives];
+            Integer[] order = new Integer[drives];
+            for (int i = 0; i < drives; i++) {
+                serialStrings[i] = new String(serials[i], StandardCharsets.ISO_8859_1);
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(drive -> serialStrings[drive]));
+
+            for (int drive : order) {
+                for (int a = 0; a < width; a++) {
+                    int slot = drive * width + a;
+                    if (counts[slot] > 0) {
+                        out.println(serialStrings[drive] + "," + ModelDictionary.getModel(driveModels[drive]) + ","
+                                + attributes.get(a) + "," + counts[slot] + "," + mins[slot] + "," + maxs[slot] + ","
+                                + sums[slot] / counts[slot] + "," + lasts[slot]);
+                    }
+                }
+            }
+        }
+    }
+
+    public List<String> getAttributes() {
+        return new ArrayList<>(attributes);
+    }
+
+    /**
+     * @return The number of records of the model which reported the attribute.
+     */
+    public long getModelCount(int modelId, int attribute) {
+        int slot = modelId * width + attribute;
+        return slot < modelCounts.length ? modelCounts[slot] : 0;
+    }
+
+    public double getModelMean(int modelId, int attribute) {
+        int slot = modelId * width + attribute;
+        return slot < modelCounts.length && modelCounts[slot] > 0 ? modelSums[slot] / modelCounts[slot] : Double.NaN;
+    }
+
+    public long getModelMax(int modelId, int attribute) {
+        return modelMaxs[modelId * width + attribute];
+    }
+
+    /**
+     * Looks the drive up by a linear search, meant for checking single drives.
+     *
+     * @return The index of the drive, -1 if it wasn't seen.
+     */
+    public int getDrive(String serial) {
+        byte[] bytes = serial.getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < drives; i++) {
+            if (Arrays.equals(serials[i], bytes)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The id of the first model the drive was seen with.
+     */
+    public int getDriveModel(int drive) {
+        return driveModels[drive];
+    }
+
+    public int getDriveCount(int drive, int attribute) {
+        return counts[drive * width + attribute];
+    }
+
+    public long getDriveMin(int drive, int attribute) {
+        return mins[drive * width + attribute];
+    }
+
+    public long getDriveMax(int drive, int attribute) {
+        return maxs[drive * width + attribute];
+    }
+
+    /**
+     * @return The value reported on the last day the drive reported the attribute.
+     */
+    public long getDriveLast(int drive, int attribute) {
+        return lasts[drive * width + attribute];
+    }
+
+    /**
+     * @return The index of the drive with the serial number between start (inclusive) and end (exclusive), a new
+     * one when seen for the first time.
+     */
+    private int driveIndex(ByteBuffer buffer, int start, int end) {
+
+        int hash = ByteStringCache.hash(buffer, start, end);
+        int mask = driveTable.length - 1;
+        int slot = hash & mask;
+
+        while (driveTable[slot] != 0) {
+            int drive = driveTable[slot] - 1;
+            if (serialHashes[drive] == hash && sameBytes(serials[drive], buffer, start, end)) {
+                return drive;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        byte[] serial = new byte[end - start];
+        for (int i = 0; i < serial.length; i++) {
+            serial[i] = buffer.get(start + i);
+        }
+
+        int drive = newDrive(serial, hash);
+        driveTable[slot] = drive + 1;
+
+        if (drives * 2 > driveTable.length) {
+            growDriveTable();
+        }
+
+        return drive;
+    }
+
+    private static boolean sameBytes(byte[] serial, ByteBuffer buffer, int start, int end) {
+        if (serial.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < serial.length; i++) {
+            if (serial[i] != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growDriveTable() {
+        driveTable = new int[driveTable.length * 2];
+        int mask = driveTable.length - 1;
+        for (int drive = 0; drive < drives; drive++) {
+            int slot = serialHashes[drive] & mask;
+            while (driveTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            driveTable[slot] = drive + 1;
+        }
+    }
+
+    private int newDrive(byte[] serial, int hash) {
+
+        if (drives == serials.length) {
+            int capacity = Math.max(1024, drives * 2);
+            serials = Arrays.copyOf(serials, capacity);
+            serialHashes = Arrays.copyOf(serialHashes, capacity);
+            driveModels = Arrays.copyOf(driveModels, capacity);
+            counts = Arrays.copyOf(counts, capacity * width);
+            mins = Arrays.copyOf(mins, capacity * width);
+            maxs = Arrays.copyOf(maxs, capacity * width);
+            sums = Arrays.copyOf(sums, capacity * width);
+            lasts = Arrays.copyOf(lasts, capacity * width);
+            lastDays = Arrays.copyOf(lastDays, capacity * width);
+        }
+
+        serials[drives] = serial;
+        serialHashes[drives] = hash;
+
+        return drives++;
+    }
+
+    private void growModels(int models) {
+        int capacity = Math.max(models, ModelDictionary.size()) * width;
+        modelCounts = Arrays.copyOf(modelCounts, capacity);
+        modelMins = Arrays.copyOf(modelMins, capacity);
+        modelMaxs = Arrays.copyOf(modelMaxs, capacity);
+        modelSums = Arrays.copyOf(modelSums, capacity);
+    }
+
+}
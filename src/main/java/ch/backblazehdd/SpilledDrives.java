@@ -0,0 +1,212 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The drives spilled by a SpillingAggregator, read only. Nothing is kept in memory but the partition last looked up.
+ * <p>
+ * Iterating reduces the partitions in order, several at once in the background as long as their estimated size stays
+ * within the memory budget, and hands out the drives of one partition after the other, sorted by serial number
+ * within a partition. The size is counted by one pass over all partitions, the first time it is asked for.
+ */
+public class SpilledDrives extends AbstractMap<String, HardDrive> {
+
+    private final SpillingAggregator aggregator;
+
+    private int size = -1;
+
+    private int lastPartition = -1;
+    private Map<String, HardDrive> lastDrives;
+
+    SpilledDrives(SpillingAggregator aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    @Override
+    public synchronized HardDrive get(Object key) {
+
+        if (!(key instanceof String)) {
+            return null;
+        }
+
+        int partition = aggregator.partitionOf((String) key);
+
+        if (partition != lastPartition) {
+            lastDrives = reduce(partition);
+            lastPartition = partition;
+        }
+
+        return lastDrives.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public synchronized int size() {
+        if (size < 0) {
+            int drives = 0;
+            for (Iterator<Entry<String, HardDrive>> iterator = entrySet().iterator(); iterator.hasNext(); iterator.next()) {
+                drives++;
+            }
+            size = drives;
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, HardDrive>> entrySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<Entry<String, HardDrive>> iterator() {
+                return new PartitionIterator();
+            }
+
+            @Override
+            public int size() {
+                return SpilledDrives.this.size();
+            }
+        };
+    }
+
+    /**
+     * Writes the drives as a partial aggregate, which is sorted by serial number: every partition is reduced and
+     * written sorted into a file of its own next to the runs, then these files are merged k-way. So no more than one
+     * partition is held at a time.
+     *
+     * @param file The partial aggregate to write.
+     * @throws IOException When a run can not be read or a file can not be written.
+     */
+    public void writePartial(File file) throws IOException {
+
+        List<File> parts = new ArrayList<>();
+
+        try {
+            for (int partition = 0; partition < aggregator.getPartitions(); partition++) {
+
+                Map<String, HardDrive> drives = aggregator.reduce(partition);
+
+                if (!drives.isEmpty()) {
+                    File part = new File(aggregator.getDirectory(), "partial-" + partition + ".bin");
+                    parts.add(part);
+                    PartialAggregate.write(part, drives);
+                }
+            }
+
+            PartialAggregate.merge(parts, file);
+
+        } finally {
+            for (File part : parts) {
+                part.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the run files, the drives can't be read anymore.
+     */
+    public void delete() {
+        aggregator.delete();
+    }
+
+    private Map<String, HardDrive> reduce(int partition) {
+        try {
+            return aggregator.reduce(partition);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reduces the partitions ahead in a pool of its own, which is shut down when all partitions are handed out.
+     */
+    private class PartitionIterator implements Iterator<Entry<String, HardDrive>> {
+
+        private final ForkJoinPool forkJoinPool = new ForkJoinPool(aggregator.getParallelism());
+
+        private final Queue<Future<Map<String, HardDrive>>> pending = new ArrayDeque<>();
+        private final Queue<Long> pendingBytes = new ArrayDeque<>();
+        private long bytesAhead = 0;
+
+        private int nextPartition = 0;
+
+        private Iterator<Entry<String, HardDrive>> current = Collections.emptyIterator();
+
+        private PartitionIterator() {
+            submit();
+        }
+
+        /**
+         * Starts reducing partitions until the estimated heap of the ones pending would exceed the budget, at least
+         * one partition is always pending.
+         */
+        private void submit() {
+            while (nextPartition < aggregator.getPartitions() && pending.size() < aggregator.getParallelism()) {
+
+                long bytes = aggregator.getBytes(nextPartition) / SpillingAggregator.FILE_BYTES_PER_DRIVE
+                        * SpillingAggregator.BYTES_PER_DRIVE;
+
+                if (!pending.isEmpty() && bytesAhead + bytes > aggregator.getMemoryBudget()) {
+                    return;
+                }
+
+                int partition = nextPartition++;
+                pending.add(forkJoinPool.submit(() -> reduce(partition)));
+                pendingBytes.add(bytes);
+                bytesAhead += bytes;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            while (!current.hasNext()) {
+
+                if (pending.isEmpty()) {
+                    forkJoinPool.shutdown();
+                    return false;
+                }
+
+                try {
+                    current = pending.poll().get().entrySet().iterator();
+                } catch (InterruptedException | ExecutionException e) {
+                    forkJoinPool.shutdownNow();
+                    throw new IllegalStateException("Could not reduce a partition", e);
+                }
+
+                bytesAhead -= pendingBytes.poll();
+                submit();
+            }
+
+            return true;
+        }
+
+        @Override
+        public Entry<String, HardDrive> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+
+}
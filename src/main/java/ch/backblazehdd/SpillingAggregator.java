@@ -0,0 +1,290 @@
+package ch.backblazehdd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Aggregation out of core, for more drives than fit in memory: the drives are hash partitioned by serial number into
+ * run files, every partition is reduced on its own later.
+ * <p>
+ * Every worker folds records into its own map of accumulators, like THREAD_LOCAL. When the map holds its share of
+ * the memory budget, its drives are appended to one run file per partition and per worker, in the format of the
+ * checkpoint, and the map starts over. A partition is reduced by reading its runs of all workers into one sorted map,
+ * see SpilledDrives. So the heap is bounded by the budget and the side aggregates, not by the number of drives.
+ */
+public class SpillingAggregator {
+
+    /**
+     * Estimated heap of a drive in the map of a worker: the entry, the serial number and the accumulator.
+     */
+    static final int BYTES_PER_DRIVE = 160;
+
+    /**
+     * Estimated bytes of a drive in a run file: the serial number, min, max and model.
+     */
+    static final int FILE_BYTES_PER_DRIVE = 16;
+
+    private final File directory;
+    private final int partitions;
+    private final long memoryBudget;
+    private final int parallelism;
+
+    private final AtomicInteger workerIds = new AtomicInteger();
+    private final List<Worker> workers = new ArrayList<>();
+
+    /**
+     * @param options The options, for the memory budget, the partitions, the parallelism and the spill directory.
+     * @throws IOException When the directory for the runs can not be created.
+     */
+    public SpillingAggregator(Options options) throws IOException {
+        this.partitions = options.getPartitions();
+        this.memoryBudget = options.getMemoryBudget();
+        this.parallelism = options.getParallelism();
+
+        File parent = options.getSpillDirectory();
+        this.directory = (parent == null ? Files.createTempDirectory("spill") : Files.createTempDirectory(parent.toPath(), "spill")).toFile();
+        this.directory.deleteOnExit();
+    }
+
+    /**
+     * @return A new worker, with its own run files.
+     */
+    public synchronized Worker newWorker() {
+        Worker worker = new Worker(workerIds.getAndIncrement(),
+                Math.max(1, memoryBudget / parallelism / BYTES_PER_DRIVE));
+        workers.add(worker);
+        return worker;
+    }
+
+    /**
+     * Spills the drives left in the workers and closes their run files.
+     *
+     * @return The drives of all runs, reduced partition by partition when read.
+     * @throws IOException When a run file can not be written.
+     */
+    public SpilledDrives finish() throws IOException {
+        for (Worker worker : workers) {
+            worker.close();
+        }
+        return new SpilledDrives(this);
+    }
+
+    /**
+     * @return How many times the workers wrote their maps out, including the last time in finish.
+     */
+    public int getSpills() {
+        return workers.stream().mapToInt(Worker::getSpills).sum();
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return The partition the drive is in.
+     */
+    public int partitionOf(String serial) {
+        // Spread the hash, serial numbers of one model share long prefixes
+        return Math.floorMod(serial.hashCode() * 0x9E3779B9, partitions);
+    }
+
+    /**
+     * @return The bytes in the run files of the partition, the size of the partition once reduced is about the
+     * same number of drives as there are FILE_BYTES_PER_DRIVE in it.
+     */
+    public long getBytes(int partition) {
+        long bytes = 0;
+        for (File file : runs(partition)) {
+            bytes += file.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads all runs of the partition and merges them like the merging constructor of HardDrive.
+     *
+     * @param partition The partition to reduce.
+     * @return The drives of the partition, by serial number.
+     * @throws IOException When a run file is not readable.
+     */
+    public Map<String, HardDrive> reduce(int partition) throws IOException {
+
+        Map<String, HardDrive> drives = new TreeMap<>();
+
+        for (File file : runs(partition)) {
+
+            try (BufferedInputStream buffered = new BufferedInputStream(new FileInputStream(file));
+                 DataInputStream in = new DataInputStream(buffered)) {
+
+                while (true) {
+                    buffered.mark(1);
+                    if (buffered.read() < 0) {
+                        break;
+                    }
+                    buffered.reset();
+
+                    for (Map.Entry<String, HardDrive> entry : Checkpoint.readDrives(in).entrySet()) {
+                        drives.merge(entry.getKey(), entry.getValue(), HardDrive::new);
+                    }
+                }
+            }
+        }
+
+        return drives;
+    }
+
+    /**
+     * Deletes all run files and the directory.
+     */
+    public void delete() {
+        for (int partition = 0; partition < partitions; partition++) {
+            for (File file : runs(partition)) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private List<File> runs(int partition) {
+        List<File> files = new ArrayList<>();
+        for (int worker = 0; worker < workerIds.get(); worker++) {
+            File file = runFile(partition, worker);
+            if (file.exists()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private File runFile(int partition, int worker) {
+        return new File(directory, "partition-" + partition + "-worker-" + worker + ".bin");
+    }
+
+    /**
+     * The state of a single worker: its accumulators and its run files. Not thread safe.
+     */
+    public class Worker {
+
+        private final int id;
+        private final long maxDrives;
+
+        private Map<String, DriveAccumulator> drives = new HashMap<>();
+
+        private final DataOutputStream[] runs = new DataOutputStream[partitions];
+
+        private int spills = 0;
+
+        private Worker(int id, long maxDrives) {
+            this.id = id;
+            this.maxDrives = maxDrives;
+        }
+
+        /**
+         * Folds the current record of the cursor in, spilling all drives once the map is full.
+         *
+         * @throws UncheckedIOException When the runs can not be written.
+         */
+        public void add(RecordCursor cursor) {
+
+            drives.computeIfAbsent(cursor.getID(), serial -> new DriveAccumulator())
+                    .add(cursor.getDay(), cursor.getModelId(), cursor.isDead());
+
+            if (drives.size() >= maxDrives) {
+                try {
+                    spill();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Appends the drives of the map to the runs of their partitions and clears the map. The entries are sorted
+         * by partition in a list of references, then written and dropped partition by partition from the end, so
+         * the heap never holds more than the map and that list.
+         */
+        private void spill() throws IOException {
+
+            if (drives.isEmpty()) {
+                return;
+            }
+
+            List<Map.Entry<String, DriveAccumulator>> entries = new ArrayList<>(drives.entrySet());
+            drives = new HashMap<>();
+
+            entries.sort(Comparator.comparingInt(entry -> partitionOf(entry.getKey())));
+
+            int end = entries.size();
+
+            while (end > 0) {
+
+                int partition = partitionOf(entries.get(end - 1).getKey());
+
+                int start = end - 1;
+                while (start > 0 && partitionOf(entries.get(start - 1).getKey()) == partition) {
+                    start--;
+                }
+
+                if (runs[partition] == null) {
+                    File file = runFile(partition, id);
+                    file.deleteOnExit();
+                    runs[partition] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 14));
+                }
+
+                List<Map.Entry<String, DriveAccumulator>> bucket = entries.subList(start, end);
+                Checkpoint.writeDrives(runs[partition], bucket, DriveAccumulator::toHardDrive);
+
+                // Removing from the end doesn't move the entries before
+                bucket.clear();
+                end = start;
+            }
+
+            spills++;
+        }
+
+        private void close() throws IOException {
+            spill();
+            for (DataOutputStream run : runs) {
+                if (run != null) {
+                    run.close();
+                }
+            }
+        }
+
+        /**
+         * @return How many times the map was written out.
+         */
+        public int getSpills() {
+            return spills;
+        }
+
+    }
+
+}
@@ -0,0 +1,30 @@
+package ch.backblazehdd;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for every split read, only emitted when instrumentation is on.
+ */
+@Name("ch.backblazehdd.SplitRead")
+@Label("Split Read")
+@Category("Backblaze HDD")
+@Description("A range of a stats file or a file within an archive, read and aggregated")
+public class SplitReadEvent extends jdk.jfr.Event {
+
+    @Label("Split")
+    String split;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long nanos;
+
+}
@@ -0,0 +1,26 @@
+package ch.backblazehdd;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a stage of a run, like splitting the files, merging the workers or writing the output.
+ * Only emitted when instrumentation is on.
+ */
+@Name("ch.backblazehdd.Stage")
+@Label("Stage")
+@Category("Backblaze HDD")
+@Description("A stage of aggregating the stats files")
+public class StageEvent extends jdk.jfr.Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long nanos;
+
+}
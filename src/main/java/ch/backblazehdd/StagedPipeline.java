@@ -0,0 +1,341 @@
+package ch.backblazehdd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Aggregates the ranges in three stages, each with its own threads, so reading from slow disks overlaps with parsing:
+ * <p>
+ * - Readers load the splits into memory and queue them for the parsers
+ * - Parsers split the records into batches by the hash of the serial number, one batch per shard
+ * - Aggregators own a shard of the serial numbers each and fold the batches into their accumulators
+ * <p>
+ * All queues are bounded, a stage waits when the next one can not keep up. As a serial number always goes to the
+ * same shard, the maps of the aggregators are disjoint and don't have to be merged.
+ * <p>
+ * The first failure of any thread is kept. A stage waiting on a queue gives up once there is one, as the stage on
+ * the other side may be gone, so no thread is left blocked and run throws the failure.
+ */
+public class StagedPipeline {
+
+    /**
+     * Ranges are held in memory while queued, so they are kept smaller than in the other modes.
+     */
+    public static final long MAX_RANGE_SIZE = 8 << 20;
+
+    private static final int BATCH_SIZE = 4096;
+
+    private static final long WAIT_TIMEOUT_MILLIS = 100;
+
+    private static final RecordCursor END_OF_CURSORS = new RecordCursor(ByteBuffer.allocate(0), 0, 0);
+    private static final RecordBatch END_OF_BATCHES = new RecordBatch(0);
+
+    private final int readers;
+    private final int parsers;
+    private final int shards;
+    private final int queueCapacity;
+
+    private final Instrumentation instrumentation;
+
+    private final Supplier<SideAggregates> sideAggregateFactory;
+
+    private final RecordFilter recordFilter;
+
+    private SideAggregates sideAggregates;
+
+    public StagedPipeline(Options options) {
+        this(options, Instrumentation.OFF);
+    }
+
+    public StagedPipeline(Options options, Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+        this.sideAggregateFactory = SideAggregates.factory(options);
+        this.sideAggregates = sideAggregateFactory.get();
+        this.readers = options.getReaders();
+        this.parsers = options.getParsers();
+        this.shards = options.getShards();
+        this.queueCapacity = options.getQueueCapacity();
+        this.recordFilter = RecordFilter.create(options);
+    }
+
+    /**
+     * Runs all stages until every range is aggregated.
+     *
+     * @param ranges The splits to read, largest first.
+     * @return The map of all hard drives, by their serial number.
+     */
+    public ConcurrentMap<String, HardDrive> run(List<InputSplit> ranges) throws InterruptedException, ExecutionException {
+
+        Queue<InputSplit> rangeQueue = new ConcurrentLinkedQueue<>(ranges);
+
+        BlockingQueue<RecordCursor> cursors = new ArrayBlockingQueue<>(queueCapacity);
+
+        List<BlockingQueue<RecordBatch>> batchQueues = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            batchQueues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+
+        AtomicInteger readersLeft = new AtomicInteger(readers);
+        AtomicInteger parsersLeft = new AtomicInteger(parsers);
+
+        List<Future<SideAggregates>> parserSideAggregates = new ArrayList<>(parsers);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(readers + parsers + shards);
+
+        try {
+            List<Future<?>> stages = new ArrayList<>();
+
+            for (int i = 0; i < readers; i++) {
+                stages.add(executor.submit(recording(failure, () -> {
+                    try {
+                        read(rangeQueue, cursors, failure);
+                    } finally {
+                        if (readersLeft.decrementAndGet() == 0) {
+                            for (int j = 0; j < parsers; j++) {
+                                put(cursors, END_OF_CURSORS, failure);
+                            }
+                        }
+                    }
+                    return null;
+                })));
+            }
+
+            for (int i = 0; i < parsers; i++) {
+                parserSideAggregates.add(executor.submit(recording(failure, () -> {
+                    try {
+                        return parse(cursors, batchQueues, failure);
+                    } catch (Throwable e) {
+                        // Nobody may be left to take the cursors queued, they only hold memory now
+                        failure.compareAndSet(null, e);
+                        cursors.clear();
+                        throw e;
+                    } finally {
+                        if (parsersLeft.decrementAndGet() == 0) {
+                            for (BlockingQueue<RecordBatch> batchQueue : batchQueues) {
+                                put(batchQueue, END_OF_BATCHES, failure);
+                            }
+                        }
+                    }
+                })));
+            }
+
+            List<Future<Map<String, DriveAccumulator>>> aggregators = new ArrayList<>(shards);
+
+            for (BlockingQueue<RecordBatch> batchQueue : batchQueues) {
+                aggregators.add(executor.submit(recording(failure, () -> aggregate(batchQueue, failure))));
+            }
+
+            // In the order of the stages, every thread ends by now even if another one failed
+            awaitAll(stages, failure);
+            awaitAll(parserSideAggregates, failure);
+            awaitAll(aggregators, failure);
+
+            ConcurrentMap<String, HardDrive> map = new ConcurrentSkipListMap<>();
+
+            for (Future<Map<String, DriveAccumulator>> aggregator : aggregators) {
+                for (Map.Entry<String, DriveAccumulator> entry : aggregator.get().entrySet()) {
+                    map.put(entry.getKey(), entry.getValue().toHardDrive());
+                }
+            }
+
+            sideAggregates = parserSideAggregates.get(0).get();
+            for (Future<SideAggregates> side : parserSideAggregates.subList(1, parsers)) {
+                sideAggregates.merge(side.get());
+            }
+
+            return map;
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the threads, throwing the first failure of the run, which may have been in another stage.
+     */
+    private static void awaitAll(List<? extends Future<?>> futures, AtomicReference<Throwable> failure)
+            throws InterruptedException, ExecutionException {
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new ExecutionException(failure.get() != null ? failure.get() : e.getCause());
+            }
+        }
+
+        if (failure.get() != null) {
+            throw new ExecutionException(failure.get());
+        }
+    }
+
+    /**
+     * @return The task, keeping its exception as the failure of the run unless there was one before.
+     */
+    private static <T> Callable<T> recording(AtomicReference<Throwable> failure, Callable<T> task) {
+        return () -> {
+            try {
+                return task.call();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Waits for room in the queue like put, but gives up when another thread failed.
+     *
+     * @throws CancellationException When another thread failed.
+     */
+    private static <T> void put(BlockingQueue<T> queue, T element, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        while (!queue.offer(element, WAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) {
+                throw new CancellationException("Another stage failed");
+            }
+        }
+    }
+
+    /**
+     * Waits for an element like take, but gives up when another thread failed.
+     *
+     * @throws CancellationException When another thread failed.
+     */
+    private static <T> T take(BlockingQueue<T> queue, AtomicReference<Throwable> failure) throws InterruptedException {
+        T element = queue.poll(WAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        while (element == null) {
+            if (failure.get() != null) {
+                throw new CancellationException("Another stage failed");
+            }
+            element = queue.poll(WAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return element;
+    }
+
+    /**
+     * @return The side aggregates of all records, after run.
+     */
+    public SideAggregates getSideAggregates() {
+        return sideAggregates;
+    }
+
+    private void read(Queue<InputSplit> rangeQueue, BlockingQueue<RecordCursor> cursors,
+                      AtomicReference<Throwable> failure) throws InterruptedException {
+
+        InputSplit range = rangeQueue.poll();
+
+        while (range != null) {
+            long start = instrumentation.start();
+            long[] opened = {start};
+            try {
+                range.read(cursor -> {
+                    instrumentation.stage("open", opened[0]);
+                    cursor.setFilter(recordFilter);
+                    instrumentation.load(cursor);
+                    long queueing = instrumentation.start();
+                    put(cursors, cursor, failure);
+                    instrumentation.stage("queue", queueing);
+                    opened[0] = instrumentation.start();
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            instrumentation.splitRead(range, start);
+            range = rangeQueue.poll();
+        }
+    }
+
+    /**
+     * @return The side aggregates of the records parsed.
+     */
+    private SideAggregates parse(BlockingQueue<RecordCursor> cursors, List<BlockingQueue<RecordBatch>> batchQueues,
+                                 AtomicReference<Throwable> failure) throws InterruptedException {
+
+        SideAggregates side = sideAggregateFactory.get();
+        boolean collectSide = !side.isEmpty();
+
+        RecordBatch[] batches = new RecordBatch[shards];
+        for (int i = 0; i < shards; i++) {
+            batches[i] = new RecordBatch(BATCH_SIZE);
+        }
+
+        RecordCursor cursor = take(cursors, failure);
+
+        while (cursor != END_OF_CURSORS) {
+
+            long start = instrumentation.start();
+
+            while (cursor.next()) {
+
+                int shard = Math.floorMod(
+                        ByteStringCache.hash(cursor.getBuffer(), cursor.getIDStart(), cursor.getIDEnd()), shards);
+
+                batches[shard].add(cursor.getBuffer(), cursor.getIDStart(), cursor.getIDEnd(),
+                        cursor.getDay(), cursor.getModelId(), cursor.isDead());
+
+                if (batches[shard].isFull()) {
+                    put(batchQueues.get(shard), batches[shard], failure);
+                    batches[shard] = new RecordBatch(BATCH_SIZE);
+                }
+
+                if (collectSide) {
+                    side.add(cursor);
+                }
+            }
+
+            instrumentation.records(cursor);
+            instrumentation.stage("parse", start);
+
+            cursor = take(cursors, failure);
+        }
+
+        for (int i = 0; i < shards; i++) {
+            if (batches[i].size() > 0) {
+                put(batchQueues.get(i), batches[i], failure);
+            }
+        }
+
+        return side;
+    }
+
+    private Map<String, DriveAccumulator> aggregate(BlockingQueue<RecordBatch> batchQueue,
+                                                    AtomicReference<Throwable> failure) throws InterruptedException {
+
+        Map<String, DriveAccumulator> map = new HashMap<>();
+
+        RecordBatch batch = take(batchQueue, failure);
+
+        while (batch != END_OF_BATCHES) {
+            long start = instrumentation.start();
+            batch.foldInto(map);
+            instrumentation.stage("fold", start);
+            batch = take(batchQueue, failure);
+        }
+
+        return map;
+    }
+
+}
@@ -0,0 +1,258 @@
+package ch.backblazehdd;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Kaplan-Meier estimates of the drives, for all drives, per model and per manufacturer, as survfit in main.R
+ * computes them from data.csv.
+ * <p>
+ * For every day a drive of the group died or was last seen, the table has the drives at risk, the deaths, the drives
+ * censored, the survival and its 95% confidence interval. The interval is the one survfit uses by default: Greenwood's
+ * variance on the log of the survival. Models with fewer than 500 drives are left out, like main.R does, also of the
+ * manufacturers and all drives.
+ */
+public class SurvivalTable {
+
+    public static final int MIN_DRIVES = 500;
+
+    private static final double Z = 1.959963984540054;
+
+    private final List<Row> rows;
+
+    /**
+     * A day of a group on which drives died or were censored.
+     */
+    public static class Row {
+
+        private final String groupType;
+        private final String group;
+        private final long time;
+        private final int atRisk;
+        private final int events;
+        private final int censored;
+        private final double survival;
+        private final double standardError;
+
+        Row(String groupType, String group, long time, int atRisk, int events, int censored,
+            double survival, double standardError) {
+            this.groupType = groupType;
+            this.group = group;
+            this.time = time;
+            this.atRisk = atRisk;
+            this.events = events;
+            this.censored = censored;
+            this.survival = survival;
+            this.standardError = standardError;
+        }
+
+        public String getGroupType() {
+            return groupType;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getAtRisk() {
+            return atRisk;
+        }
+
+        public int getEvents() {
+            return events;
+        }
+
+        public int getCensored() {
+            return censored;
+        }
+
+        public double getSurvival() {
+            return survival;
+        }
+
+        /**
+         * @return The standard error of the log of the survival, infinite once all drives of the group died.
+         */
+        public double getStandardError() {
+            return standardError;
+        }
+
+        public double getLower() {
+            return survival * Math.exp(-Z * standardError);
+        }
+
+        public double getUpper() {
+            return Math.min(1, survival * Math.exp(Z * standardError));
+        }
+
+        private String getCSVLine() {
+            String line = groupType + "," + group + "," + time + "," + atRisk + "," + events + "," + censored + ","
+                    + survival;
+            if (Double.isFinite(standardError) && survival > 0) {
+                return line + "," + standardError + "," + getLower() + "," + getUpper();
+            }
+            return line + ",NA,NA,NA";
+        }
+    }
+
+    private SurvivalTable(List<Row> rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Computes the estimates of all groups, in parallel.
+     *
+     * @param drives      The aggregated drives.
+     * @param parallelism The number of groups computed at once.
+     * @param minDrives   Models with fewer drives are left out.
+     * @return The table, sorted by group type, group and time.
+     */
+    public static SurvivalTable compute(Map<String, HardDrive> drives, int parallelism, int minDrives) {
+
+        // The groups are the ones of data.csv, the model and manufacturer after the mapping
+        Map<String, List<HardDrive>> models = drives.values().stream()
+                .collect(Collectors.groupingBy(drive -> ModelMapper.getModelAndManufacturerFromModel(drive.getModel()).model));
+
+        Map<String, List<HardDrive>> groups = new TreeMap<>();
+
+        for (Map.Entry<String, List<HardDrive>> model : models.entrySet()) {
+
+            if (model.getValue().size() < minDrives) {
+                continue;
+            }
+
+            String manufacturer = ModelMapper.getModelAndManufacturerFromModel(model.getValue().get(0).getModel()).manufacturer;
+
+            groups.put("model," + model.getKey(), model.getValue());
+            groups.computeIfAbsent("all,All Drives", key -> new ArrayList<>()).addAll(model.getValue());
+            if (!manufacturer.isEmpty()) {
+                groups.computeIfAbsent("manufacturer," + manufacturer, key -> new ArrayList<>()).addAll(model.getValue());
+            }
+        }
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+
+        try {
+            List<Row> rows = forkJoinPool.submit(() -> groups.entrySet().parallelStream()
+                    .flatMap(group -> estimate(group.getKey(), group.getValue()).stream())
+                    .collect(Collectors.toList())).get();
+
+            return new SurvivalTable(rows);
+
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            forkJoinPool.shutdown();
+        }
+
+        return new SurvivalTable(new ArrayList<>());
+    }
+
+    /**
+     * @param key    The group type and group, separated by a comma.
+     * @param drives The drives of the group.
+     * @return The rows of the group, by time.
+     */
+    static List<Row> estimate(String key, List<HardDrive> drives) {
+
+        String groupType = key.substring(0, key.indexOf(','));
+        String group = key.substring(key.indexOf(',') + 1);
+
+        // Life and death in one long, so one primitive sort orders by life
+        long[] lives = new long[drives.size()];
+        for (int i = 0; i < lives.length; i++) {
+            HardDrive drive = drives.get(i);
+            lives[i] = drive.calculateLife() << 1 | (drive.isDead() ? 1 : 0);
+        }
+        Arrays.sort(lives);
+
+        List<Row> rows = new ArrayList<>();
+
+        int atRisk = lives.length;
+        double survival = 1;
+        double greenwood = 0;
+
+        int i = 0;
+        while (i < lives.length) {
+
+            long time = lives[i] >> 1;
+            int events = 0;
+            int censored = 0;
+
+            for (; i < lives.length && lives[i] >> 1 == time; i++) {
+                if ((lives[i] & 1) != 0) {
+                    events++;
+                } else {
+                    censored++;
+                }
+            }
+
+            if (events > 0) {
+                survival *= 1 - (double) events / atRisk;
+                greenwood = events == atRisk
+                        ? Double.POSITIVE_INFINITY
+                        : greenwood + (double) events / ((double) atRisk * (atRisk - events));
+            }
+
+            rows.add(new Row(groupType, group, time, atRisk, events, censored, survival, Math.sqrt(greenwood)));
+
+            atRisk -= events + censored;
+        }
+
+        return rows;
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return The rows of the group, like a model or manufacturer name, or "All Drives".
+     */
+    public List<Row> getRows(String group) {
+        return rows.stream().filter(row -> row.getGroup().equals(group)).collect(Collectors.toList());
+    }
+
+    /**
+     * @return The number of drives of every group, the drives at risk at its first time.
+     */
+    public Map<String, Integer> getGroupSizes() {
+        Map<String, Integer> sizes = new HashMap<>();
+        for (Row row : rows) {
+            sizes.putIfAbsent(row.getGroup(), row.getAtRisk());
+        }
+        return sizes;
+    }
+
+    /**
+     * Writes survival.csv into the directory.
+     */
+    public void write(File directory) throws IOException {
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, "survival.csv"))))) {
+
+            out.println("group_type,group,time,n_risk,n_event,n_censor,surv,std_err,lower,upper");
+
+            for (Row row : rows) {
+                out.println(row.getCSVLine());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,492 @@
+package ch.backblazehdd;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a synthetic set of daily stats files in the format of Backblaze, so benchmarks and tests can run without
+ * the real download and at any scale. Everything is derived from the seed, the same options always give the same
+ * files.
+ * <p>
+ * A fleet of drives is followed day by day: every day a drive may fail (reported with failure 1 on its last day)
+ * or be retired silently, either way a new drive takes its place. Next to the files in data/, the expected aggregate
+ * per drive is written to expected.csv, a summary to expected.properties and the models to mapping.csv.
+ */
+public class SyntheticDataGenerator {
+
+    static final String[][] MODELS = {
+            {"ST4000DM000", "Seagate 4TB ST4000DM000", "Seagate", "4000787030016", "Z"},
+            {"ST12000NM0007", "Seagate 12TB ST12000NM0007", "Seagate", "12000138625024", "ZJV"},
+            {"ST8000NM0055", "Seagate 8TB ST8000NM0055", "Seagate", "8001563222016", "ZA1"},
+            {"HGST HMS5C4040ALE640", "HGST 4TB HMS5C4040ALE640", "HGST", "4000787030016", "PL1331LAG"},
+            {"HGST HUH721212ALN604", "HGST 12TB HUH721212ALN604", "HGST", "12000138625024", "8HG"},
+            {"Hitachi HDS5C3030ALA630", "Hitachi 3TB HDS5C3030ALA630", "Hitachi", "3000592982016", "MJ0351YNG"},
+            {"WDC WD30EFRX", "WDC 3TB WD30EFRX", "WDC", "3000592982016", "WD-WMC4N"},
+            {"TOSHIBA MG07ACA14TA", "Toshiba 14TB MG07ACA14TA", "Toshiba", "14000519643136", "Y0"},
+    };
+
+    private static final int[] SMART_ATTRIBUTES = {1, 2, 3, 4, 5, 7, 8, 9, 10, 11, 12, 13, 15, 22, 183, 184, 187,
+            188, 189, 190, 191, 192, 193, 194, 195, 196, 197, 198, 199, 200, 201, 220, 222, 223, 224, 225, 226, 240,
+            241, 242, 250, 251, 252, 254, 255};
+
+    private long seed = 42;
+    private int fleetSize = 10000;
+    private int days = 90;
+    private LocalDate startDate = LocalDate.of(2013, 4, 10);
+    private double annualFailureRate = 0.02;
+    private double annualChurnRate = 0.05;
+    private double[] modelWeights = {4, 2, 2, 2, 1, 1, 1, 1};
+    private int smartAttributes = 21;
+    private boolean zip = false;
+
+    /**
+     * Parses options of the form --name=value: seed, fleet, days, start, failure-rate, churn-rate, models (weights
+     * of the built in models, comma separated), smart (number of SMART attributes) and zip (true for quarterly ZIP
+     * archives).
+     *
+     * @param args The command line arguments.
+     * @return The generator.
+     */
+    public static SyntheticDataGenerator parse(String[] args) {
+
+        SyntheticDataGenerator generator = new SyntheticDataGenerator();
+
+        for (String arg : args) {
+
+            int separator = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+
+            String value = arg.substring(separator + 1);
+
+            switch (arg.substring(2, separator)) {
+                case "seed":
+                    generator.setSeed(Long.parseLong(value));
+                    break;
+                case "fleet":
+                    generator.setFleetSize(Integer.parseInt(value));
+                    break;
+                case "days":
+                    generator.setDays(Integer.parseInt(value));
+                    break;
+                case "start":
+                    generator.setStartDate(LocalDate.parse(value));
+                    break;
+                case "failure-rate":
+                    generator.setAnnualFailureRate(Double.parseDouble(value));
+                    break;
+                case "churn-rate":
+                    generator.setAnnualChurnRate(Double.parseDouble(value));
+                    break;
+                case "models":
+                    generator.setModelWeights(Arrays.stream(value.split(",")).mapToDouble(Double::parseDouble).toArray());
+                    break;
+                case "smart":
+                    generator.setSmartAttributes(Integer.parseInt(value));
+                    break;
+                case "zip":
+                    generator.setZip(Boolean.parseBoolean(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        return generator;
+    }
+
+    /**
+     * Writes the data set, usage: SyntheticDataGenerator directory [--name=value ...]
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length == 0) {
+            System.err.println("Usage: SyntheticDataGenerator <directory> [--seed=42] [--fleet=10000] [--days=90] "
+                    + "[--start=2013-04-10] [--failure-rate=0.02] [--churn-rate=0.05] [--models=4,2,2,2,1,1,1,1] "
+                    + "[--smart=21] [--zip=false]");
+            System.exit(1);
+        }
+
+        Properties summary = parse(Arrays.copyOfRange(args, 1, args.length)).generate(new File(args[0]));
+
+        summary.list(System.out);
+    }
+
+    /**
+     * Writes data/, expected.csv, expected.properties and mapping.csv into the directory.
+     *
+     * @param directory The directory to write to, created if missing.
+     * @return The summary, also written to expected.properties.
+     * @throws IOException When a file can not be written.
+     */
+    public Properties generate(File directory) throws IOException {
+
+        if (modelWeights.length > MODELS.length) {
+            throw new IllegalArgumentException("At most " + MODELS.length + " model weights");
+        }
+
+        File dataDirectory = new File(directory, "data");
+        if (!dataDirectory.isDirectory() && !dataDirectory.mkdirs()) {
+            throw new IOException("Can not create " + dataDirectory);
+        }
+
+        Random random = new Random(seed);
+
+        double dailyFailure = annualFailureRate / 365;
+        double dailyChurn = annualChurnRate / 365;
+
+        double totalWeight = Arrays.stream(modelWeights).sum();
+
+        Fleet fleet = new Fleet(fleetSize);
+        for (int i = 0; i < fleetSize; i++) {
+            fleet.install(i, pickModel(random, totalWeight), random.nextInt(5 * 365));
+        }
+
+        List<String> expected = new ArrayList<>();
+        long lines = 0;
+        long failures = 0;
+        String deadSerial = "";
+
+        String header = header();
+
+        ZipOutputStream archive = null;
+        String archiveName = null;
+
+        try {
+            for (int day = 0; day < days; day++) {
+
+                LocalDate date = startDate.plusDays(day);
+                String isoDate = date.toString();
+
+                Writer writer;
+
+                if (zip) {
+                    String quarter = "data_Q" + ((date.getMonthValue() - 1) / 3 + 1) + "_" + date.getYear();
+                    if (!quarter.equals(archiveName)) {
+                        if (archive != null) {
+                            archive.close();
+                        }
+                        archiveName = quarter;
+                        archive = new ZipOutputStream(new FileOutputStream(new File(dataDirectory, quarter + ".zip")));
+                    }
+                    archive.putNextEntry(new ZipEntry(quarter + "/" + isoDate + ".csv"));
+                    writer = new OutputStreamWriter(new NonClosingOutputStream(archive), StandardCharsets.ISO_8859_1);
+                } else {
+                    writer = new FileWriter(new File(dataDirectory, isoDate + ".csv"), StandardCharsets.ISO_8859_1);
+                }
+
+                try (PrintWriter out = new PrintWriter(new BufferedWriter(writer, 1 << 16))) {
+
+                    out.print(header);
+
+                    StringBuilder line = new StringBuilder(512);
+
+                    for (int i = 0; i < fleetSize; i++) {
+
+                        boolean failed = random.nextDouble() < dailyFailure;
+                        boolean retired = !failed && random.nextDouble() < dailyChurn;
+
+                        line.setLength(0);
+                        line.append(isoDate).append(',').append(fleet.serials[i]).append(',')
+                                .append(MODELS[fleet.models[i]][0]).append(',').append(MODELS[fleet.models[i]][3])
+                                .append(',').append(failed ? 1 : 0);
+                        appendSmart(line, random, fleet, i);
+                        line.append('\n');
+                        out.print(line);
+
+                        lines++;
+
+                        if (fleet.firstSeen[i] < 0) {
+                            fleet.firstSeen[i] = day;
+                        }
+
+                        if (failed) {
+                            failures++;
+                            deadSerial = fleet.serials[i];
+                        }
+
+                        if (failed || retired) {
+                            expected.add(fleet.expectedLine(i, day, failed));
+                            fleet.install(i, pickModel(random, totalWeight), 0);
+                        } else {
+                            fleet.age(i, random);
+                        }
+                    }
+                }
+
+                if (zip) {
+                    archive.closeEntry();
+                }
+            }
+        } finally {
+            if (archive != null) {
+                archive.close();
+            }
+        }
+
+        for (int i = 0; i < fleetSize; i++) {
+            // Drives replaced on the last day never made it into a file
+            if (fleet.firstSeen[i] >= 0) {
+                expected.add(fleet.expectedLine(i, days - 1, false));
+            }
+        }
+
+        expected.sort(null);
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, "expected.csv"))))) {
+            out.println("serial_number,first_seen,last_seen,model,failure");
+            for (String line : expected) {
+                out.println(line);
+            }
+        }
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, "mapping.csv"))))) {
+            for (String[] model : MODELS) {
+                out.println(model[0] + "," + model[1] + "," + model[2]);
+            }
+        }
+
+        Properties summary = new Properties();
+        summary.setProperty("seed", Long.toString(seed));
+        summary.setProperty("days", Integer.toString(days));
+        summary.setProperty("lines", Long.toString(lines));
+        summary.setProperty("drives", Integer.toString(expected.size()));
+        summary.setProperty("failures", Long.toString(failures));
+        summary.setProperty("deadSerial", deadSerial);
+
+        try (Writer out = new FileWriter(new File(directory, "expected.properties"))) {
+            summary.store(out, "Synthetic Backblaze data set");
+        }
+
+        return summary;
+    }
+
+    /**
+     * Reads the expected.csv written by generate.
+     *
+     * @param directory The directory generated.
+     * @return The expected hard drives, by serial number.
+     * @throws IOException When the file is not readable.
+     */
+    public static Map<String, HardDrive> readExpected(File directory) throws IOException {
+
+        Map<String, HardDrive> expected = new TreeMap<>();
+
+        List<String> lines = Files.readAllLines(new File(directory, "expected.csv").toPath());
+
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            expected.put(fields[0], new HardDrive(fields[1], fields[2], fields[3], fields[4].equals("1")));
+        }
+
+        return expected;
+    }
+
+    private String header() {
+        StringBuilder header = new StringBuilder("date,serial_number,model,capacity_bytes,failure");
+        for (int i = 0; i < smartAttributes; i++) {
+            int attribute = SMART_ATTRIBUTES[i % SMART_ATTRIBUTES.length] + 1000 * (i / SMART_ATTRIBUTES.length);
+            header.append(",smart_").append(attribute).append("_normalized,smart_").append(attribute).append("_raw");
+        }
+        return header.append('\n').toString();
+    }
+
+    /**
+     * Appends the SMART columns: power on hours, temperature and slowly growing error counts, most other
+     * attributes empty as in the real files.
+     */
+    private void appendSmart(StringBuilder line, Random random, Fleet fleet, int drive) {
+        for (int i = 0; i < smartAttributes; i++) {
+            switch (SMART_ATTRIBUTES[i % SMART_ATTRIBUTES.length]) {
+                case 9:
+                    line.append(',').append(100 - fleet.ages[drive] / 365).append(',').append(fleet.ages[drive] * 24);
+                    break;
+                case 194:
+                    int temperature = 20 + random.nextInt(25);
+                    line.append(',').append(temperature).append(',').append(temperature);
+                    break;
+                case 5:
+                case 187:
+                case 197:
+                    line.append(',').append(100).append(',').append(fleet.errors[drive]);
+                    break;
+                case 1:
+                case 3:
+                case 4:
+                case 7:
+                case 12:
+                case 192:
+                case 193:
+                    line.append(",100,").append(fleet.ages[drive] % 1000);
+                    break;
+                default:
+                    line.append(",,");
+            }
+        }
+    }
+
+    private int pickModel(Random random, double totalWeight) {
+        double pick = random.nextDouble() * totalWeight;
+        for (int i = 0; i < modelWeights.length; i++) {
+            pick -= modelWeights[i];
+            if (pick < 0) {
+                return i;
+            }
+        }
+        return modelWeights.length - 1;
+    }
+
+    /**
+     * The drives currently running, one slot per bay.
+     */
+    private class Fleet {
+
+        private final String[] serials;
+        private final int[] models;
+        private final int[] ages;
+        private final int[] errors;
+        private final int[] firstSeen;
+
+        private int installed = 0;
+
+        private Fleet(int size) {
+            serials = new String[size];
+            models = new int[size];
+            ages = new int[size];
+            errors = new int[size];
+            firstSeen = new int[size];
+        }
+
+        /**
+         * @return The line of expected.csv for the drive in the bay, last seen on the day.
+         */
+        private String expectedLine(int bay, int lastDay, boolean failed) {
+            return serials[bay] + "," + startDateOf(firstSeen[bay]) + "," + startDateOf(lastDay) + ","
+                    + MODELS[models[bay]][0] + "," + (failed ? 1 : 0);
+        }
+
+        private String startDateOf(int day) {
+            return startDate.plusDays(day).toString();
+        }
+
+        private void install(int bay, int model, int age) {
+            String prefix = MODELS[model][4];
+            String counter = Integer.toString(installed++, 36).toUpperCase();
+            StringBuilder serial = new StringBuilder(prefix);
+            for (int i = counter.length(); i < Math.max(8, 14 - prefix.length()); i++) {
+                serial.append('0');
+            }
+            serials[bay] = serial.append(counter).toString();
+            models[bay] = model;
+            ages[bay] = age;
+            errors[bay] = 0;
+            firstSeen[bay] = -1;
+        }
+
+        private void age(int bay, Random random) {
+            ages[bay]++;
+            if (random.nextInt(2000) == 0) {
+                errors[bay] += 1 + random.nextInt(8);
+            }
+        }
+    }
+
+    /**
+     * Lets a writer per entry be closed without closing the whole archive.
+     */
+    private static class NonClosingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        private NonClosingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    public SyntheticDataGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public SyntheticDataGenerator setFleetSize(int fleetSize) {
+        this.fleetSize = fleetSize;
+        return this;
+    }
+
+    public SyntheticDataGenerator setDays(int days) {
+        this.days = days;
+        return this;
+    }
+
+    public SyntheticDataGenerator setStartDate(LocalDate startDate) {
+        this.startDate = startDate;
+        return this;
+    }
+
+    public SyntheticDataGenerator setAnnualFailureRate(double annualFailureRate) {
+        this.annualFailureRate = annualFailureRate;
+        return this;
+    }
+
+    public SyntheticDataGenerator setAnnualChurnRate(double annualChurnRate) {
+        this.annualChurnRate = annualChurnRate;
+        return this;
+    }
+
+    public SyntheticDataGenerator setModelWeights(double[] modelWeights) {
+        this.modelWeights = modelWeights;
+        return this;
+    }
+
+    public SyntheticDataGenerator setSmartAttributes(int smartAttributes) {
+        this.smartAttributes = smartAttributes;
+        return this;
+    }
+
+    public SyntheticDataGenerator setZip(boolean zip) {
+        this.zip = zip;
+        return this;
+    }
+
+}
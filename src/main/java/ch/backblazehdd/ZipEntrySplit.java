@@ -0,0 +1,158 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A daily stats file within one of the quarterly ZIP archives of Backblaze, read without extracting the archive.
+ * <p>
+ * The entry is inflated piece by piece, every piece ends after a line break and is handed on as its own cursor,
+ * so only a few megabytes of an entry are in memory at once. Different entries of the same archive are independent
+ * splits and can be inflated in parallel.
+ */
+public class ZipEntrySplit implements InputSplit {
+
+    private static final int PIECE_SIZE = 8 << 20;
+
+    private final File archive;
+    private final String entryName;
+    private final long length;
+
+    public ZipEntrySplit(File archive, String entryName, long length) {
+        this.archive = archive;
+        this.entryName = entryName;
+        this.length = length;
+    }
+
+    /**
+     * @param archive The ZIP archive.
+     * @return One split per stats file in the archive, ignoring directories and metadata of macOS.
+     * @throws IOException When the archive is not readable.
+     */
+    public static List<ZipEntrySplit> list(File archive) throws IOException {
+
+        List<ZipEntrySplit> splits = new ArrayList<>();
+
+        try (ZipFile zipFile = new ZipFile(archive)) {
+
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                String fileName = name.substring(name.lastIndexOf('/') + 1);
+
+                if (!entry.isDirectory() && fileName.endsWith(".csv") && !fileName.startsWith(".")
+                        && !name.startsWith("__MACOSX/")) {
+                    splits.add(new ZipEntrySplit(archive, name, Math.max(0, entry.getSize())));
+                }
+            }
+        }
+
+        return splits;
+    }
+
+    public File getArchive() {
+        return archive;
+    }
+
+    public String getEntryName() {
+        return entryName;
+    }
+
+    @Override
+    public String getName() {
+        return archive.getName() + "!" + entryName;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void read(CursorConsumer consumer) throws IOException, InterruptedException {
+
+        try (ZipFile zipFile = new ZipFile(archive)) {
+
+            ZipEntry entry = zipFile.getEntry(entryName);
+
+            if (entry == null) {
+                throw new IOException("Missing entry " + entryName + " in " + archive);
+            }
+
+            try (InputStream in = zipFile.getInputStream(entry)) {
+
+                byte[] piece = new byte[PIECE_SIZE];
+                int filled = 0;
+                Schema schema = null;
+
+                while (true) {
+
+                    int read = in.readNBytes(piece, filled, piece.length - filled);
+                    filled += read;
+
+                    boolean end = filled < piece.length;
+
+                    int lineEnd = end ? filled : lastLineEnd(piece, filled);
+
+                    if (!end && lineEnd == 0) {
+                        // A single line longer than the piece
+                        piece = Arrays.copyOf(piece, piece.length * 2);
+                        continue;
+                    }
+
+                    RecordCursor cursor;
+                    if (schema == null) {
+                        cursor = new RecordCursor(ByteBuffer.wrap(piece), 0, lineEnd);
+                        cursor.readHeader(getName());
+                        schema = cursor.getSchema();
+                    } else {
+                        cursor = new RecordCursor(ByteBuffer.wrap(piece), 0, lineEnd, schema);
+                    }
+
+                    // The cursor may be handed to another thread, the next piece gets its own array
+                    byte[] next = new byte[piece.length];
+                    System.arraycopy(piece, lineEnd, next, 0, filled - lineEnd);
+
+                    consumer.accept(cursor);
+
+                    if (end) {
+                        return;
+                    }
+
+                    filled -= lineEnd;
+                    piece = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The position after the last line break, 0 if there is none.
+     */
+    private static int lastLineEnd(byte[] piece, int filled) {
+        for (int i = filled - 1; i >= 0; i--) {
+            if (piece[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ZipEntrySplit{" +
+                "archive=" + archive +
+                ", entryName='" + entryName + '\'' +
+                '}';
+    }
+}
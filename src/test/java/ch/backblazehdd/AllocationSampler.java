@@ -0,0 +1,70 @@
+package ch.backblazehdd;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the bytes allocated by all threads of the JVM while it is running, including short lived worker threads.
+ * <p>
+ * The allocation counters are sampled periodically, a thread terminating between two samples loses at most the
+ * allocations of one interval.
+ */
+public class AllocationSampler extends Thread {
+
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Map<Long, Long> first = new HashMap<>();
+    private final Map<Long, Long> last = new HashMap<>();
+
+    private volatile boolean running = true;
+
+    public AllocationSampler() {
+        setDaemon(true);
+        sample();
+        first.putAll(last);
+        start();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            sample();
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops sampling.
+     *
+     * @return The bytes allocated since the sampler was created.
+     */
+    public long finish() throws InterruptedException {
+        running = false;
+        join();
+        sample();
+
+        long bytes = 0;
+        for (Map.Entry<Long, Long> entry : last.entrySet()) {
+            bytes += entry.getValue() - first.getOrDefault(entry.getKey(), 0L);
+        }
+        return bytes;
+    }
+
+    private synchronized void sample() {
+        long[] ids = threadMXBean.getAllThreadIds();
+        long[] bytes = threadMXBean.getThreadAllocatedBytes(ids);
+
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                last.put(ids[i], bytes[i]);
+            }
+        }
+    }
+
+}
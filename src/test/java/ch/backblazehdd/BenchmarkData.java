@@ -0,0 +1,80 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Where the benchmarks find their data: the real Backblaze download in data/ by default, or a data set written by
+ * the SyntheticDataGenerator when started with -Dbenchmark.dir=directory.
+ */
+public class BenchmarkData {
+
+    private static final long BACKBLAZE_LINES = 5091501L;
+    private static final String BACKBLAZE_DEAD_SERIAL = "S1F032G7";
+
+    private final File directory = new File(System.getProperty("benchmark.dir", "."));
+    private final Properties expected = new Properties();
+
+    public BenchmarkData() {
+        File properties = new File(directory, "expected.properties");
+        if (properties.exists()) {
+            try (Reader in = new FileReader(properties)) {
+                expected.load(in);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public File getDataDirectory() {
+        return new File(directory, "data");
+    }
+
+    public File[] getFiles() {
+        return getDataDirectory().listFiles(file -> !file.getName().startsWith("."));
+    }
+
+    /**
+     * @return The number of lines in all files, without headers. Taken from the manifest in the data directory,
+     * which is created on first use, unless the data set was generated.
+     */
+    public long getLines() {
+
+        if (expected.containsKey("lines")) {
+            return Long.parseLong(expected.getProperty("lines"));
+        }
+
+        try {
+            Manifest manifest = Manifest.load(new File(getDataDirectory(), ".manifest"));
+            manifest.update(getFiles(), Runtime.getRuntime().availableProcessors());
+            long lines = manifest.getLines(getFiles());
+            return lines >= 0 ? lines : BACKBLAZE_LINES;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return BACKBLAZE_LINES;
+        }
+    }
+
+    /**
+     * @return The serial number of a drive known to have failed.
+     */
+    public String getDeadSerial() {
+        return expected.getProperty("deadSerial", BACKBLAZE_DEAD_SERIAL);
+    }
+
+    public Options options(AggregationMode aggregationMode) {
+        return new Options(aggregationMode).setDataDirectory(getDataDirectory());
+    }
+
+    /**
+     * @return The expected drives of a generated data set, by serial number, null for the real data.
+     */
+    public Map<String, HardDrive> getExpected() throws IOException {
+        return new File(directory, "expected.csv").exists() ? SyntheticDataGenerator.readExpected(directory) : null;
+    }
+
+}
@@ -0,0 +1,29 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ByteStringCacheTest {
+
+    @Test
+    public void testGrow() {
+
+        int[] next = {0};
+        ByteStringCache cache = new ByteStringCache(value -> next[0]++);
+
+        for (int i = 0; i < 1000; i++) {
+            byte[] bytes = ("SERIAL" + i).getBytes(StandardCharsets.ISO_8859_1);
+            assertEquals("New id", i, cache.getId(ByteBuffer.wrap(bytes), 0, bytes.length));
+            assertEquals("Same string", "SERIAL" + i, cache.get(ByteBuffer.wrap(bytes), 0, bytes.length));
+        }
+
+        byte[] bytes = "SERIAL500".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals("Known id", 500, cache.getId(ByteBuffer.wrap(bytes), 0, bytes.length));
+        assertEquals("Size", 1000, cache.size());
+    }
+
+}
@@ -0,0 +1,67 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class CheckpointTest {
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+
+        Map<String, Checkpoint.FileStamp> files = new TreeMap<>();
+        files.put("2013-04-10.csv", new Checkpoint.FileStamp(1234, 5678));
+
+        Map<String, HardDrive> drives = new TreeMap<>();
+        drives.put("9VS3FM1J", new HardDrive("2013-04-10", "2013-04-12", "ST31500341AS", true));
+        drives.put("MJ0351YNG9Z7LA", new HardDrive("2013-04-11", "2014-01-01", "Hitachi HDS5C3030ALA630", false));
+
+        File file = File.createTempFile("checkpoint", ".bin");
+        file.deleteOnExit();
+
+        List<String> filter = Checkpoint.filterOf(new Options().setModels(Set.of("ST4000DM000", "ST31500341AS")));
+        new Checkpoint(files, filter, drives).save(file);
+
+        Checkpoint checkpoint = Checkpoint.load(file);
+
+        assertEquals("Files", files, checkpoint.getFiles());
+        assertEquals("Filter", List.of("models=ST31500341AS", "models=ST4000DM000"), checkpoint.getFilter());
+        assertEquals("Drives", 2, checkpoint.getDrives().size());
+
+        HardDrive hardDrive = checkpoint.getDrives().get("9VS3FM1J");
+        assertEquals("Min", "2013-04-10", hardDrive.getMin());
+        assertEquals("Max", "2013-04-12", hardDrive.getMax());
+        assertEquals("Model", "ST31500341AS", hardDrive.getModel());
+        assertTrue("Dead", hardDrive.isDead());
+
+        assertEquals("Model", "Hitachi HDS5C3030ALA630", checkpoint.getDrives().get("MJ0351YNG9Z7LA").getModel());
+
+    }
+
+    @Test
+    public void testValidity() {
+
+        Map<String, Checkpoint.FileStamp> files = new TreeMap<>();
+        files.put("2013-04-10.csv", new Checkpoint.FileStamp(1234, 5678));
+
+        Checkpoint checkpoint = new Checkpoint(files, new TreeMap<>());
+
+        Map<String, Checkpoint.FileStamp> current = new TreeMap<>(files);
+        current.put("2013-04-11.csv", new Checkpoint.FileStamp(1, 1));
+        assertTrue("New file", checkpoint.isValidFor(current));
+
+        current.put("2013-04-10.csv", new Checkpoint.FileStamp(1234, 9999));
+        assertFalse("Changed file", checkpoint.isValidFor(current));
+
+        current.remove("2013-04-10.csv");
+        assertFalse("Removed file", checkpoint.isValidFor(current));
+
+    }
+
+}
@@ -0,0 +1,110 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DelimiterScannerTest {
+
+    @Test
+    public void testSameAsByteByByte() {
+
+        Random random = new Random(42);
+        byte[] alphabet = {',', '\n', '0', '1', 'A', ',', ',', (byte) 0xAC, (byte) 0x8A, 0};
+
+        for (int round = 0; round < 200; round++) {
+
+            byte[] bytes = new byte[random.nextInt(40)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+                for (int from = 0; from <= bytes.length; from++) {
+                    for (int to = from; to <= bytes.length; to++) {
+                        assertEquals("Comma", naive(bytes, (byte) ',', from, to),
+                                DelimiterScanner.indexOf(buffer, DelimiterScanner.COMMAS, from, to));
+                        assertEquals("Newline", naive(bytes, (byte) '\n', from, to),
+                                DelimiterScanner.indexOf(buffer, DelimiterScanner.NEWLINES, from, to));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWideLine() {
+
+        StringBuilder line = new StringBuilder("2018-10-01,ZJV0XJQ4,ST12000NM0007,12000138625024,0");
+        for (int i = 0; i < 180; i++) {
+            line.append(',');
+        }
+        line.append('\n');
+
+        ByteBuffer buffer = ByteBuffer.wrap(line.toString().getBytes());
+
+        assertEquals("Serial", 10, DelimiterScanner.indexOf(buffer, DelimiterScanner.COMMAS, 0, buffer.limit()));
+        assertEquals("Line end", line.length() - 1,
+                DelimiterScanner.indexOf(buffer, DelimiterScanner.NEWLINES, 0, buffer.limit()));
+    }
+
+    @Test
+    public void testIndexAllSameAsByteByByte() {
+
+        Random random = new Random(7);
+        byte[] alphabet = {',', '\n', '0', 'A', ',', ',', (byte) 0xAC, 0};
+
+        for (int round = 0; round < 200; round++) {
+
+            byte[] bytes = new byte[random.nextInt(60)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+                for (int from = 0; from <= bytes.length; from++) {
+
+                    // A small array, so the search is continued after it is full
+                    int[] positions = new int[3];
+                    StringBuilder found = new StringBuilder();
+                    int start = from;
+                    while (true) {
+                        int count = DelimiterScanner.indexAll(buffer, DelimiterScanner.COMMAS, start, bytes.length, positions, 0);
+                        for (int i = 0; i < count; i++) {
+                            found.append(positions[i]).append(' ');
+                        }
+                        if (count < positions.length) {
+                            break;
+                        }
+                        start = positions[count - 1] + 1;
+                    }
+
+                    StringBuilder expected = new StringBuilder();
+                    for (int i = from; i < bytes.length; i++) {
+                        if (bytes[i] == ',') {
+                            expected.append(i).append(' ');
+                        }
+                    }
+
+                    assertEquals("Commas from " + from, expected.toString(), found.toString());
+                }
+            }
+        }
+    }
+
+    private static int naive(byte[] bytes, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
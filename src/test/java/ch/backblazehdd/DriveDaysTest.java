@@ -0,0 +1,108 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DriveDaysTest {
+
+    private static final String HEADER = "date,serial_number,model,capacity_bytes,failure\n";
+
+    @Test
+    public void testAllModes() throws Exception {
+
+        File directory = Files.createTempDirectory("afr").toFile();
+        File output = Files.createTempDirectory("afr-output").toFile();
+
+        // Written out of date order, the counters have to grow at the front too
+        Files.write(new File(directory, "2013-07-01.csv").toPath(), (HEADER
+                + "2013-07-01,A,AFR-TEST,1,0\n"
+                + "2013-07-01,B,AFR-TEST,1,1\n").getBytes(StandardCharsets.ISO_8859_1));
+        Files.write(new File(directory, "2013-04-10.csv").toPath(), (HEADER
+                + "2013-04-10,A,AFR-TEST,1,0\n"
+                + "2013-04-10,B,AFR-TEST,1,0\n"
+                + "2013-04-10,C,AFR-TEST,1,1\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        int model = ModelDictionary.getId("AFR-TEST");
+        int april = HardDrive.toEpochDay(2013, 4, 10);
+        int july = HardDrive.toEpochDay(2013, 7, 1);
+
+        for (AggregationMode mode : AggregationMode.values()) {
+
+            Options options = new Options(mode).setParallelism(2).setDataDirectory(directory)
+                    .setAfrPeriod(ReportPeriod.QUARTER);
+            Application application = new Application(options);
+            application.calculateFromFiles();
+
+            DriveDays driveDays = application.getSideAggregates().get(DriveDays.class);
+
+            assertEquals(mode + " April drive-days", 3, driveDays.getDriveDays(model, april));
+            assertEquals(mode + " April failures", 1, driveDays.getFailures(model, april));
+            assertEquals(mode + " July drive-days", 2, driveDays.getDriveDays(model, july));
+            assertEquals(mode + " Day without records", 0, driveDays.getDriveDays(model, april + 1));
+
+            driveDays.write(output);
+            List<String> lines = Files.readAllLines(new File(output, "afr.csv").toPath());
+
+            assertEquals(mode + " Q2", "AFR-TEST,2013-Q2,3,1," + 365.0 * 100 / 3, lines.get(1));
+            assertEquals(mode + " Q3", "AFR-TEST,2013-Q3,2,1," + 365.0 * 100 / 2, lines.get(2));
+        }
+    }
+
+    @Test
+    public void testDaysInAnyOrder() {
+
+        LocalDate start = LocalDate.of(2013, 4, 10);
+
+        // Newest first, like largest splits first, then the other way round into a second instance
+        StringBuilder newestFirst = new StringBuilder();
+        StringBuilder oldestFirst = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            newestFirst.append(start.plusDays(999 - i)).append(",N").append(i).append(",AFR-ORDER-1,1,0\n");
+            oldestFirst.append(start.plusDays(500 + i)).append(",O").append(i).append(",AFR-ORDER-2,1,").append(i % 2).append('\n');
+        }
+
+        DriveDays driveDays = count(newestFirst.toString());
+        driveDays.merge(count(oldestFirst.toString()));
+
+        int first = (int) start.toEpochDay();
+        int model1 = ModelDictionary.getId("AFR-ORDER-1");
+        int model2 = ModelDictionary.getId("AFR-ORDER-2");
+
+        assertEquals("First day", first, driveDays.getFirstDay());
+        assertEquals("End day", first + 1500, driveDays.getEndDay());
+
+        for (int day = first; day < first + 1500; day++) {
+            int i = day - first;
+            assertEquals("Model 1 day " + i, i < 1000 ? 1 : 0, driveDays.getDriveDays(model1, day));
+            assertEquals("Model 2 day " + i, i >= 500 ? 1 : 0, driveDays.getDriveDays(model2, day));
+            assertEquals("Model 2 failures day " + i, i >= 500 ? (i - 500) % 2 : 0, driveDays.getFailures(model2, day));
+        }
+    }
+
+    private static DriveDays count(String lines) {
+        byte[] bytes = lines.getBytes(StandardCharsets.ISO_8859_1);
+        RecordCursor cursor = new RecordCursor(ByteBuffer.wrap(bytes), 0, bytes.length);
+        DriveDays driveDays = new DriveDays(null);
+        while (cursor.next()) {
+            driveDays.add(cursor);
+        }
+        return driveDays;
+    }
+
+    @Test
+    public void testLabels() {
+        int day = HardDrive.toEpochDay(2013, 11, 5);
+        assertEquals("Day", "2013-11-05", ReportPeriod.DAY.getLabel(day));
+        assertEquals("Month", "2013-11", ReportPeriod.MONTH.getLabel(day));
+        assertEquals("Quarter", "2013-Q4", ReportPeriod.QUARTER.getLabel(day));
+    }
+
+}
@@ -0,0 +1,80 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileSplitterTest {
+
+    static File writeFile(int lines) throws Exception {
+
+        StringBuilder content = new StringBuilder("date,serial_number,model,capacity_bytes,failure\n");
+
+        for (int i = 0; i < lines; i++) {
+            content.append("2013-04-10,SERIAL").append(i).append(",ST31500541AS,1500301910016,0\n");
+        }
+
+        File file = File.createTempFile("2013-04-10", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        return file;
+    }
+
+    @Test
+    public void testRangesAreAlignedToLines() throws Exception {
+
+        File file = writeFile(1000);
+
+        List<FileRange> ranges = FileSplitter.split(file, 1000);
+
+        assertTrue("Ranges", ranges.size() > 10);
+        assertEquals("First", 0, ranges.get(0).getStart());
+        assertEquals("Last", file.length(), ranges.get(ranges.size() - 1).getEnd());
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        for (int i = 1; i < ranges.size(); i++) {
+            assertEquals("Contiguous", ranges.get(i - 1).getEnd(), ranges.get(i).getStart());
+            assertEquals("Line break", '\n', bytes[(int) ranges.get(i).getStart() - 1]);
+        }
+
+    }
+
+    @Test
+    public void testRangesReadEveryRecordOnce() throws Exception {
+
+        File file = writeFile(1000);
+
+        List<String> ids = new ArrayList<>();
+
+        for (InputSplit split : FileSplitter.split(new File[]{file}, 777)) {
+            split.read(cursor -> {
+                while (cursor.next()) {
+                    ids.add(cursor.getID());
+                }
+            });
+        }
+
+        assertEquals("Records", 1000, ids.size());
+        assertEquals("Distinct", 1000, ids.stream().distinct().count());
+
+    }
+
+    @Test
+    public void testLargestFirst() throws Exception {
+
+        List<InputSplit> ranges = FileSplitter.split(new File[]{writeFile(10), writeFile(100)}, 1 << 20);
+
+        assertEquals("Ranges", 2, ranges.size());
+        assertTrue("Largest first", ranges.get(0).getLength() > ranges.get(1).getLength());
+
+    }
+
+}
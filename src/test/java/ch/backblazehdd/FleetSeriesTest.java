@@ -0,0 +1,52 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FleetSeriesTest {
+
+    private static final String HEADER = "date,serial_number,model,capacity_bytes,failure\n";
+
+    @Test
+    public void testAllModes() throws Exception {
+
+        File directory = Files.createTempDirectory("fleet").toFile();
+
+        Files.write(new File(directory, "2013-04-10.csv").toPath(), (HEADER
+                + "2013-04-10,A,FLEET-TEST,1,0\n"
+                + "2013-04-10,B,FLEET-TEST,1,0\n").getBytes(StandardCharsets.ISO_8859_1));
+        Files.write(new File(directory, "2013-04-11.csv").toPath(), (HEADER
+                + "2013-04-11,A,FLEET-TEST,1,0\n"
+                + "2013-04-11,B,FLEET-TEST,1,1\n"
+                + "2013-04-11,C,FLEET-TEST,1,0\n").getBytes(StandardCharsets.ISO_8859_1));
+        Files.write(new File(directory, "2013-04-12.csv").toPath(), (HEADER
+                + "2013-04-12,C,FLEET-TEST,1,0\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        int model = ModelDictionary.getId("FLEET-TEST");
+        int first = HardDrive.toEpochDay(2013, 4, 10);
+
+        for (AggregationMode mode : AggregationMode.values()) {
+
+            Options options = new Options(mode).setParallelism(2).setDataDirectory(directory).setFleet(true);
+            Application application = new Application(options);
+            Map<String, HardDrive> drives = application.calculateFromFiles();
+
+            FleetSeries series = FleetSeries.compute(drives, application.getSideAggregates().get(DriveDays.class));
+
+            assertEquals(mode + " Active on the first day", 2, series.getActive(model, first));
+            assertEquals(mode + " Added on the first day", 2, series.getAdded(model, first));
+            assertEquals(mode + " Active on the second day", 3, series.getActive(model, first + 1));
+            assertEquals(mode + " Added on the second day", 1, series.getAdded(model, first + 1));
+            assertEquals(mode + " Retired on the second day", 2, series.getRetired(model, first + 1));
+            assertEquals(mode + " Active on the last day", 1, series.getActive(model, first + 2));
+            assertEquals(mode + " Retired on the last day", 0, series.getRetired(model, first + 2));
+        }
+    }
+
+}
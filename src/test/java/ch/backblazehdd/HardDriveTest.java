@@ -146,4 +146,40 @@ public class HardDriveTest {
 
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEpochDay() {
+
+        for (String date : new String[]{"1970-01-01", "1969-12-31", "2000-02-29", "2013-04-10", "2016-12-31", "2100-03-01"}) {
+            assertEquals(date, java.time.LocalDate.parse(date).toEpochDay(), HardDrive.parseEpochDay(date, 0));
+        }
+
+    }
+
+    @Test
+    public void mergedIntegerDates() {
+
+        HardDrive hd1 = new HardDrive(15805, 15900, ModelDictionary.getId("ST31500341AS"), false);
+        HardDrive hd2 = new HardDrive(15700, 15800, ModelDictionary.EMPTY, true);
+
+        HardDrive merged = new HardDrive(hd1, hd2);
+        assertEquals("Min", 15700, merged.getMinDay());
+        assertEquals("Max", 15900, merged.getMaxDay());
+        assertEquals("Model", "ST31500341AS", merged.getModel());
+        assertTrue("Dead", merged.isDead());
+        assertEquals("Life", 200, merged.calculateLife());
+
+    }
+
+    @Test
+    public void emptyHardDrive() {
+
+        HardDrive empty = new HardDrive();
+
+        assertEquals("Min", "", empty.getMin());
+        assertEquals("Max", "", empty.getMax());
+        assertEquals("Model", "", empty.getModel());
+        assertFalse("Dead", empty.isDead());
+
+    }
+}
@@ -0,0 +1,229 @@
+package ch.backblazehdd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH micro benchmarks of the per line hot paths. Unlike the junit-benchmarks ones, results are sunk into
+ * Blackholes, so the JIT can't remove the work, and the runs are forked and warmed up properly.
+ * <p>
+ * Run the main method to get the allocation rate per operation from the GC profiler as well:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ch.backblazehdd.HotPathBenchmarks
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class HotPathBenchmarks {
+
+    /**
+     * The shapes of lines over the years: few columns in 2013, lots of filled SMART columns in recent files, and
+     * the long serial numbers of some manufacturers.
+     */
+    public enum LineShape {
+
+        NARROW_2013("2013-04-10,MJ0351YNG9Z0XA,Hitachi HDS5C3030ALA630,3000592982016,0,"
+                + ",0,,,,,,,,0,,,,,,4031,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,26,,,,,,0,,,,,,,,,,,,,,,,,,,,,,,,,,,,"),
+
+        WIDE_2018("2018-10-01,ZJV0XJQ4,ST12000NM0007,12000138625024,0," + smartColumns(90)),
+
+        LONG_SERIAL("2019-01-01,WD-WMC4N0J0YT1V,WDC WD30EFRX,3000592982016,1," + smartColumns(60));
+
+        private final String line;
+
+        LineShape(String line) {
+            this.line = line;
+        }
+
+        private static String smartColumns(int attributes) {
+            StringBuilder columns = new StringBuilder();
+            for (int i = 0; i < attributes; i++) {
+                columns.append(i == 0 ? "" : ",").append(100 - i % 7).append(',').append(i * 1237L % 100000);
+            }
+            return columns.toString();
+        }
+    }
+
+    @Param
+    public LineShape lineShape;
+
+    private static final int LINES_PER_BUFFER = 1000;
+
+    private String line;
+    private ByteBuffer buffer;
+
+    private final int[] positions = new int[1024];
+
+    private HardDrive hardDrive1;
+    private HardDrive hardDrive2;
+
+    private String knownModel;
+    private String unknownModel;
+
+    @Setup
+    public void setUp() {
+        line = lineShape.line;
+
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.ISO_8859_1);
+        buffer = ByteBuffer.allocate(bytes.length * LINES_PER_BUFFER);
+        for (int i = 0; i < LINES_PER_BUFFER; i++) {
+            buffer.put(bytes);
+        }
+        buffer.flip();
+
+        hardDrive1 = new HardDrive(line);
+        hardDrive2 = new HardDrive(15000, 17000, ModelDictionary.getId("ST4000DM000"), false);
+
+        knownModel = "ST4000DM000";
+        unknownModel = hardDrive1.getModel() + " (unknown)";
+
+        ModelMapper.addKnownModel(knownModel, new Model("Seagate 4TB ST4000DM000", "Seagate"));
+        ModelMapper.addKnownModel(hardDrive1.getModel(), new Model(hardDrive1.getModel(), "Manufacturer"));
+    }
+
+    @Benchmark
+    public String getID() {
+        return HardDrive.getID(line);
+    }
+
+    @Benchmark
+    public HardDrive parseLine() {
+        return new HardDrive(line);
+    }
+
+    /**
+     * Parses a buffer of LINES_PER_BUFFER lines, so the cost of creating the cursor is spread like within a file.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_BUFFER)
+    public void parseBytes(Blackhole blackhole) {
+        RecordCursor cursor = new RecordCursor(buffer, 0, buffer.limit());
+        while (cursor.next()) {
+            blackhole.consume(cursor.getIDEnd());
+            blackhole.consume(cursor.getDay());
+            blackhole.consume(cursor.getModelId());
+            blackhole.consume(cursor.isDead());
+        }
+    }
+
+    /**
+     * Locates the line break and the first four commas of every line one at a time, like the cursor does for the
+     * date, serial number, model and failure.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_BUFFER)
+    public int locateFieldsOnDemand() {
+        int sum = 0;
+        int position = 0;
+        while (position < buffer.limit()) {
+            int lineEnd = DelimiterScanner.indexOf(buffer, DelimiterScanner.NEWLINES, position, buffer.limit());
+            int comma = position - 1;
+            for (int i = 0; i < 4; i++) {
+                comma = DelimiterScanner.indexOf(buffer, DelimiterScanner.COMMAS, comma + 1, lineEnd);
+            }
+            sum += comma;
+            position = lineEnd + 1;
+        }
+        return sum;
+    }
+
+    /**
+     * Indexes all commas of every line in bulk and takes the first four.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_BUFFER)
+    public int locateFieldsBulk() {
+        int sum = 0;
+        int position = 0;
+        while (position < buffer.limit()) {
+            int lineEnd = DelimiterScanner.indexOf(buffer, DelimiterScanner.NEWLINES, position, buffer.limit());
+            DelimiterScanner.indexAll(buffer, DelimiterScanner.COMMAS, position, lineEnd, positions, 0);
+            sum += positions[3];
+            position = lineEnd + 1;
+        }
+        return sum;
+    }
+
+    /**
+     * Locates every comma of every line one at a time, like reading all SMART columns.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_BUFFER)
+    public int locateAllFieldsOnDemand() {
+        int sum = 0;
+        int position = 0;
+        while (position < buffer.limit()) {
+            int lineEnd = DelimiterScanner.indexOf(buffer, DelimiterScanner.NEWLINES, position, buffer.limit());
+            int comma = DelimiterScanner.indexOf(buffer, DelimiterScanner.COMMAS, position, lineEnd);
+            while (comma >= 0) {
+                sum += comma;
+                comma = DelimiterScanner.indexOf(buffer, DelimiterScanner.COMMAS, comma + 1, lineEnd);
+            }
+            position = lineEnd + 1;
+        }
+        return sum;
+    }
+
+    /**
+     * Indexes every comma of every line in bulk.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_BUFFER)
+    public int locateAllFieldsBulk() {
+        int sum = 0;
+        int position = 0;
+        while (position < buffer.limit()) {
+            int lineEnd = DelimiterScanner.indexOf(buffer, DelimiterScanner.NEWLINES, position, buffer.limit());
+            int count = DelimiterScanner.indexAll(buffer, DelimiterScanner.COMMAS, position, lineEnd, positions, 0);
+            for (int i = 0; i < count; i++) {
+                sum += positions[i];
+            }
+            position = lineEnd + 1;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public HardDrive merge() {
+        return new HardDrive(hardDrive1, hardDrive2);
+    }
+
+    @Benchmark
+    public String getCSVLine() {
+        return hardDrive1.getCSVLine();
+    }
+
+    @Benchmark
+    public void getModelAndManufacturer(Blackhole blackhole) {
+        blackhole.consume(ModelMapper.getModelAndManufacturerFromModel(knownModel));
+        blackhole.consume(ModelMapper.getModelAndManufacturerFromModel(unknownModel));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(HotPathBenchmarks.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+}
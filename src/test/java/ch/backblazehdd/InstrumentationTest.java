@@ -0,0 +1,66 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class InstrumentationTest {
+
+    @Test
+    public void testCountsAllLines() throws Exception {
+
+        File directory = Files.createTempDirectory("instrumentation").toFile();
+        Properties properties = new SyntheticDataGenerator().setFleetSize(200).setDays(20).generate(directory);
+
+        for (AggregationMode mode : AggregationMode.values()) {
+
+            Options options = new Options(mode).setParallelism(2).setInstrumented(true)
+                    .setDataDirectory(new File(directory, "data"));
+            Application application = new Application(options);
+
+            application.calculateFromFiles();
+
+            Instrumentation instrumentation = application.getInstrumentation();
+
+            assertEquals(mode + " lines", Long.parseLong(properties.getProperty("lines")), instrumentation.getLines());
+            assertEquals(mode + " splits", 20, instrumentation.getSplits());
+            assertEquals(mode + " reads", 20, instrumentation.getStage("read").getCount());
+            assertEquals(mode + " aggregate", 1, instrumentation.getStage("aggregate").getCount());
+            assertTrue(mode + " summary", instrumentation.getSummary().contains("Stage read"));
+
+            // Every cursor of a split is timed in its stages
+            assertEquals(mode + " opened", 20, instrumentation.getStage("open").getCount());
+            assertEquals(mode + " loaded", 20, instrumentation.getStage("load").getCount());
+            String perRecord = mode == AggregationMode.STAGED ? "parse" : "parse-fold";
+            assertEquals(mode + " " + perRecord, 20, instrumentation.getStage(perRecord).getCount());
+        }
+    }
+
+    @Test
+    public void testOff() {
+        Application application = new Application(new Options());
+        assertSame("Off", Instrumentation.OFF, application.getInstrumentation());
+        assertEquals("Start", 0, Instrumentation.OFF.start());
+        assertEquals("Summary", "", Instrumentation.OFF.getSummary());
+    }
+
+    @Test
+    public void testHistogram() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1_000_000);
+
+        assertEquals("Count", 100, histogram.getCount());
+        assertEquals("p50", 1023, histogram.getQuantile(0.5));
+        assertEquals("p99", 1023, histogram.getQuantile(0.99));
+        assertEquals("Max", (1 << 20) - 1, histogram.getQuantile(1));
+    }
+
+}
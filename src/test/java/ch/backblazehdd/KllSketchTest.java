@@ -0,0 +1,82 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KllSketchTest {
+
+    private static final int VALUES = 1_000_000;
+
+    @Test
+    public void testExactWhenSmall() {
+
+        KllSketch sketch = new KllSketch();
+        for (int i = 1; i <= 100; i++) {
+            sketch.add(i);
+        }
+
+        assertEquals("Count", 100, sketch.getCount());
+        assertEquals("Median", 50, sketch.getQuantile(0.5));
+        assertEquals("p99", 99, sketch.getQuantile(0.99));
+        assertEquals("Min", 1, sketch.getQuantile(0));
+        assertEquals("Max", 100, sketch.getQuantile(1));
+    }
+
+    @Test
+    public void testRankError() {
+
+        Random random = new Random(42);
+        long[] values = new long[VALUES];
+        KllSketch sketch = new KllSketch();
+
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = random.nextInt(100_000);
+            sketch.add(values[i]);
+        }
+
+        Arrays.sort(values);
+
+        assertRanks(sketch, values);
+        assertTrue("Retained " + sketch.getRetained(), sketch.getRetained() < 4 * KllSketch.DEFAULT_K);
+        assertEquals("Min", values[0], sketch.getMin());
+        assertEquals("Max", values[VALUES - 1], sketch.getMax());
+    }
+
+    @Test
+    public void testMerge() {
+
+        Random random = new Random(7);
+        long[] values = new long[VALUES];
+        KllSketch merged = new KllSketch();
+
+        // Sixteen workers with skewed ranges
+        for (int worker = 0; worker < 16; worker++) {
+            KllSketch sketch = new KllSketch();
+            for (int i = worker * VALUES / 16; i < (worker + 1) * VALUES / 16; i++) {
+                values[i] = worker * 1000 + (long) (random.nextGaussian() * 5000);
+                sketch.add(values[i]);
+            }
+            merged.merge(sketch);
+        }
+
+        Arrays.sort(values);
+
+        assertEquals("Count", VALUES, merged.getCount());
+        assertRanks(merged, values);
+        assertTrue("Retained " + merged.getRetained(), merged.getRetained() < 4 * KllSketch.DEFAULT_K);
+    }
+
+    private static void assertRanks(KllSketch sketch, long[] sorted) {
+        for (double quantile : new double[]{0.01, 0.1, 0.5, 0.9, 0.99}) {
+            long estimate = sketch.getQuantile(quantile);
+            int index = Arrays.binarySearch(sorted, estimate);
+            double rank = (double) Math.abs(index) / sorted.length;
+            assertEquals("Rank of p" + quantile, quantile, rank, 0.02);
+        }
+    }
+
+}
@@ -30,10 +30,13 @@ public class LineCountingBenchmarks extends AbstractBenchmark {
 
     File[] files;
 
+    int lines;
+
     @Before
     public void setUp() throws Exception {
-        File folder = new File("data/");
-        files = folder.listFiles();
+        BenchmarkData data = new BenchmarkData();
+        files = data.getFiles();
+        lines = (int) data.getLines();
     }
 
     // round: 1.66 [+- 0.06]
@@ -48,7 +51,7 @@ public class LineCountingBenchmarks extends AbstractBenchmark {
             i += countLinesInFile(file);
         }
 
-        assertEquals(5091501, i);
+        assertEquals(lines, i);
 
     }
 
@@ -75,7 +78,7 @@ public class LineCountingBenchmarks extends AbstractBenchmark {
             }
         }
 
-        assertEquals(5091501, i);
+        assertEquals(lines, i);
 
 
     }
@@ -98,7 +101,7 @@ public class LineCountingBenchmarks extends AbstractBenchmark {
                 row.getFieldCount();
             }
         }
-        assertEquals(5091501, i);
+        assertEquals(lines, i);
 
     }
 
@@ -125,7 +128,7 @@ public class LineCountingBenchmarks extends AbstractBenchmark {
                 })
                 .count();
 
-        assertEquals(5091501L, i);
+        assertEquals((long) lines, i);
     }
 
     /**
@@ -139,7 +142,7 @@ public class LineCountingBenchmarks extends AbstractBenchmark {
 
         int i = Stream.of(files).parallel().map(this::countLinesInFile).mapToInt(p -> p).sum();
 
-        assertEquals(5091501, i);
+        assertEquals(lines, i);
 
     }
 
@@ -166,7 +169,7 @@ public class LineCountingBenchmarks extends AbstractBenchmark {
 
             ).get(); //this makes it an overall blocking call
 
-            assertEquals(5091501, i);
+            assertEquals(lines, i);
 
 
         } catch (InterruptedException | ExecutionException e) {
@@ -221,7 +224,7 @@ public class LineCountingBenchmarks extends AbstractBenchmark {
             thread.join();
         }
 
-        assertEquals(5091501, atomicInteger.get());
+        assertEquals(lines, atomicInteger.get());
 
 
     }
@@ -0,0 +1,142 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32C;
+
+import static org.junit.Assert.*;
+
+public class ManifestTest {
+
+    @Test
+    public void testLinesAndRescan() throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        Properties summary = new SyntheticDataGenerator().setSeed(5).setFleetSize(200).setDays(10).generate(directory);
+
+        File data = new File(directory, "data");
+        File[] files = data.listFiles();
+        File manifestFile = new File(directory, "manifest.csv");
+
+        Manifest manifest = Manifest.load(manifestFile);
+        assertEquals("Scanned", files.length, manifest.update(files, 2));
+        assertEquals("Lines", Long.parseLong(summary.getProperty("lines")), manifest.getLines(files));
+
+        Manifest loaded = Manifest.load(manifestFile);
+        assertEquals("Scanned again", 0, loaded.update(files, 2));
+        assertEquals("Lines loaded", manifest.getLines(files), loaded.getLines(files));
+
+        Manifest.Entry entry = loaded.get(files[0]);
+        assertEquals("Date", DateRange.dateOf(files[0].getName()), entry.getDate());
+        assertEquals("Checksum", ParseCache.checksum(files[0]), entry.getChecksum());
+
+        // All files share the header
+        assertEquals("Schemas", 1, loaded.getEntries().values().stream().map(Manifest.Entry::getSchema).distinct().count());
+
+        Files.write(files[0].toPath(), "2000-01-01,MANIFEST-NEW,MANIFEST-TEST,1,0\n".getBytes(StandardCharsets.ISO_8859_1),
+                StandardOpenOption.APPEND);
+
+        assertNull("Stale", loaded.get(files[0]));
+        assertEquals("Unknown lines", -1, loaded.getLines(files));
+        assertEquals("Scanned after change", 1, loaded.update(files, 2));
+        assertEquals("Lines after change", manifest.getLines(Arrays.copyOfRange(files, 1, files.length))
+                + loaded.get(files[0]).getLines(), loaded.getLines(files));
+    }
+
+    @Test
+    public void testRecordedWhileReading() throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        new SyntheticDataGenerator().setSeed(7).setFleetSize(20000).setDays(3).generate(directory);
+
+        File data = new File(directory, "data");
+        File[] files = data.listFiles();
+        File manifestFile = new File(directory, "manifest.csv");
+
+        Options options = new Options().setDataDirectory(data).setManifest(manifestFile).setParallelism(2);
+        Map<String, HardDrive> drives = new Application(options).calculateFromFiles();
+
+        Manifest recorded = Manifest.load(manifestFile);
+        for (File dataFile : files) {
+            Manifest.Entry entry = recorded.get(dataFile);
+            Manifest.Entry scanned = Manifest.scan(dataFile);
+            assertEquals("Checksum", scanned.getChecksum(), entry.getChecksum());
+            assertEquals("Lines", scanned.getLines(), entry.getLines());
+            assertEquals("Schema", scanned.getSchema(), entry.getSchema());
+            assertArrayEquals("Line starts", scanned.getLineStarts(), entry.getLineStarts());
+            assertTrue("Several line starts", entry.getLineStarts().length > 1);
+
+            // Cut at line starts, without gaps
+            byte[] bytes = Files.readAllBytes(dataFile.toPath());
+            long end = 0;
+            for (FileRange range : FileSplitter.split(dataFile, FileSplitter.MIN_SPLIT_SIZE, entry)) {
+                assertEquals("Start", end, range.getStart());
+                assertTrue("Line start", range.getStart() == 0 || bytes[(int) range.getStart() - 1] == '\n');
+                end = range.getEnd();
+            }
+            assertEquals("End", bytes.length, end);
+        }
+
+        // Split from the manifest this time
+        Map<String, HardDrive> again = new Application(options).calculateFromFiles();
+        assertEquals("Drives", drives.keySet(), again.keySet());
+        for (Map.Entry<String, HardDrive> drive : drives.entrySet()) {
+            assertEquals("First day", drive.getValue().getMinDay(), again.get(drive.getKey()).getMinDay());
+            assertEquals("Last day", drive.getValue().getMaxDay(), again.get(drive.getKey()).getMaxDay());
+        }
+    }
+
+    @Test
+    public void testCombine() {
+
+        byte[] bytes = "date,serial_number,model,capacity_bytes,failure\n".getBytes(StandardCharsets.ISO_8859_1);
+
+        CRC32C whole = new CRC32C();
+        whole.update(bytes);
+
+        for (int cut : new int[]{0, 1, 17, bytes.length}) {
+            CRC32C first = new CRC32C();
+            first.update(bytes, 0, cut);
+            CRC32C second = new CRC32C();
+            second.update(bytes, cut, bytes.length - cut);
+            assertEquals("Combined at " + cut, whole.getValue(),
+                    Manifest.combine(first.getValue(), second.getValue(), bytes.length - cut));
+        }
+    }
+
+    @Test
+    public void testDateRange() throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        new SyntheticDataGenerator().setSeed(6).setFleetSize(200).setDays(10).generate(directory);
+
+        File data = new File(directory, "data");
+        LocalDate first = Arrays.stream(data.listFiles()).map(file -> DateRange.dateOf(file.getName()))
+                .min(LocalDate::compareTo).get();
+
+        DateRange range = new DateRange(first.plusDays(2), first.plusDays(4));
+        Application application = new Application(new Options().setDataDirectory(data).setDateRange(range));
+        assertEquals("Files", 3, application.listDataFiles().length);
+
+        Map<String, HardDrive> drives = application.calculateFromFiles();
+        int from = (int) first.plusDays(2).toEpochDay();
+        for (HardDrive hardDrive : drives.values()) {
+            assertTrue("First day", hardDrive.getMinDay() >= from);
+            assertTrue("Last day", hardDrive.getMaxDay() <= from + 2);
+        }
+
+        assertTrue("Quarter", range.overlaps(new File("data_Q" + ((first.getMonthValue() - 1) / 3 + 1) + "_" + first.getYear() + ".zip")));
+        assertFalse("Other quarter", range.overlaps(new File("data_Q1_" + (first.getYear() - 1) + ".zip")));
+        assertTrue("Other name", range.overlaps(new File("drives.csv")));
+        assertFalse("Entry", range.contains("data_Q1_2016.zip!2016-01-01.csv"));
+    }
+
+}
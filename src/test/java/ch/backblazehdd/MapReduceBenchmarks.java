@@ -9,6 +9,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
@@ -18,15 +19,32 @@ import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.reducing;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class MapReduceBenchmarks extends AbstractBenchmark {
 
+    // The bytes the modes allocate per line next to the serial number string, and per drive of the result: two
+    // HardDrive records and the merge per line when shared, the accumulators of every worker when thread local, the
+    // sorted map the table is copied into off heap, which doesn't create the serial number per line. Rounded up from
+    // generated data sets with 0.017 and 0.125 drives per line
+    private static final double SHARED_MAP_BYTES_PER_LINE = 88;
+    private static final double SHARED_MAP_BYTES_PER_DRIVE = 0;
+    private static final double THREAD_LOCAL_BYTES_PER_LINE = 40;
+    private static final double THREAD_LOCAL_BYTES_PER_DRIVE = 48;
+    private static final double OFF_HEAP_BYTES_PER_LINE = 4;
+    private static final double OFF_HEAP_BYTES_PER_DRIVE = 160;
+
+    // The bounds are half as much again as expected for the lines and drives read
+    private static final double HEADROOM = 1.5;
+
+    BenchmarkData data;
+
     File[] files;
 
     @Before
     public void setUp() throws Exception {
-        File folder = new File("data/");
-        files = folder.listFiles();
+        data = new BenchmarkData();
+        files = data.getFiles();
     }
 
     // round: 0.52 [+- 0.09]
@@ -36,7 +54,7 @@ public class MapReduceBenchmarks extends AbstractBenchmark {
 
         long i = Stream.of(files).parallel().flatMap(this::getStreamOfLines).count();
 
-        assertEquals(5091501L, i);
+        assertEquals(data.getLines(), i);
 
 
     }
@@ -62,7 +80,70 @@ public class MapReduceBenchmarks extends AbstractBenchmark {
                         ));
 
 
-        assertEquals(true, concurrentMap.get("S1F032G7").isDead());
+        assertEquals(true, concurrentMap.get(data.getDeadSerial()).isDead());
+
+    }
+
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 1)
+    @Test
+    public void mappedStreamTest() {
+
+        ConcurrentMap<String, HardDrive> concurrentMap = new ConcurrentSkipListMap<>();
+
+        Stream.of(files).parallel().forEach(file -> {
+            try {
+                RecordCursor cursor = RecordCursor.map(file);
+                while (cursor.next()) {
+                    concurrentMap.merge(cursor.getID(), cursor.toHardDrive(), HardDrive::new);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+
+        assertEquals(true, concurrentMap.get(data.getDeadSerial()).isDead());
+
+    }
+
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 1)
+    @Test
+    public void sharedMapApplicationTest() throws Exception {
+
+        AllocationSampler sampler = new AllocationSampler();
+
+        Map<String, HardDrive> concurrentMap = new Application(data.options(AggregationMode.SHARED_MAP)).calculateFromFiles();
+
+        assertAllocated(SHARED_MAP_BYTES_PER_LINE, true, SHARED_MAP_BYTES_PER_DRIVE, concurrentMap, sampler);
+
+        assertEquals(true, concurrentMap.get(data.getDeadSerial()).isDead());
+
+    }
+
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 1)
+    @Test
+    public void threadLocalApplicationTest() throws Exception {
+
+        AllocationSampler sampler = new AllocationSampler();
+
+        Map<String, HardDrive> concurrentMap = new Application(data.options(AggregationMode.THREAD_LOCAL)).calculateFromFiles();
+
+        assertAllocated(THREAD_LOCAL_BYTES_PER_LINE, true, THREAD_LOCAL_BYTES_PER_DRIVE, concurrentMap, sampler);
+
+        assertEquals(true, concurrentMap.get(data.getDeadSerial()).isDead());
+
+    }
+
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 1)
+    @Test
+    public void offHeapApplicationTest() throws Exception {
+
+        AllocationSampler sampler = new AllocationSampler();
+
+        Map<String, HardDrive> table = new Application(data.options(AggregationMode.OFF_HEAP)).calculateFromFiles();
+
+        assertAllocated(OFF_HEAP_BYTES_PER_LINE, false, OFF_HEAP_BYTES_PER_DRIVE, table, sampler);
+
+        assertEquals(true, table.get(data.getDeadSerial()).isDead());
 
     }
 
@@ -77,6 +158,39 @@ public class MapReduceBenchmarks extends AbstractBenchmark {
     }
 
 
+    /**
+     * Compares the bytes allocated per line with what the mode is expected to allocate for the data read, so the bound
+     * holds for data sets with other serial numbers or more or fewer drives per line.
+     *
+     * @param bytesPerLine  The bytes per line next to the serial number.
+     * @param serialPerLine If the mode creates the serial number string of every line.
+     * @param bytesPerDrive The bytes per drive of the result.
+     * @param drives        The result.
+     * @param sampler       The sampler started before the run.
+     */
+    private void assertAllocated(double bytesPerLine, boolean serialPerLine, double bytesPerDrive,
+                                 Map<String, HardDrive> drives, AllocationSampler sampler) throws InterruptedException {
+
+        long allocated = sampler.finish();
+        long lines = data.getLines();
+
+        double serialBytes = serialPerLine
+                ? stringBytes(drives.keySet().stream().mapToInt(String::length).average().orElse(0))
+                : 0;
+        double bound = HEADROOM * (bytesPerLine + serialBytes + bytesPerDrive * drives.size() / lines);
+
+        double allocatedPerLine = allocated / (double) lines;
+        assertTrue("Allocated bytes/line " + allocatedPerLine + " > " + bound, allocatedPerLine <= bound);
+    }
+
+    /**
+     * @return The bytes of a string of one byte characters, the object and its array aligned to 8 bytes, with
+     * compressed references.
+     */
+    private static double stringBytes(double length) {
+        return 24 + Math.ceil((16 + length) / 8) * 8;
+    }
+
     /**
      * Returns a stream of lines, without the first line.
      *
@@ -0,0 +1,75 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OffHeapDriveTableTest {
+
+    private static void add(OffHeapDriveTable table, String id, int day, String model, boolean dead) {
+        ByteBuffer buffer = ByteBuffer.wrap(("x," + id + ",").getBytes(StandardCharsets.ISO_8859_1));
+        table.add(buffer, 2, 2 + id.length(), day, day, ModelDictionary.getId(model), dead);
+    }
+
+    @Test
+    public void testFoldSameDrive() {
+
+        OffHeapDriveTable table = new OffHeapDriveTable();
+
+        add(table, "9VS3FM1J", 15805, "ST31500341AS", false);
+        add(table, "9VS3FM1J", 15900, "ST31500341AS", true);
+        add(table, "9VS3FM1J", 15700, "ST31500341AS", false);
+
+        assertEquals("Size", 1, table.size());
+
+        HardDrive hardDrive = table.get("9VS3FM1J");
+        assertEquals("Min", 15700, hardDrive.getMinDay());
+        assertEquals("Max", 15900, hardDrive.getMaxDay());
+        assertEquals("Model", "ST31500341AS", hardDrive.getModel());
+        assertTrue("Dead", hardDrive.isDead());
+
+        assertNull("Missing", table.get("9VS3FM1"));
+
+    }
+
+    @Test
+    public void testGrowAndMergeLikeHardDrive() {
+
+        OffHeapDriveTable table1 = new OffHeapDriveTable(16);
+        OffHeapDriveTable table2 = new OffHeapDriveTable(16);
+
+        Map<String, HardDrive> expected = new HashMap<>();
+
+        for (int i = 0; i < 10000; i++) {
+            String id = "SERIAL" + (i % 7000);
+            OffHeapDriveTable table = i % 2 == 0 ? table1 : table2;
+            boolean dead = i % 997 == 0;
+
+            add(table, id, 15000 + i, "Model" + (i % 5), dead);
+            expected.merge(id, new HardDrive(15000 + i, 15000 + i, ModelDictionary.getId("Model" + (i % 5)), dead),
+                    HardDrive::new);
+        }
+
+        table1.merge(table2);
+
+        assertEquals("Size", expected.size(), table1.size());
+
+        int iterated = 0;
+        for (Map.Entry<String, HardDrive> entry : table1.entrySet()) {
+            HardDrive hardDrive = expected.get(entry.getKey());
+            assertEquals("Min", hardDrive.getMinDay(), entry.getValue().getMinDay());
+            assertEquals("Max", hardDrive.getMaxDay(), entry.getValue().getMaxDay());
+            assertEquals("Dead", hardDrive.isDead(), entry.getValue().isDead());
+            iterated++;
+        }
+
+        assertEquals("Iterated", expected.size(), iterated);
+
+    }
+
+}
@@ -0,0 +1,132 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ParseCacheTest {
+
+    @Test
+    public void testCachedRunsMatchExpected() throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        new SyntheticDataGenerator().setSeed(3).setFleetSize(300).setDays(20).generate(directory);
+
+        File data = new File(directory, "data");
+        File cache = new File(directory, "cache");
+        int files = data.listFiles().length;
+
+        Map<String, HardDrive> expected = SyntheticDataGenerator.readExpected(directory);
+
+        Application first = new Application(new Options().setDataDirectory(data).setCacheDirectory(cache));
+        assertDrives(expected, first.calculateFromFiles());
+        assertEquals("Built", files, first.getParseCache().getBuilt());
+
+        Application second = new Application(new Options().setDataDirectory(data).setCacheDirectory(cache));
+        assertDrives(expected, second.calculateFromFiles());
+        assertEquals("Hits", files, second.getParseCache().getHits());
+        assertEquals("Built again", 0, second.getParseCache().getBuilt());
+
+        // A file which grew is read again
+        File last = data.listFiles()[0];
+        String date = Files.readAllLines(last.toPath()).get(1).substring(0, 10);
+        Files.write(last.toPath(), (date + ",CACHE-NEW,CACHE-TEST,1,1\n").getBytes(StandardCharsets.ISO_8859_1),
+                StandardOpenOption.APPEND);
+
+        Application third = new Application(new Options().setDataDirectory(data).setCacheDirectory(cache));
+        Map<String, HardDrive> drives = third.calculateFromFiles();
+        assertEquals("Built after change", 1, third.getParseCache().getBuilt());
+        assertTrue("New drive", drives.get("CACHE-NEW").isDead());
+    }
+
+    @Test
+    public void testVerifyChecksum() throws Exception {
+
+        File data = Files.createTempDirectory("cached").toFile();
+        File cache = Files.createTempDirectory("cache").toFile();
+        File file = new File(data, "2013-04-10.csv");
+
+        Files.write(file.toPath(), ("date,serial_number,model,capacity_bytes,failure\n"
+                + "2013-04-10,B,CACHE-TEST,1,0\n"
+                + "2013-04-10,A,CACHE-TEST,1,0\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        ParseCache parseCache = new ParseCache(cache, true);
+        ParseCache.Digest digest = parseCache.digest(file);
+        assertEquals("Records", 2, digest.getRecords());
+        assertEquals("Day", HardDrive.toEpochDay(2013, 4, 10), digest.getDay());
+
+        // Same size and time, different content: only the checksum notices
+        long lastModified = file.lastModified();
+        Files.write(file.toPath(), ("date,serial_number,model,capacity_bytes,failure\n"
+                + "2013-04-10,B,CACHE-TEST,1,1\n"
+                + "2013-04-10,A,CACHE-TEST,1,0\n").getBytes(StandardCharsets.ISO_8859_1));
+        file.setLastModified(lastModified);
+
+        ParseCache unverified = new ParseCache(cache, false);
+        unverified.digest(file);
+        assertEquals("Unverified hits", 1, unverified.getHits());
+
+        parseCache.digest(file);
+        assertEquals("Built after checksum changed", 2, parseCache.getBuilt());
+
+        // The records are sorted by serial number
+        StringBuilder serials = new StringBuilder();
+        parseCache.digest(file).read(cursor -> {
+            while (cursor.next()) {
+                serials.append(cursor.getID()).append(cursor.isDead() ? "+" : "-");
+            }
+        });
+        assertEquals("Records", "A-B+", serials.toString());
+
+        // Unchanged files are verified against the checksum taken while building
+        assertNotNull("Verified", parseCache.digest(file));
+        assertEquals("Verified hits", 2, parseCache.getHits());
+    }
+
+    @Test
+    public void testFilteredAndSeveralDays() throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        new SyntheticDataGenerator().setSeed(4).setFleetSize(300).setDays(10).generate(directory);
+
+        File data = new File(directory, "data");
+        File cache = new File(directory, "cache");
+
+        Map<String, HardDrive> expected = SyntheticDataGenerator.readExpected(directory);
+        String model = expected.values().iterator().next().getModel();
+
+        Options options = new Options().setDataDirectory(data).setModels(Set.of(model));
+        Map<String, HardDrive> uncached = new Application(options).calculateFromFiles();
+
+        for (int run = 0; run < 2; run++) {
+            assertDrives(uncached, new Application(options.setCacheDirectory(cache)).calculateFromFiles());
+        }
+
+        File file = new File(data, "several-days.csv");
+        Files.write(file.toPath(), ("date,serial_number,model,capacity_bytes,failure\n"
+                + "2013-04-10,A,CACHE-TEST,1,0\n"
+                + "2013-04-11,A,CACHE-TEST,1,1\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        assertNull("Several days", new ParseCache(cache, false).digest(file));
+
+        Map<String, HardDrive> drives = new Application(new Options().setDataDirectory(data).setCacheDirectory(cache))
+                .calculateFromFiles();
+        assertEquals("Read as usual", new HardDrive("2013-04-10", "2013-04-11", "CACHE-TEST", true).toString(),
+                drives.get("A").toString());
+    }
+
+    private static void assertDrives(Map<String, HardDrive> expected, Map<String, HardDrive> drives) {
+        assertEquals("Drives", expected.size(), drives.size());
+        for (Map.Entry<String, HardDrive> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().toString(), drives.get(entry.getKey()).toString());
+        }
+    }
+
+}
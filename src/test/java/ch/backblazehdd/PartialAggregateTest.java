@@ -0,0 +1,118 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class PartialAggregateTest {
+
+    @Test
+    public void testWriteAndMerge() throws Exception {
+
+        Map<String, HardDrive> first = new TreeMap<>();
+        first.put("A", new HardDrive("2013-04-10", "2013-05-01", "ST31500341AS", false));
+        first.put("B", new HardDrive("2013-04-10", "2013-04-20", "ST4000DM000", true));
+
+        Map<String, HardDrive> second = new TreeMap<>();
+        second.put("A", new HardDrive("2013-05-02", "2013-06-01", "ST31500341AS", true));
+        second.put("C", new HardDrive("2013-05-02", "2013-05-03", "Hitachi HDS5C3030ALA630", false));
+
+        File firstFile = File.createTempFile("partial", ".bin");
+        File secondFile = File.createTempFile("partial", ".bin");
+        File mergedFile = File.createTempFile("merged", ".bin");
+
+        PartialAggregate.write(firstFile, first);
+        PartialAggregate.write(secondFile, second);
+
+        assertEquals("Round trip", first.toString(), PartialAggregate.read(firstFile).toString());
+
+        assertEquals("Merged drives", 3, PartialAggregate.merge(Arrays.asList(firstFile, secondFile), mergedFile));
+
+        Map<String, HardDrive> merged = PartialAggregate.read(mergedFile);
+        assertEquals("A", new HardDrive(first.get("A"), second.get("A")).toString(), merged.get("A").toString());
+        assertEquals("B", first.get("B").toString(), merged.get("B").toString());
+        assertEquals("C", second.get("C").toString(), merged.get("C").toString());
+    }
+
+    @Test
+    public void testFailedWriteKeepsPreviousFile() throws Exception {
+
+        Map<String, HardDrive> drives = new TreeMap<>();
+        drives.put("A", new HardDrive("2013-04-10", "2013-05-01", "ST31500341AS", false));
+
+        File file = File.createTempFile("partial", ".bin");
+        PartialAggregate.write(file, drives);
+        byte[] previous = Files.readAllBytes(file.toPath());
+
+        try (PartialAggregate.Writer writer = new PartialAggregate.Writer(file, List.of("ST31500341AS"))) {
+            writer.add("B", drives.get("A"));
+            writer.add("A", drives.get("A"));
+            writer.commit();
+            fail("Out of order");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertArrayEquals("Previous file", previous, Files.readAllBytes(file.toPath()));
+        assertFalse("Temporary file", new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testMergeAcrossProcesses() throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        new SyntheticDataGenerator().setSeed(11).setFleetSize(400).setDays(40).setAnnualChurnRate(0.5)
+                .generate(directory);
+
+        // One part per node, by date like a split by year
+        File[] files = new File(directory, "data").listFiles();
+        Arrays.sort(files);
+
+        List<File> partials = new ArrayList<>();
+        List<Process> processes = new ArrayList<>();
+
+        for (int node = 0; node < 3; node++) {
+
+            File part = new File(directory, "part" + node);
+            part.mkdir();
+            for (int i = node * files.length / 3; i < (node + 1) * files.length / 3; i++) {
+                Files.copy(files[i].toPath(), new File(part, files[i].getName()).toPath());
+            }
+
+            File partial = new File(directory, "part" + node + ".bin");
+            partials.add(partial);
+
+            processes.add(new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), Application.class.getName(),
+                    "--data=" + part, "--partial=" + partial, "--parallelism=2")
+                    .inheritIO()
+                    .start());
+        }
+
+        for (Process process : processes) {
+            assertEquals("Exit code", 0, process.waitFor());
+        }
+
+        File merged = new File(directory, "merged.bin");
+        PartialAggregate.merge(partials, merged);
+
+        Map<String, HardDrive> expected = SyntheticDataGenerator.readExpected(directory);
+        Map<String, HardDrive> drives = PartialAggregate.read(merged);
+
+        assertEquals("Drives", expected.size(), drives.size());
+        for (Map.Entry<String, HardDrive> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().toString(), drives.get(entry.getKey()).toString());
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class RecordCursorTest {
+
+    private static final String HEADER = "date,serial_number,model,capacity_bytes,failure,smart_1_normalized,smart_1_raw\n";
+
+    private static RecordCursor cursorOf(String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.ISO_8859_1);
+        return new RecordCursor(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    @Test
+    public void testReadRecord() {
+
+        RecordCursor cursor = cursorOf("2013-04-10,9VS3FM1J,ST31500341AS,1500301910016,1,,222508045\n");
+
+        assertTrue("Record", cursor.next());
+        assertEquals("ID", "9VS3FM1J", cursor.getID());
+        assertEquals("Date", "2013-04-10", cursor.getDate());
+        assertEquals("Day", 15805, cursor.getDay());
+        assertEquals("Model", "ST31500341AS", cursor.getModel());
+        assertEquals("Model ID", ModelDictionary.getId("ST31500341AS"), cursor.getModelId());
+        assertTrue("Dead", cursor.isDead());
+        assertFalse("End", cursor.next());
+
+    }
+
+    @Test
+    public void testSameAsLineParse() {
+
+        String line = "2013-04-10,MJ0351YNG9Z7LA,Hitachi HDS5C3030ALA630,3000592982016,0,,0,,,,,,,,0,,,,,,3593,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,26,,,,,,0,,,,,,,,,,,,,,,,,,,,,,,,,,,,";
+
+        RecordCursor cursor = cursorOf(line);
+        assertTrue("Record", cursor.next());
+
+        HardDrive expected = new HardDrive(line);
+        HardDrive hardDrive = cursor.toHardDrive();
+
+        assertEquals("ID", HardDrive.getID(line), cursor.getID());
+        assertEquals("Min", expected.getMin(), hardDrive.getMin());
+        assertEquals("Max", expected.getMax(), hardDrive.getMax());
+        assertEquals("Model", expected.getModel(), hardDrive.getModel());
+        assertEquals("Dead", expected.isDead(), hardDrive.isDead());
+
+    }
+
+    @Test
+    public void testSkipsEmptyAndBrokenLines() {
+
+        RecordCursor cursor = cursorOf("\n2013-04-10,broken\r\n2013-04-10,6XW0SVS9,ST31500541AS,1500301910016,0,,87406718\r\n");
+
+        assertTrue("Record", cursor.next());
+        assertEquals("ID", "6XW0SVS9", cursor.getID());
+        assertFalse("Dead", cursor.isDead());
+        assertFalse("End", cursor.next());
+
+    }
+
+    @Test
+    public void testCachedStrings() {
+
+        RecordCursor cursor = cursorOf("2013-04-10,A,ST31500541AS,1,0\n2013-04-10,B,ST31500541AS,1,0\n");
+
+        cursor.next();
+        String model = cursor.getModel();
+        String date = cursor.getDate();
+
+        cursor.next();
+        assertSame("Model", model, cursor.getModel());
+        assertSame("Date", date, cursor.getDate());
+
+    }
+
+    @Test
+    public void testMapSkipsHeader() throws Exception {
+
+        File file = File.createTempFile("2013-04-10", ".csv");
+        file.deleteOnExit();
+
+        Files.write(file.toPath(), (HEADER + "2013-04-10,6XW0SVS9,ST31500541AS,1500301910016,0,,87406718").getBytes(StandardCharsets.ISO_8859_1));
+
+        RecordCursor cursor = RecordCursor.map(file);
+
+        assertTrue("Record", cursor.next());
+        assertEquals("ID", "6XW0SVS9", cursor.getID());
+        assertFalse("End", cursor.next());
+
+    }
+
+    @Test
+    public void testReorderedColumns() throws Exception {
+
+        File file = File.createTempFile("2019-01-01", ".csv");
+        file.deleteOnExit();
+
+        String header = "serial_number,date,capacity_bytes,smart_9_raw,model,failure,smart_194_raw\n";
+        String first = "ZJV0XJQ4,2019-01-01,12000138625024,7000,ST12000NM0007,0,31\n";
+        String second = "ZJV0XJQ5,2019-01-01,12000138625024,,ST12000NM0007,1,\n";
+
+        Files.write(file.toPath(), (header + first + second).getBytes(StandardCharsets.ISO_8859_1));
+
+        RecordCursor cursor = RecordCursor.map(file);
+
+        Schema schema = cursor.getSchema();
+        assertFalse("Standard", schema.isStandard());
+        int powerOnHours = schema.indexOf("smart_9_raw");
+        int temperature = schema.indexOf("smart_194_raw");
+        assertEquals("Missing", -1, schema.indexOf("smart_5_raw"));
+
+        assertTrue("Record", cursor.next());
+        assertEquals("ID", "ZJV0XJQ4", cursor.getID());
+        assertEquals("Date", "2019-01-01", cursor.getDate());
+        assertEquals("Model", "ST12000NM0007", cursor.getModel());
+        assertFalse("Dead", cursor.isDead());
+        assertEquals("Power on hours", 7000, cursor.getLong(powerOnHours, -1));
+        assertEquals("Temperature", 31, cursor.getLong(temperature, -1));
+        assertEquals("Missing column", -1, cursor.getLong(-1, -1));
+
+        assertTrue("Record", cursor.next());
+        assertEquals("ID", "ZJV0XJQ5", cursor.getID());
+        assertTrue("Dead", cursor.isDead());
+        assertFalse("Empty", cursor.hasValue(powerOnHours));
+        assertEquals("Empty last column", -1, cursor.getLong(temperature, -1));
+        assertFalse("End", cursor.next());
+
+        // A range in the middle of the file reads the header separately
+        RecordCursor range = RecordCursor.map(file, header.length() + first.length(), file.length());
+        assertSame("Shared schema", schema, range.getSchema());
+        assertTrue("Record", range.next());
+        assertEquals("ID", "ZJV0XJQ5", range.getID());
+        assertTrue("Dead", range.isDead());
+    }
+
+    @Test
+    public void testNamedColumnOfStandardFile() throws Exception {
+
+        File file = File.createTempFile("2013-04-10", ".csv");
+        file.deleteOnExit();
+
+        Files.write(file.toPath(), (HEADER + "2013-04-10,6XW0SVS9,ST31500541AS,1500301910016,0,100,87406718\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        RecordCursor cursor = RecordCursor.map(file);
+
+        assertTrue("Standard", cursor.getSchema().isStandard());
+        assertTrue("Record", cursor.next());
+        assertEquals("Raw", 87406718, cursor.getLong(cursor.getSchema().indexOf("smart_1_raw"), -1));
+        assertEquals("Normalized", 100, cursor.getLong(cursor.getSchema().indexOf("smart_1_normalized"), -1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingColumn() throws Exception {
+
+        File file = File.createTempFile("2013-04-10", ".csv");
+        file.deleteOnExit();
+
+        Files.write(file.toPath(), "date,model,failure\n2013-04-10,ST31500541AS,0\n".getBytes(StandardCharsets.ISO_8859_1));
+
+        RecordCursor.map(file);
+    }
+
+}
@@ -0,0 +1,130 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class RecordFilterTest {
+
+    @Test
+    public void testBloomFilter() {
+
+        BloomFilter bloomFilter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            bloomFilter.add("SERIAL" + i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue("Added " + i, mightContain(bloomFilter, "SERIAL" + i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 1000; i < 11000; i++) {
+            if (mightContain(bloomFilter, "SERIAL" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void testCursorSkipsRejectedLines() {
+
+        byte[] bytes = ("2013-04-10,A1,ST4000DM000,1,0\n"
+                + "2013-04-10,A2,HGST HMS5C4040ALE640,1,0\n"
+                + "2013-04-10,A3,ST8000DM002,1,1\n"
+                + "2013-04-10,A4,WDC WD30EFRX,1,0\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        RecordCursor cursor = new RecordCursor(ByteBuffer.wrap(bytes), 0, bytes.length);
+        cursor.setFilter(new RecordFilter(List.of("ST"), Set.of("WDC WD30EFRX"), Collections.emptySet()));
+
+        StringBuilder ids = new StringBuilder();
+        while (cursor.next()) {
+            ids.append(cursor.getID()).append(' ');
+        }
+        assertEquals("Records", "A1 A3 A4 ", ids.toString());
+        assertEquals("Rejected", 1, cursor.getRejected());
+
+        cursor = new RecordCursor(ByteBuffer.wrap(bytes), 0, bytes.length);
+        cursor.setFilter(new RecordFilter(List.of("ST"), Collections.emptySet(), Set.of("A2", "A3")));
+
+        ids.setLength(0);
+        while (cursor.next()) {
+            ids.append(cursor.getID()).append(cursor.isDead() ? "+" : "-");
+        }
+        assertEquals("Records", "A3+", ids.toString());
+        assertEquals("Rejected", 3, cursor.getRejected());
+    }
+
+    @Test
+    public void testApplicationReadsOnlyFilteredDrives() throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        new SyntheticDataGenerator().setSeed(8).setFleetSize(300).setDays(10).generate(directory);
+
+        Map<String, HardDrive> expected = SyntheticDataGenerator.readExpected(directory);
+        String model = expected.values().iterator().next().getModel();
+
+        Map<String, HardDrive> expectedOfModel = expected.entrySet().stream()
+                .filter(entry -> entry.getValue().getModel().equals(model))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+        File serialFile = new File(directory, "serials.txt");
+        List<String> serials = expectedOfModel.keySet().stream().limit(5).collect(Collectors.toList());
+        Files.write(serialFile.toPath(), serials);
+
+        for (AggregationMode mode : AggregationMode.values()) {
+
+            Options options = Options.parse(new String[]{"--data=" + new File(directory, "data"), "--models=" + model});
+            Map<String, HardDrive> drives = new Application(options.setAggregationMode(mode)).calculateFromFiles();
+            assertEquals(mode + " drives", expectedOfModel.size(), drives.size());
+            for (Map.Entry<String, HardDrive> entry : expectedOfModel.entrySet()) {
+                assertEquals(mode + " " + entry.getKey(), entry.getValue().toString(), drives.get(entry.getKey()).toString());
+            }
+
+            options = Options.parse(new String[]{"--data=" + new File(directory, "data"), "--serials=" + serialFile});
+            drives = new Application(options.setAggregationMode(mode)).calculateFromFiles();
+            assertEquals(mode + " serials", Set.copyOf(serials), Set.copyOf(drives.keySet()));
+        }
+    }
+
+    @Test
+    public void testCheckpointOfOtherFilter() throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        new SyntheticDataGenerator().setSeed(10).setFleetSize(300).setDays(10).generate(directory);
+
+        Map<String, HardDrive> expected = SyntheticDataGenerator.readExpected(directory);
+        String model = expected.values().iterator().next().getModel();
+
+        File data = new File(directory, "data");
+        File checkpoint = new File(directory, "checkpoint.bin");
+
+        Application filtered = new Application(new Options().setDataDirectory(data).setModels(Set.of(model)));
+        Map<String, HardDrive> drives = filtered.calculateIncrementally(filtered.listDataFiles(), checkpoint);
+        assertTrue("Filtered", drives.size() < expected.size());
+        assertEquals("Filter saved", List.of("models=" + model), Checkpoint.load(checkpoint).getFilter());
+
+        // All files are absorbed, but only with the records of the model
+        Application all = new Application(new Options().setDataDirectory(data));
+        drives = all.calculateIncrementally(all.listDataFiles(), checkpoint);
+        assertEquals("Drives", expected.size(), drives.size());
+        assertEquals("Filter replaced", Collections.emptyList(), Checkpoint.load(checkpoint).getFilter());
+    }
+
+    private static boolean mightContain(BloomFilter bloomFilter, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        return bloomFilter.mightContain(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+}
@@ -0,0 +1,53 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SmartQuantilesTest {
+
+    @Test
+    public void testAllModes() throws Exception {
+
+        File directory = Files.createTempDirectory("quantiles").toFile();
+
+        // 2013-06-30 and 2013-07-01 fall into different quarters
+        for (String date : new String[]{"2013-06-30", "2013-07-01"}) {
+            StringBuilder lines = new StringBuilder("date,serial_number,model,capacity_bytes,failure,smart_194_raw\n");
+            for (int i = 0; i < 1000; i++) {
+                int temperature = date.endsWith("30") ? 20 + i % 10 : 40 + i % 10;
+                lines.append(date).append(",Q").append(i).append(",QUANTILE-TEST,1,0,").append(temperature).append('\n');
+            }
+            Files.write(new File(directory, date + ".csv").toPath(), lines.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        List<String> attributes = Collections.singletonList("smart_194_raw");
+
+        for (AggregationMode mode : AggregationMode.values()) {
+
+            Options options = new Options(mode).setParallelism(2).setDataDirectory(directory)
+                    .setQuantileAttributes(attributes);
+            Application application = new Application(options);
+            application.calculateFromFiles();
+
+            SmartQuantiles quantiles = application.getSideAggregates().get(SmartQuantiles.class);
+
+            KllSketch second = quantiles.getSketch("QUANTILE-TEST", "2013-Q2", 0);
+            assertEquals(mode + " Q2 count", 1000, second.getCount());
+            assertEquals(mode + " Q2 median", 24, second.getQuantile(0.5));
+            assertEquals(mode + " Q2 max", 29, second.getMax());
+
+            KllSketch third = quantiles.getSketch("QUANTILE-TEST", "2013-Q3", 0);
+            assertEquals(mode + " Q3 count", 1000, third.getCount());
+            assertEquals(mode + " Q3 min", 40, third.getMin());
+            assertEquals(mode + " Q3 p90", 48, third.getQuantile(0.9));
+        }
+    }
+
+}
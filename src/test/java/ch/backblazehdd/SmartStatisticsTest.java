@@ -0,0 +1,89 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SmartStatisticsTest {
+
+    private static final String HEADER = "date,serial_number,model,capacity_bytes,failure,smart_5_raw,smart_9_raw\n";
+
+    @Test
+    public void testAllModes() throws Exception {
+
+        File directory = Files.createTempDirectory("smart").toFile();
+
+        Files.write(new File(directory, "2013-04-10.csv").toPath(), (HEADER
+                + "2013-04-10,A,SMART-TEST-1,1,0,0,100\n"
+                + "2013-04-10,B,SMART-TEST-1,1,0,,200\n"
+                + "2013-04-10,C,SMART-TEST-2,1,0,3,50\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        // Columns moved, the statistics must follow them
+        Files.write(new File(directory, "2013-04-11.csv").toPath(), ("date,serial_number,model,capacity_bytes,failure,smart_9_raw,smart_5_raw\n"
+                + "2013-04-11,A,SMART-TEST-1,1,0,124,2\n"
+                + "2013-04-11,B,SMART-TEST-1,1,1,224,\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        List<String> attributes = Arrays.asList("smart_5_raw", "smart_9_raw");
+
+        for (AggregationMode mode : AggregationMode.values()) {
+
+            Options options = new Options(mode).setParallelism(2).setDataDirectory(directory)
+                    .setSmartAttributes(attributes);
+            Application application = new Application(options);
+
+            assertEquals(mode + " drives", 3, application.calculateFromFiles().size());
+
+            SmartStatistics statistics = application.getSideAggregates().get(SmartStatistics.class);
+
+            int model = ModelDictionary.getId("SMART-TEST-1");
+            assertEquals(mode + " smart_5 count", 2, statistics.getModelCount(model, 0));
+            assertEquals(mode + " smart_9 count", 4, statistics.getModelCount(model, 1));
+            assertEquals(mode + " smart_9 mean", 162.0, statistics.getModelMean(model, 1), 1e-9);
+            assertEquals(mode + " smart_9 max", 224, statistics.getModelMax(model, 1));
+
+            int drive = statistics.getDrive("A");
+            assertEquals(mode + " A smart_5 min", 0, statistics.getDriveMin(drive, 0));
+            assertEquals(mode + " A smart_5 max", 2, statistics.getDriveMax(drive, 0));
+            assertEquals(mode + " A smart_9 last", 124, statistics.getDriveLast(drive, 1));
+
+            drive = statistics.getDrive("B");
+            assertEquals(mode + " B smart_5 count", 0, statistics.getDriveCount(drive, 0));
+            assertEquals(mode + " B smart_9 last", 224, statistics.getDriveLast(drive, 1));
+        }
+    }
+
+    @Test
+    public void testDriveModelMatchesResults() throws Exception {
+
+        File directory = Files.createTempDirectory("smart").toFile();
+
+        // The model of D changes within the file, the first one is kept
+        Files.write(new File(directory, "2013-04-10.csv").toPath(), (HEADER
+                + "2013-04-10,D,SMART-TEST-1,1,0,0,100\n"
+                + "2013-04-10,D,SMART-TEST-3,1,0,0,101\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        for (AggregationMode mode : AggregationMode.values()) {
+
+            Application application = new Application(new Options(mode).setParallelism(1).setDataDirectory(directory)
+                    .setSmartAttributes(Arrays.asList("smart_9_raw")));
+            HardDrive hardDrive = application.calculateFromFiles().get("D");
+
+            SmartStatistics statistics = application.getSideAggregates().get(SmartStatistics.class);
+            assertEquals(mode + " model", hardDrive.getModelId(), statistics.getDriveModel(statistics.getDrive("D")));
+            assertEquals(mode + " first model", ModelDictionary.getId("SMART-TEST-1"), hardDrive.getModelId());
+        }
+    }
+
+    @Test
+    public void testParseOption() {
+        assertEquals("Attributes", Arrays.asList("smart_5_raw", "smart_9_raw", "smart_194_normalized"),
+                Options.parse(new String[]{"--smart=5,smart_9,smart_194_normalized"}).getSmartAttributes());
+    }
+
+}
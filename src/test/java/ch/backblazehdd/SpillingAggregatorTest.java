@@ -0,0 +1,115 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SpillingAggregatorTest {
+
+    @Test
+    public void testSpillsUnderSmallBudget() throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        new SyntheticDataGenerator().setSeed(7).setFleetSize(500).setDays(30).setAnnualChurnRate(0.5)
+                .generate(directory);
+
+        Map<String, HardDrive> expected = SyntheticDataGenerator.readExpected(directory);
+
+        File spillDirectory = Files.createTempDirectory("runs").toFile();
+
+        // Room for 50 drives per worker, far fewer than the fleet
+        Options options = new Options(AggregationMode.SPILL).setParallelism(2)
+                .setDataDirectory(new File(directory, "data"))
+                .setMemoryBudget(100 * SpillingAggregator.BYTES_PER_DRIVE)
+                .setPartitions(8)
+                .setSpillDirectory(spillDirectory);
+
+        Map<String, HardDrive> drives = new Application(options).calculateFromFiles();
+
+        assertTrue("Spilled drives", drives instanceof SpilledDrives);
+
+        // Iterating hands out every drive once, partition by partition
+        Map<String, HardDrive> iterated = new HashMap<>();
+        for (Map.Entry<String, HardDrive> entry : drives.entrySet()) {
+            assertNull("Duplicate " + entry.getKey(), iterated.put(entry.getKey(), entry.getValue()));
+        }
+
+        assertEquals("Drives", expected.size(), iterated.size());
+        assertEquals("Size", expected.size(), drives.size());
+        for (Map.Entry<String, HardDrive> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().toString(), iterated.get(entry.getKey()).toString());
+        }
+
+        ((SpilledDrives) drives).delete();
+        assertArrayEquals("Run files left", new String[0], spillDirectory.list());
+    }
+
+    @Test
+    public void testPartialAndCheckpointStreamed() throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        new SyntheticDataGenerator().setSeed(9).setFleetSize(400).setDays(20).generate(directory);
+
+        Map<String, HardDrive> expected = SyntheticDataGenerator.readExpected(directory);
+
+        File spillDirectory = Files.createTempDirectory("runs").toFile();
+        Options options = new Options(AggregationMode.SPILL).setParallelism(2)
+                .setDataDirectory(new File(directory, "data"))
+                .setMemoryBudget(100 * SpillingAggregator.BYTES_PER_DRIVE)
+                .setPartitions(8)
+                .setSpillDirectory(spillDirectory);
+
+        Application application = new Application(options);
+        Map<String, HardDrive> drives = application.calculateFromFiles();
+
+        File partial = new File(directory, "part.bin");
+        PartialAggregate.write(partial, drives);
+        assertDrives("Partial", expected, PartialAggregate.read(partial));
+
+        ((SpilledDrives) drives).delete();
+        assertArrayEquals("Files left", new String[0], spillDirectory.list());
+
+        // The first checkpoint is saved from the runs, which are handed on
+        File checkpoint = new File(directory, "checkpoint.bin");
+        drives = application.calculateIncrementally(application.listDataFiles(), checkpoint);
+        assertTrue("Spilled drives", drives instanceof SpilledDrives);
+        assertDrives("Checkpoint", expected, Checkpoint.load(checkpoint).getDrives());
+        ((SpilledDrives) drives).delete();
+
+        // Updates merged over the spilled drives
+        drives = application.calculateFromFiles();
+        MergedDrives merged = new MergedDrives(drives);
+        String serial = expected.keySet().iterator().next();
+        HardDrive update = new HardDrive(expected.get(serial).getMaxDay() + 1, expected.get(serial).getMaxDay() + 1,
+                expected.get(serial).getModelId(), true);
+        merged.merge(Map.of(serial, update, "MERGED-NEW", update));
+
+        assertEquals("Size", expected.size() + 1, merged.size());
+        assertTrue("Updated", merged.get(serial).isDead());
+        assertEquals("Updated max", update.getMaxDay(), merged.get(serial).getMaxDay());
+        assertEquals("Updated min", expected.get(serial).getMinDay(), merged.get(serial).getMinDay());
+        assertEquals("Iterated", update.toString(), new HashMap<>(merged).get("MERGED-NEW").toString());
+        ((SpilledDrives) drives).delete();
+    }
+
+    private static void assertDrives(String label, Map<String, HardDrive> expected, Map<String, HardDrive> drives) {
+        assertEquals(label + " drives", expected.size(), drives.size());
+        for (Map.Entry<String, HardDrive> entry : expected.entrySet()) {
+            assertEquals(label + " " + entry.getKey(), entry.getValue().toString(), drives.get(entry.getKey()).toString());
+        }
+    }
+
+    @Test
+    public void testParseOptions() {
+        Options options = Options.parse(new String[]{"--mode=spill", "--memory=64", "--partitions=16"});
+        assertEquals("Mode", AggregationMode.SPILL, options.getAggregationMode());
+        assertEquals("Memory", 64L << 20, options.getMemoryBudget());
+        assertEquals("Partitions", 16, options.getPartitions());
+    }
+
+}
@@ -0,0 +1,92 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class StagedPipelineTest {
+
+    @Test
+    public void testSameAsLineParse() throws Exception {
+
+        StringBuilder content = new StringBuilder("date,serial_number,model,capacity_bytes,failure\n");
+
+        for (int i = 0; i < 5000; i++) {
+            content.append("2013-04-").append(10 + i % 20).append(",SERIAL").append(i % 1234)
+                    .append(",ST31500541AS,1500301910016,").append(i % 777 == 0 ? 1 : 0).append("\n");
+        }
+
+        File file = File.createTempFile("2013-04-10", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        Options options = new Options().setReaders(2).setParsers(3).setShards(2).setQueueCapacity(1);
+
+        Map<String, HardDrive> map = new StagedPipeline(options).run(FileSplitter.split(new File[]{file}, 4096));
+
+        assertEquals("Drives", 1234, map.size());
+
+        String[] lines = content.toString().split("\n");
+        for (int i = 1; i < lines.length; i++) {
+            HardDrive expected = new HardDrive(lines[i]);
+            HardDrive hardDrive = map.get(HardDrive.getID(lines[i]));
+            assertTrue("Min", hardDrive.getMinDay() <= expected.getMinDay());
+            assertTrue("Max", hardDrive.getMaxDay() >= expected.getMaxDay());
+            assertTrue("Dead", hardDrive.isDead() || !expected.isDead());
+        }
+
+        assertTrue("Dead", map.get("SERIAL0").isDead());
+        assertEquals("Min", "2013-04-10", map.get("SERIAL0").getMin());
+
+    }
+
+    @Test(timeout = 10000)
+    public void testParserFailureEndsRun() throws Exception {
+
+        List<InputSplit> splits = new ArrayList<>();
+
+        for (int i = 0; i < 50; i++) {
+            splits.add(new InputSplit() {
+
+                @Override
+                public String getName() {
+                    return "failing";
+                }
+
+                @Override
+                public long getLength() {
+                    return 1;
+                }
+
+                @Override
+                public void read(CursorConsumer consumer) throws InterruptedException {
+                    consumer.accept(new RecordCursor(ByteBuffer.allocate(0), 0, 0) {
+                        @Override
+                        public boolean next() {
+                            throw new IllegalStateException("Broken cursor");
+                        }
+                    });
+                }
+            });
+        }
+
+        Options options = new Options().setReaders(2).setParsers(2).setShards(2).setQueueCapacity(1);
+
+        try {
+            new StagedPipeline(options).run(splits);
+            fail("Parsers failed");
+        } catch (ExecutionException e) {
+            assertEquals("Cause", "Broken cursor", e.getCause().getMessage());
+        }
+    }
+
+}
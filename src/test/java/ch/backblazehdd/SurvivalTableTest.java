@@ -0,0 +1,75 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SurvivalTableTest {
+
+    @Test
+    public void testEstimate() {
+
+        int model = ModelDictionary.getId("SURVIVAL-TEST");
+
+        List<SurvivalTable.Row> rows = SurvivalTable.estimate("model,SURVIVAL-TEST", Arrays.asList(
+                new HardDrive(0, 1, model, true),
+                new HardDrive(0, 2, model, false),
+                new HardDrive(0, 3, model, true),
+                new HardDrive(10, 13, model, true),
+                new HardDrive(0, 5, model, false)));
+
+        assertEquals("Rows", 4, rows.size());
+
+        SurvivalTable.Row first = rows.get(0);
+        assertEquals("Time", 1, first.getTime());
+        assertEquals("At risk", 5, first.getAtRisk());
+        assertEquals("Survival", 0.8, first.getSurvival(), 1e-12);
+        assertEquals("Standard error", Math.sqrt(0.05), first.getStandardError(), 1e-12);
+
+        SurvivalTable.Row censored = rows.get(1);
+        assertEquals("Censored", 1, censored.getCensored());
+        assertEquals("Survival after censoring", 0.8, censored.getSurvival(), 1e-12);
+
+        SurvivalTable.Row third = rows.get(2);
+        assertEquals("At risk", 3, third.getAtRisk());
+        assertEquals("Events", 2, third.getEvents());
+        assertEquals("Survival", 0.8 / 3, third.getSurvival(), 1e-12);
+        assertEquals("Standard error", Math.sqrt(0.05 + 2.0 / 3), third.getStandardError(), 1e-12);
+        assertEquals("Lower", 0.8 / 3 * Math.exp(-1.959964 * third.getStandardError()), third.getLower(), 1e-6);
+        assertEquals("Upper, capped", 1.0, third.getUpper(), 1e-12);
+
+        assertEquals("Last at risk", 1, rows.get(3).getAtRisk());
+    }
+
+    @Test
+    public void testSmallModelsLeftOut() {
+
+        ModelMapper.addKnownModel("SURVIVAL-BIG", new Model("Big", "Survival"));
+        ModelMapper.addKnownModel("SURVIVAL-SMALL", new Model("Small", "Survival"));
+
+        int big = ModelDictionary.getId("SURVIVAL-BIG");
+        int small = ModelDictionary.getId("SURVIVAL-SMALL");
+
+        Map<String, HardDrive> drives = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            drives.put("B" + i, new HardDrive(0, i, big, i % 2 == 0));
+        }
+        for (int i = 0; i < 5; i++) {
+            drives.put("S" + i, new HardDrive(0, i, small, true));
+        }
+
+        SurvivalTable table = SurvivalTable.compute(drives, 2, 10);
+
+        assertEquals("Groups", 3, table.getGroupSizes().size());
+        assertEquals("Model", Integer.valueOf(20), table.getGroupSizes().get("Big"));
+        assertEquals("Manufacturer", Integer.valueOf(20), table.getGroupSizes().get("Survival"));
+        assertEquals("All", Integer.valueOf(20), table.getGroupSizes().get("All Drives"));
+        assertTrue("Small model", table.getRows("Small").isEmpty());
+    }
+
+}
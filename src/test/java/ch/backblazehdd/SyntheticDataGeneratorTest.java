@@ -0,0 +1,83 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class SyntheticDataGeneratorTest {
+
+    @Test
+    public void testAllModesMatchExpected() throws Exception {
+        assertModesMatchExpected(generator().setZip(false));
+    }
+
+    @Test
+    public void testAllModesMatchExpectedFromArchives() throws Exception {
+        assertModesMatchExpected(generator().setZip(true));
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+
+        File first = Files.createTempDirectory("synthetic").toFile();
+        File second = Files.createTempDirectory("synthetic").toFile();
+
+        generator().generate(first);
+        generator().generate(second);
+
+        assertEquals("Expected",
+                Files.readAllLines(new File(first, "expected.csv").toPath()),
+                Files.readAllLines(new File(second, "expected.csv").toPath()));
+    }
+
+    private static SyntheticDataGenerator generator() {
+        return new SyntheticDataGenerator()
+                .setSeed(42)
+                .setFleetSize(300)
+                .setDays(120)
+                .setAnnualFailureRate(0.2)
+                .setAnnualChurnRate(0.5)
+                .setSmartAttributes(4);
+    }
+
+    private static void assertModesMatchExpected(SyntheticDataGenerator generator) throws Exception {
+
+        File directory = Files.createTempDirectory("synthetic").toFile();
+        Properties properties = generator.generate(directory);
+
+        Map<String, HardDrive> expected = SyntheticDataGenerator.readExpected(directory);
+        assertEquals("Drives", Integer.parseInt(properties.getProperty("drives")), expected.size());
+        assertTrue("Failures", Integer.parseInt(properties.getProperty("failures")) > 0);
+
+        for (AggregationMode mode : AggregationMode.values()) {
+
+            Options options = new Options(mode).setParallelism(3).setDataDirectory(new File(directory, "data"));
+            Application application = new Application(options);
+
+            Map<String, HardDrive> drives = application.calculateFromFiles();
+
+            assertEquals(mode + " drives", expected.size(), drives.size());
+            for (Map.Entry<String, HardDrive> entry : expected.entrySet()) {
+                HardDrive hardDrive = drives.get(entry.getKey());
+                assertNotNull(mode + " " + entry.getKey(), hardDrive);
+                assertEquals(mode + " " + entry.getKey(), entry.getValue().toString(), hardDrive.toString());
+            }
+
+            // The spilled drives come out by partition and are read from the run files
+            if (mode != AggregationMode.SPILL) {
+                assertEquals(mode + " sorted", new ArrayList<>(expected.keySet()), new ArrayList<>(drives.keySet()));
+
+                String first = drives.keySet().iterator().next();
+                drives.remove(first);
+                assertFalse(mode + " removed", drives.containsKey(first));
+            }
+        }
+    }
+
+}
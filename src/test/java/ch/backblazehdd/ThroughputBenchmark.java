@@ -0,0 +1,404 @@
+package ch.backblazehdd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End to end benchmark of the whole run: ingest (reading and splitting the lines only), aggregate (calculateFromFiles)
+ * and output (outputResultCSV). Every stage is run several times and the fastest round is reported with its lines/s,
+ * MB/s, peak RSS, GC time and allocated bytes per line.
+ * <p>
+ * The results are written as JSON and compared against a baseline: the run fails when the lines/s or MB/s of a stage
+ * drop, or its allocated bytes per line grow, by more than the threshold. GC time and RSS are reported only, they are
+ * too noisy to fail on. When the data set is generated, the drives are checked against expected.csv as well, so a
+ * faster run can't report different lifetimes.
+ * <p>
+ * Usage, with the data set from -Dbenchmark.dir: ThroughputBenchmark [--rounds=5] [--threshold=0.1]
+ * [--results=throughput.json] [--baseline=throughput-baseline.json] [--golden=data.csv] [options of the run]
+ * <p>
+ * A missing baseline is created from the results. --golden compares the output with a data.csv known to be correct.
+ */
+public class ThroughputBenchmark {
+
+    private static final Pattern JSON_NUMBER = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(-?[0-9.]+(?:[eE][-+]?[0-9]+)?)");
+
+    private final Application application;
+    private final Options options;
+    private final BenchmarkData data = new BenchmarkData();
+
+    public ThroughputBenchmark(Options options) {
+        this.options = options;
+        this.application = new Application(options);
+    }
+
+    /**
+     * The measurements of one stage in one round.
+     */
+    public static class Stage {
+
+        private final String name;
+
+        private long nanos;
+        private long lines;
+        private long bytes;
+        private long gcMillis;
+        private long allocatedBytes;
+        private long peakRssKb;
+
+        public Stage(String name) {
+            this.name = name;
+        }
+
+        public double getLinesPerSecond() {
+            return lines * 1e9 / nanos;
+        }
+
+        public double getMbPerSecond() {
+            return bytes / (1024.0 * 1024.0) * 1e9 / nanos;
+        }
+
+        public double getAllocatedBytesPerLine() {
+            return lines == 0 ? 0 : allocatedBytes / (double) lines;
+        }
+
+        /**
+         * Adds the metrics of the stage to the results, prefixed with the name of the stage.
+         */
+        public void putInto(Map<String, Number> results) {
+            results.put(name + ".seconds", nanos / 1e9);
+            results.put(name + ".lines", lines);
+            results.put(name + ".bytes", bytes);
+            results.put(name + ".linesPerSecond", getLinesPerSecond());
+            results.put(name + ".mbPerSecond", getMbPerSecond());
+            results.put(name + ".gcMillis", gcMillis);
+            results.put(name + ".allocatedBytesPerLine", getAllocatedBytesPerLine());
+            results.put(name + ".peakRssKb", peakRssKb);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int rounds = 5;
+        double threshold = 0.1;
+        File results = new File("throughput.json");
+        File baseline = new File("throughput-baseline.json");
+        File golden = null;
+
+        List<String> runArgs = new ArrayList<>();
+
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--rounds=")) {
+                rounds = Integer.parseInt(value);
+            } else if (arg.startsWith("--threshold=")) {
+                threshold = Double.parseDouble(value);
+            } else if (arg.startsWith("--results=")) {
+                results = new File(value);
+            } else if (arg.startsWith("--baseline=")) {
+                baseline = new File(value);
+            } else if (arg.startsWith("--golden=")) {
+                golden = new File(value);
+            } else {
+                runArgs.add(arg);
+            }
+        }
+
+        Options options = Options.parse(runArgs.toArray(new String[0]));
+
+        if (runArgs.stream().noneMatch(arg -> arg.startsWith("--data="))) {
+            options.setDataDirectory(new BenchmarkData().getDataDirectory());
+        }
+        if (runArgs.stream().noneMatch(arg -> arg.startsWith("--output="))) {
+            File output = File.createTempFile("throughput", ".csv");
+            output.deleteOnExit();
+            options.setOutput(output);
+        }
+
+        Map<String, Number> measured = new ThroughputBenchmark(options).run(rounds, golden);
+
+        writeJson(results, measured, options);
+        System.out.println("Results written to " + results);
+
+        if (!baseline.exists()) {
+            writeJson(baseline, measured, options);
+            System.out.println("No baseline yet, saved the results as " + baseline);
+            return;
+        }
+
+        List<String> regressions = compare(readJson(baseline), measured, threshold);
+
+        for (String regression : regressions) {
+            System.err.println("Regression: " + regression);
+        }
+
+        if (!regressions.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs all stages for one warmup and the given number of rounds, then checks the drives and the output.
+     *
+     * @param rounds The number of rounds measured.
+     * @param golden A data.csv to compare the output with, null to skip.
+     * @return The metrics of the fastest round of every stage.
+     */
+    public Map<String, Number> run(int rounds, File golden) throws Exception {
+
+        File[] files = application.listDataFiles();
+        long inputBytes = Arrays.stream(files).mapToLong(File::length).sum();
+
+        Stage ingest = null;
+        Stage aggregate = null;
+        Stage output = null;
+
+        Map<String, HardDrive> drives = null;
+
+        for (int round = 0; round <= rounds; round++) {
+
+            long[] lines = new long[1];
+
+            Stage ingestRound = measure("ingest", () -> lines[0] = countLines(files));
+            ingestRound.lines = lines[0];
+            ingestRound.bytes = inputBytes;
+
+            List<Map<String, HardDrive>> result = new ArrayList<>(1);
+
+            Stage aggregateRound = measure("aggregate", () -> result.add(application.calculateFromFiles(files)));
+            aggregateRound.lines = lines[0];
+            aggregateRound.bytes = inputBytes;
+
+            drives = result.get(0);
+            Map<String, HardDrive> written = drives;
+
+            Stage outputRound = measure("output", () -> application.outputResultCSV(written));
+            outputRound.lines = drives.size();
+            outputRound.bytes = options.getOutput().length();
+
+            // The first round warms up the JIT and the page cache
+            if (round > 0) {
+                ingest = fastest(ingest, ingestRound);
+                aggregate = fastest(aggregate, aggregateRound);
+                output = fastest(output, outputRound);
+            }
+        }
+
+        verify(drives, golden);
+
+        Map<String, Number> results = new LinkedHashMap<>();
+        results.put("files", files.length);
+        results.put("parallelism", options.getParallelism());
+        ingest.putInto(results);
+        aggregate.putInto(results);
+        output.putInto(results);
+
+        for (Map.Entry<String, Number> entry : results.entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue());
+        }
+
+        return results;
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    private Stage measure(String name, Work work) throws Exception {
+
+        System.gc();
+        resetPeakRss();
+
+        Stage stage = new Stage(name);
+
+        AllocationSampler sampler = new AllocationSampler();
+        long gcMillis = gcMillis();
+        long start = System.nanoTime();
+
+        work.run();
+
+        stage.nanos = System.nanoTime() - start;
+        stage.gcMillis = gcMillis() - gcMillis;
+        stage.allocatedBytes = sampler.finish();
+        stage.peakRssKb = peakRssKb();
+
+        return stage;
+    }
+
+    private static Stage fastest(Stage best, Stage stage) {
+        return best == null || stage.nanos < best.nanos ? stage : best;
+    }
+
+    /**
+     * Reads all lines the way the aggregation does, without aggregating them.
+     *
+     * @return The number of records found.
+     */
+    private long countLines(File[] files) {
+
+        List<InputSplit> splits = FileSplitter.split(files, FileSplitter.splitSize(files, options.getParallelism()));
+
+        return splits.parallelStream().mapToLong(split -> {
+            long[] lines = new long[1];
+            try {
+                split.read(cursor -> {
+                    while (cursor.next()) {
+                        lines[0]++;
+                    }
+                });
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            }
+            return lines[0];
+        }).sum();
+    }
+
+    /**
+     * Checks the drives against expected.csv of a generated data set and the output against the golden data.csv.
+     *
+     * @throws IllegalStateException When the results differ.
+     */
+    private void verify(Map<String, HardDrive> drives, File golden) throws IOException {
+
+        Map<String, HardDrive> expected = data.getExpected();
+
+        if (expected != null) {
+
+            if (expected.size() != drives.size()) {
+                throw new IllegalStateException("Expected " + expected.size() + " drives, got " + drives.size());
+            }
+
+            for (Map.Entry<String, HardDrive> entry : expected.entrySet()) {
+                HardDrive hardDrive = drives.get(entry.getKey());
+                if (hardDrive == null || !entry.getValue().toString().equals(hardDrive.toString())) {
+                    throw new IllegalStateException("Drive " + entry.getKey() + " differs, expected "
+                            + entry.getValue() + ", got " + hardDrive);
+                }
+            }
+
+            System.out.println("Drives match expected.csv");
+        }
+
+        if (golden != null) {
+
+            if (!Files.readAllLines(golden.toPath()).equals(Files.readAllLines(options.getOutput().toPath()))) {
+                throw new IllegalStateException("Output differs from " + golden);
+            }
+
+            System.out.println("Output matches " + golden);
+        }
+    }
+
+    /**
+     * Compares the results with the baseline.
+     *
+     * @param baseline  The metrics of the baseline.
+     * @param results   The metrics just measured.
+     * @param threshold The relative change tolerated, e.g. 0.1 for 10%.
+     * @return A description of every metric which regressed, empty if none.
+     */
+    public static List<String> compare(Map<String, Double> baseline, Map<String, Number> results, double threshold) {
+
+        List<String> regressions = new ArrayList<>();
+
+        for (Map.Entry<String, Number> entry : results.entrySet()) {
+
+            String name = entry.getKey();
+            Double before = baseline.get(name);
+            double now = entry.getValue().doubleValue();
+
+            if (before == null || before == 0) {
+                continue;
+            }
+
+            boolean higherIsBetter = name.endsWith(".linesPerSecond") || name.endsWith(".mbPerSecond");
+            boolean lowerIsBetter = name.endsWith(".allocatedBytesPerLine");
+
+            if (higherIsBetter && now < before * (1 - threshold) || lowerIsBetter && now > before * (1 + threshold)) {
+                regressions.add(String.format("%s %.1f -> %.1f (%+.1f%%)", name, before, now,
+                        (now - before) / before * 100));
+            }
+        }
+
+        return regressions;
+    }
+
+    private static void writeJson(File file, Map<String, Number> results, Options options) throws IOException {
+
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            out.println("{");
+            out.println("  \"mode\": \"" + options.getAggregationMode() + "\",");
+            int i = 0;
+            for (Map.Entry<String, Number> entry : results.entrySet()) {
+                out.print("  \"" + entry.getKey() + "\": " + entry.getValue());
+                out.println(++i < results.size() ? "," : "");
+            }
+            out.println("}");
+        }
+    }
+
+    /**
+     * Reads the numbers of a JSON file written by writeJson, anything else is ignored.
+     */
+    public static Map<String, Double> readJson(File file) throws IOException {
+
+        Map<String, Double> values = new LinkedHashMap<>();
+
+        Matcher matcher = JSON_NUMBER.matcher(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            values.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+        }
+
+        return values;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Resets the peak resident set size of the process, so every stage reports its own peak. Linux only.
+     */
+    private static void resetPeakRss() {
+        File clearRefs = new File("/proc/self/clear_refs");
+        if (clearRefs.canWrite()) {
+            try {
+                Files.write(clearRefs.toPath(), "5".getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                // Not permitted, the peak of the whole process is reported then
+            }
+        }
+    }
+
+    /**
+     * @return The peak resident set size in kB, from /proc/self/status, -1 where it's not available.
+     */
+    private static long peakRssKb() {
+        try {
+            for (String line : Files.readAllLines(new File("/proc/self/status").toPath())) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException e) {
+            // Not on Linux
+        }
+        return -1;
+    }
+
+}
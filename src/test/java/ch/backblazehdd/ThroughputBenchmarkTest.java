@@ -0,0 +1,43 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ThroughputBenchmarkTest {
+
+    @Test
+    public void testCompare() throws Exception {
+
+        File file = File.createTempFile("baseline", ".json");
+        file.deleteOnExit();
+
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("{\"mode\": \"THREAD_LOCAL\", \"aggregate.linesPerSecond\": 1.0E7,");
+            out.println(" \"aggregate.allocatedBytesPerLine\": 40.0, \"aggregate.gcMillis\": 10}");
+        }
+
+        Map<String, Double> baseline = ThroughputBenchmark.readJson(file);
+        assertEquals("Values", 3, baseline.size());
+
+        Map<String, Number> results = new LinkedHashMap<>();
+        results.put("aggregate.linesPerSecond", 9.5e6);
+        results.put("aggregate.allocatedBytesPerLine", 43.0);
+        results.put("aggregate.gcMillis", 100L);
+
+        assertTrue("Within threshold", ThroughputBenchmark.compare(baseline, results, 0.1).isEmpty());
+
+        results.put("aggregate.linesPerSecond", 8e6);
+        results.put("aggregate.allocatedBytesPerLine", 60.0);
+
+        List<String> regressions = ThroughputBenchmark.compare(baseline, results, 0.1);
+        assertEquals("Regressions", 2, regressions.size());
+    }
+
+}
@@ -0,0 +1,56 @@
+package ch.backblazehdd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ZipEntrySplitTest {
+
+    @Test
+    public void testReadEntriesOfArchive() throws Exception {
+
+        File csv = FileSplitterTest.writeFile(1000);
+
+        File archive = File.createTempFile("data_Q2_2013", ".zip");
+        archive.deleteOnExit();
+
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("data_Q2_2013/"));
+            out.putNextEntry(new ZipEntry("data_Q2_2013/2013-04-10.csv"));
+            out.write(Files.readAllBytes(csv.toPath()));
+            out.putNextEntry(new ZipEntry("__MACOSX/data_Q2_2013/._2013-04-10.csv"));
+            out.write(new byte[]{0, 1, 2});
+            out.putNextEntry(new ZipEntry("data_Q2_2013/2013-04-11.csv"));
+            out.write(Files.readAllBytes(csv.toPath()));
+            out.closeEntry();
+        }
+
+        List<InputSplit> splits = FileSplitter.split(new File[]{archive}, 100);
+
+        assertEquals("Entries", 2, splits.size());
+
+        List<String> ids = new ArrayList<>();
+
+        for (InputSplit split : splits) {
+            assertEquals("Length", csv.length(), split.getLength());
+            split.read(cursor -> {
+                while (cursor.next()) {
+                    ids.add(cursor.getID());
+                }
+            });
+        }
+
+        assertEquals("Records", 2000, ids.size());
+        assertEquals("Distinct", 1000, ids.stream().distinct().count());
+
+    }
+
+}